@@ -10,7 +10,7 @@ version = "1.0-SNAPSHOT"
 
 application {
     mainClass.set("org.datastax.simulacra.Main")
-    applicationDefaultJvmArgs = listOf("--enable-preview")
+    applicationDefaultJvmArgs = listOf("--enable-preview", "--add-modules", "jdk.incubator.vector")
 }
 
 repositories {
@@ -21,6 +21,7 @@ dependencies {
     implementation("org.jetbrains:annotations:24.0.0")
     testImplementation(platform("org.junit:junit-bom:5.9.1"))
     testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
     implementation("com.fasterxml.jackson.dataformat:jackson-dataformat-yaml:2.12.2")
     implementation("com.fasterxml.jackson.module:jackson-module-jsonSchema:2.12.2")
     implementation("com.kjetland:mbknor-jackson-jsonschema_2.12:1.0.39")
@@ -30,16 +31,51 @@ dependencies {
 
 tasks.test {
     useJUnitPlatform()
+
+    // Keeps whatever the tests log or cache out of the project's own simulacra/ folder
+    val runDir = layout.buildDirectory.dir("test-run").get().asFile
+    workingDir = runDir
+    doFirst { runDir.resolve("simulacra/logs").mkdirs() }
+
+    // The OpenAI client won't even be built w/o a token, though the tests never actually call the API
+    environment("OPENAI_TOKEN", "test")
+
+    // Anything that ends up calling the default services gets the stand-in, w/o the made up latency
+    environment("LLM_PROVIDER", "stand-in")
+    environment("EMBED_PROVIDER", "stand-in")
+    environment("STAND_IN_LATENCY", "fixed:0")
+    environment("STAND_IN_EMBED_LATENCY", "fixed:0")
 }
 
 tasks.withType<JavaCompile>().configureEach {
-    options.compilerArgs.add("--enable-preview")
+    options.compilerArgs.addAll(listOf("--enable-preview", "--add-modules", "jdk.incubator.vector"))
 }
 
 tasks.withType<JavaExec>().configureEach {
-    jvmArgs("--enable-preview")
+    jvmArgs("--enable-preview", "--add-modules", "jdk.incubator.vector")
 }
 
 tasks.withType<Test>().configureEach {
-    jvmArgs("--enable-preview")
+    jvmArgs("--enable-preview", "--add-modules", "jdk.incubator.vector")
+}
+
+tasks.register<JavaExec>("embeddingStub") {
+    group = "stubs"
+    description = "Runs a model-free stand-in for the embedding service"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("org.datastax.simulacra.stubs.EmbeddingStubServer")
+}
+
+tasks.register<JavaExec>("embeddingWireBenchmark") {
+    group = "stubs"
+    description = "Compares the JSON and binary embedding wire formats against the stub"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("org.datastax.simulacra.stubs.EmbeddingWireBenchmark")
+}
+
+tasks.register<JavaExec>("openAIStub") {
+    group = "stubs"
+    description = "Runs a stand-in for the OpenAI API"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("org.datastax.simulacra.stubs.OpenAIStubServer")
 }
@@ -1,6 +1,7 @@
 import os
+import struct
 
-from flask import Flask, request, jsonify
+from flask import Flask, Response, request, jsonify
 from transformers import AutoTokenizer, AutoModel
 import torch
 import torch.nn.functional as f
@@ -20,9 +21,28 @@ def mean_pooling(model_output, attention_mask):
     input_mask_expanded = attention_mask.unsqueeze(-1).expand(token_embeddings.size()).float()
     return torch.sum(token_embeddings * input_mask_expanded, 1) / torch.clamp(input_mask_expanded.sum(1), min=1e-9)
 
+# Binary format (see LocalEmbeddingService.java), all little-endian:
+#   request:  int32 count, then per sentence an int32 byte length + the UTF-8 bytes
+#   response: int32 rows, int32 dims, then the row-major float32 matrix
+BINARY = 'application/octet-stream'
+
+def decode_sentences(body):
+    (count,) = struct.unpack_from('<i', body)
+    offset, sentences = 4, []
+    for _ in range(count):
+        (length,) = struct.unpack_from('<i', body, offset)
+        sentences.append(body[offset + 4:offset + 4 + length].decode('utf-8'))
+        offset += 4 + length
+    return sentences
+
+def encode_matrix(embeddings):
+    matrix = embeddings.cpu().numpy().astype('<f4')
+    return struct.pack('<ii', *matrix.shape) + matrix.tobytes()
+
 @app.route('/embed', methods=['POST'])
 def embed():
-    sentences = request.json['sentences']
+    binary = request.mimetype == BINARY
+    sentences = decode_sentences(request.get_data()) if binary else request.json['sentences']
 
     encoded_input = tokenizer(sentences, padding=True, truncation=True, return_tensors='pt')
     encoded_input = { key: tensor.to(device) for key, tensor in encoded_input.items() }
@@ -33,6 +53,9 @@ def embed():
     sentence_embeddings = mean_pooling(model_output, encoded_input['attention_mask'])
     sentence_embeddings = f.normalize(sentence_embeddings)
 
+    if binary:
+        return Response(encode_matrix(sentence_embeddings), mimetype=BINARY)
+
     return jsonify(sentence_embeddings.tolist())
 
 if __name__ == '__main__':
@@ -3,9 +3,17 @@ package org.datastax.simulacra;
 import com.datastax.oss.driver.api.core.CqlSession;
 import org.datastax.simulacra.agents.Agent;
 import org.datastax.simulacra.agents.AgentRegistry;
+import org.datastax.simulacra.ai.BatchingEmbeddingService;
+import org.datastax.simulacra.ai.CachingEmbeddingService;
+import org.datastax.simulacra.ai.CachingLLMService;
+import org.datastax.simulacra.ai.EmbeddingProvider;
+import org.datastax.simulacra.ai.HedgingLLMService;
+import org.datastax.simulacra.ai.LLMProvider;
+import org.datastax.simulacra.ai.PooledEmbeddingService;
 import org.datastax.simulacra.conversation.ConversationsRegistry;
 import org.datastax.simulacra.db.CqlSessionManager;
 import org.datastax.simulacra.environment.WorldMap;
+import org.datastax.simulacra.moment.ReactiveMoment;
 
 import java.time.format.DateTimeFormatter;
 import java.util.*;
@@ -32,6 +40,7 @@ public class God {
         put("dump current conversations", God::dumpConversations);
         put("make db query", God::makeDbQuery);
         put("dump actions for some agent", God::dumpActionsForAgent);
+        put("dump service stats", God::dumpStats);
         put("exit", () -> System.out.println("Universe> Goodbye!"));
     }};
 
@@ -107,7 +116,7 @@ public class God {
         }
 
         will.add(() -> {
-            item.setStatus(newStatus);
+            subarea.findAndUpdateItem(item.name(), newStatus);
         });
     }
 
@@ -176,6 +185,22 @@ public class God {
         });
     }
 
+    private static void dumpStats() {
+        System.out.println("\nUniverse> Dumping service stats...");
+        System.out.println(" - " + SimClock.stats());
+        System.out.println(" - " + CachingEmbeddingService.DEFAULT.stats());
+        System.out.println(" - " + BatchingEmbeddingService.DEFAULT.stats());
+        System.out.println(" - " + CachingLLMService.DEFAULT.stats());
+        System.out.println(" - " + HedgingLLMService.DEFAULT.stats());
+        System.out.println(" - " + ReactiveMoment.INSTANCE.stats());
+        System.out.println(" - " + Agent.observationStats());
+        System.out.println(" - " + LLMProvider.selected().stats());
+
+        if (EmbeddingProvider.selected().service() instanceof PooledEmbeddingService pool) {
+            System.out.println(" - " + pool.stats());
+        }
+    }
+
     private static <T> T getOrSuggest(Function<String, T> fn, Collection<String> options) {
         var input = scanner.nextLine().toLowerCase();
 
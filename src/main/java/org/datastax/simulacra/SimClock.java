@@ -1,57 +1,151 @@
 package org.datastax.simulacra;
 
-import org.datastax.simulacra.agents.Agent;
 import org.datastax.simulacra.agents.AgentRegistry;
 import org.datastax.simulacra.logging.HomemadeLogger;
 import org.datastax.simulacra.moment.Moment;
+import org.datastax.simulacra.utils.LatencyRecorder;
 
 import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static java.lang.Integer.parseInt;
+import static java.lang.Long.parseLong;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
-import static org.datastax.simulacra.utils.Utils.filter;
-
+import static org.datastax.simulacra.logging.HomemadeLogger.log;
+
+/**
+ * Drives the simulation, one tick (moment) at a time. <code>SIM_CLOCK_MODE</code> picks how ticks are paced:
+ * <ul>
+ *     <li><code>fixed_rate</code> (default): a tick starts every <code>SIM_CLOCK_TICK_MS</code>, w/ late ticks running
+ *     back-to-back until it's caught up.</li>
+ *     <li><code>as_fast_as_possible</code>: the next tick starts as soon as the last one's done (agents & god's will
+ *     included), but no sooner than <code>SIM_CLOCK_MIN_TICK_MS</code> after it started, so sim time moves as fast as
+ *     the LLM lets it.</li>
+ * </ul>
+ * Ticks which take longer than they're meant to (the period, or the floor if there is one) are counted as overruns.
+ */
 public class SimClock {
+    public enum Mode { FIXED_RATE, AS_FAST_AS_POSSIBLE }
+
     public static final int TIME_GRANULARITY = 10;
-    public static final int TIME_PER_LOOP = 10000;
+    public static final int TIME_PER_LOOP = parseInt(System.getenv().getOrDefault("SIM_CLOCK_TICK_MS", "10000"));
+
+    public static final Mode MODE = Mode.valueOf(System.getenv().getOrDefault("SIM_CLOCK_MODE", "fixed_rate").toUpperCase().replace('-', '_'));
+    private static final long MIN_TICK_MS = parseLong(System.getenv().getOrDefault("SIM_CLOCK_MIN_TICK_MS", "0"));
 
     public static final Instant RUN_START_TIME = Instant.now();
 
     private static final ScheduledExecutorService exec = Executors.newSingleThreadScheduledExecutor();
     private static final AtomicReference<Exception> throwableFromThread = new AtomicReference<>();
 
+    private static final TickStats tickStats = new TickStats();
+    private static volatile long startedAt;
+
     public static final LocalDateTime START_TIME = LocalDateTime.of(2023, 1, 13, 7, 0, 0, 0);
     private static LocalDateTime simTime = START_TIME;
 
     public static void start() {
-        System.out.println("SimClock.start");
-
-        exec.scheduleAtFixedRate(() -> {
-            try {
-                var moment = Moment.determine();
-
-                AgentRegistry
-                    .chunkedBySubarea()
-                    .parallelStream()
-                    .peek(chunk -> filter(chunk, Agent::isInConversation))
-                    .forEach(moment::elapse);
-
-                if (moment.elapsesTime()) {
-                    simTime = simTime.plusMinutes(TIME_GRANULARITY);
-                }
-
-                carryOutGodsWill();
-                HomemadeLogger.flushLogs();
-            } catch (Exception e) {
-                throwableFromThread.set(e);
+        System.out.println("SimClock.start (" + MODE.name().toLowerCase() + ")");
+        startedAt = System.nanoTime();
+
+        switch (MODE) {
+            case FIXED_RATE -> exec.scheduleAtFixedRate(() -> tick(TIME_PER_LOOP), 0, TIME_PER_LOOP, MILLISECONDS);
+            case AS_FAST_AS_POSSIBLE -> exec.execute(SimClock::tickAsFastAsPossible);
+        }
+    }
+
+    private static void tickAsFastAsPossible() {
+        var start = System.nanoTime();
+        tick(MIN_TICK_MS);
+
+        if (throwableFromThread.get() != null || exec.isShutdown()) {
+            return;
+        }
+
+        var elapsed = (System.nanoTime() - start) / 1_000_000;
+
+        try {
+            exec.schedule(SimClock::tickAsFastAsPossible, nextTickDelay(elapsed, MIN_TICK_MS), MILLISECONDS);
+        } catch (RejectedExecutionException ignored) {
+            // Shut down mid-tick
+        }
+    }
+
+    /**
+     * @param budgetMs How long the tick's meant to take at most, or <code>0</code> for no limit
+     */
+    private static void tick(long budgetMs) {
+        var start = System.nanoTime();
+
+        try {
+            var moment = Moment.determine();
+
+            TickExecutor.elapse(moment, AgentRegistry.chunkedBySubarea());
+
+            if (moment.elapsesTime()) {
+                simTime = simTime.plusMinutes(TIME_GRANULARITY);
+            }
+
+            carryOutGodsWill();
+            HomemadeLogger.flushLogs();
+        } catch (Exception e) {
+            throwableFromThread.set(e);
+        }
+
+        var elapsed = (System.nanoTime() - start) / 1_000_000;
+        var over = tickStats.record(elapsed, budgetMs);
+
+        if (over > 0) {
+            log("[SimClock] Tick @ %s took %dms, %dms over".formatted(timeString(), elapsed, over));
+        }
+    }
+
+    /**
+     * How long to wait before the next as-fast-as-possible tick, so it starts no sooner than the floor after the last
+     */
+    static long nextTickDelay(long elapsedMs, long minTickMs) {
+        return Math.max(0, minTickMs - elapsedMs);
+    }
+
+    /**
+     * Every tick's duration, & how many (and by how much) went over their budget
+     */
+    static class TickStats {
+        final LatencyRecorder durations = new LatencyRecorder();
+        final AtomicLong overruns = new AtomicLong();
+        final AtomicLong overrunMillis = new AtomicLong();
+
+        /**
+         * @param budgetMs How long the tick was meant to take at most, or <code>0</code> for no limit
+         * @return How far over budget it went, or <code>0</code> if it didn't
+         */
+        long record(long elapsedMs, long budgetMs) {
+            durations.record(elapsedMs);
+
+            if (budgetMs <= 0 || elapsedMs <= budgetMs) {
+                return 0;
             }
-        }, 0, TIME_PER_LOOP, MILLISECONDS);
+
+            overruns.incrementAndGet();
+            overrunMillis.addAndGet(elapsedMs - budgetMs);
+            return elapsedMs - budgetMs;
+        }
+    }
+
+    public static String stats() {
+        var wallSeconds = Math.max(1e-9, (System.nanoTime() - startedAt) / 1e9);
+        var budget = (MODE == Mode.FIXED_RATE) ? TIME_PER_LOOP + "ms period" : (MIN_TICK_MS > 0) ? MIN_TICK_MS + "ms floor" : "no floor";
+
+        return "SimClock (%s, %s, %.2f sim minutes per wall second, %d overruns, %dms over in total):\n   - tick duration: %s".formatted(
+            MODE.name().toLowerCase(), budget, elapsed().toSeconds() / 60.0 / wallSeconds, tickStats.overruns.get(), tickStats.overrunMillis.get(), tickStats.durations.summary()
+        );
     }
 
     public static void checkForError() throws Throwable {
@@ -0,0 +1,67 @@
+package org.datastax.simulacra;
+
+import org.datastax.simulacra.agents.Agent;
+import org.datastax.simulacra.moment.Moment;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.StructuredTaskScope;
+import java.util.concurrent.TimeoutException;
+
+import static java.lang.Long.parseLong;
+import static org.datastax.simulacra.logging.HomemadeLogger.err;
+
+/**
+ * Runs a moment for every subarea's agents at once, each subarea on its own virtual thread, so a subarea that's
+ * waiting on the LLM doesn't tie up a platform thread, and how many run at once is only limited by the service
+ * limiters downstream (rather than by the number of cores).
+ * <p>
+ * The subareas are forked in a <code>StructuredTaskScope</code>, so if one of them fails, the rest are cancelled and
+ * the error's thrown from the tick. If the tick runs past <code>TICK_TIMEOUT_MS</code>, the subareas are interrupted,
+ * which skips whatever stages they hadn't started yet. The clock only moves on once the calls that were already going
+ * have finished (closing the scope waits on them), so a cancelled tick never overlaps the next one.
+ * <p>
+ * <code>TICK_EXECUTOR=parallel_stream</code> goes back to running the subareas on the common pool.
+ */
+public final class TickExecutor {
+    public enum Mode { STRUCTURED, PARALLEL_STREAM }
+
+    public static final Mode MODE = Mode.valueOf(System.getenv().getOrDefault("TICK_EXECUTOR", "structured").toUpperCase().replace('-', '_'));
+    private static final long TIMEOUT_MS = parseLong(System.getenv().getOrDefault("TICK_TIMEOUT_MS", "0"));
+
+    private TickExecutor() {}
+
+    public static void elapse(Moment moment, Collection<List<Agent>> chunks) throws InterruptedException, ExecutionException {
+        switch (MODE) {
+            case STRUCTURED -> elapseStructured(moment, chunks);
+            case PARALLEL_STREAM -> chunks.parallelStream().forEach(moment::elapse);
+        }
+    }
+
+    private static void elapseStructured(Moment moment, Collection<List<Agent>> chunks) throws InterruptedException, ExecutionException {
+        try (var scope = new StructuredTaskScope.ShutdownOnFailure("tick", Thread.ofVirtual().name("tick-", 0).factory())) {
+            for (var chunk : chunks) {
+                scope.fork(() -> {
+                    moment.elapse(chunk);
+                    return null;
+                });
+            }
+
+            try {
+                if (TIMEOUT_MS > 0) {
+                    scope.joinUntil(Instant.now().plusMillis(TIMEOUT_MS));
+                } else {
+                    scope.join();
+                }
+            } catch (TimeoutException e) {
+                err("Tick @ %s ran over %dms, skipping whatever's left of it".formatted(SimClock.timeString(), TIMEOUT_MS));
+                scope.shutdown();
+                return;
+            }
+
+            scope.throwIfFailed();
+        }
+    }
+}
@@ -7,27 +7,51 @@ import org.datastax.simulacra.ai.ChatService;
 import org.datastax.simulacra.ai.EnumType;
 import org.datastax.simulacra.ai.FunctionResponse;
 import org.datastax.simulacra.ai.FunctionService;
+import org.datastax.simulacra.ai.FunctionService.BatchPrompt;
 import org.datastax.simulacra.conversation.ConversationsRegistry;
 import org.datastax.simulacra.environment.Area;
 import org.datastax.simulacra.environment.SubArea;
+import org.datastax.simulacra.environment.SubArea.SceneVersion;
 import org.datastax.simulacra.environment.WorldMap;
 import org.datastax.simulacra.memorystream.MemoryEntity;
 import org.datastax.simulacra.memorystream.MemoryStream;
 import org.datastax.simulacra.memorystream.MemoryType;
 import org.datastax.simulacra.memorystream.Plan;
 
+import java.time.Instant;
+import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
+import static java.lang.Long.parseLong;
 import static java.util.concurrent.CompletableFuture.completedFuture;
 import static org.datastax.simulacra.utils.Utils.*;
 import static org.datastax.simulacra.logging.HomemadeLogger.*;
 
 public class Agent {
+    /**
+     * How long each of the LLM calls made every moment (observing, planning the moment & place) gets before it's
+     * given up on and the agent just carries on w/ its plan for the tick, or 0 for no limit.
+     */
+    private static final long MOMENT_DEADLINE_MS = parseLong(System.getenv().getOrDefault("LLM_MOMENT_DEADLINE_MS", "0"));
+
+    public static final boolean BATCH_MOMENT_PLANS = Boolean.parseBoolean(System.getenv().getOrDefault("LLM_BATCH_MOMENT_PLANS", "true"));
+
+    private static final boolean OBSERVE_ONLY_ON_CHANGE = Boolean.parseBoolean(System.getenv().getOrDefault("OBSERVE_ONLY_ON_CHANGE", "true"));
+
+    static final AtomicLong fullObservations = new AtomicLong();
+    static final AtomicLong diffObservations = new AtomicLong();
+    static final AtomicLong skippedObservations = new AtomicLong();
+
     private final String name;
     private final Integer age;
     private final List<String> traits;
@@ -44,6 +68,12 @@ public class Agent {
     private List<String> latestObservations;
     private int importanceCounter = 0;
     private boolean isInConversation = false;
+    private volatile LocalDateTime awakeUntil = LocalDateTime.MIN;
+    private final AtomicLong actionVersion = new AtomicLong();
+
+    private SceneVersion lastObservedVersion;
+    private Map<String, String> lastObservedItems = Map.of();
+    private Map<String, String> lastObservedAgents = Map.of();
 
     public Agent(
         String name,
@@ -66,6 +96,10 @@ public class Agent {
         subarea.register(this);
     }
 
+    private static Instant momentDeadline() {
+        return (MOMENT_DEADLINE_MS <= 0) ? null : Instant.now().plusMillis(MOMENT_DEADLINE_MS);
+    }
+
     public CompletableFuture<Void> planDay() {
         log(this, "Planning " + name + "'s day...");
 
@@ -193,11 +227,103 @@ public class Agent {
         });
     }
 
+    /**
+     * Unless <code>OBSERVE_ONLY_ON_CHANGE</code> is off, nothing's observed (no LLM call or embedding; the latest
+     * observations are kept as is) if nothing around the agent's changed since they last observed it, and only
+     * what's changed is passed along if something has. The agent's own action counts as part of their surroundings.
+     */
     public CompletableFuture<Void> observe() {
-        var subareaItemsSummary = subarea.items().values().stream().map(i -> i.name() + " is " + i.status()).toList();
-        var subareaAgentsSummary = subarea.agents().values().stream().map(i -> i.name + " is " + i.currentAction).toList();
-        var observations = cat(subareaItemsSummary, subareaAgentsSummary);
-        return synthesizeObservation(observations.toString());
+        var version = subarea.sceneVersion(this);
+
+        if (OBSERVE_ONLY_ON_CHANGE && version.equals(lastObservedVersion) && latestObservations != null) {
+            skippedObservations.incrementAndGet();
+            return completedFuture(null);
+        }
+
+        var items = subareaItems();
+        var agents = subareaAgents();
+
+        List<String> observations;
+
+        if (OBSERVE_ONLY_ON_CHANGE && lastObservedVersion != null && lastObservedVersion.subarea() == subarea && latestObservations != null) {
+            observations = sceneChanges(items, agents);
+
+            if (observations.isEmpty()) {
+                lastObservedVersion = version;
+                skippedObservations.incrementAndGet();
+                return completedFuture(null);
+            }
+            diffObservations.incrementAndGet();
+        } else {
+            observations = fullScene(items, agents);
+            fullObservations.incrementAndGet();
+        }
+
+        return synthesizeObservation(observations.toString()).thenRun(() -> observed(version, items, agents));
+    }
+
+    private Map<String, String> subareaItems() {
+        var items = new LinkedHashMap<String, String>();
+        subarea.items().values().forEach(i -> items.put(i.name(), i.status()));
+        return items;
+    }
+
+    /**
+     * Everyone in the subarea, the agent themself included, and what they're doing.
+     */
+    private Map<String, String> subareaAgents() {
+        var agents = new LinkedHashMap<String, String>();
+        subarea.agents().values().forEach(a -> agents.put(a.name, a.currentAction));
+        return agents;
+    }
+
+    private static List<String> fullScene(Map<String, String> items, Map<String, String> agents) {
+        return cat(
+            map(items.entrySet(), e -> e.getKey() + " is " + e.getValue()),
+            map(agents.entrySet(), e -> e.getKey() + " is " + e.getValue())
+        );
+    }
+
+    private void observed(SceneVersion version, Map<String, String> items, Map<String, String> agents) {
+        lastObservedVersion = version;
+        lastObservedItems = items;
+        lastObservedAgents = agents;
+    }
+
+    private List<String> sceneChanges(Map<String, String> items, Map<String, String> agents) {
+        var changes = new ArrayList<String>();
+
+        items.forEach((item, status) -> {
+            var before = lastObservedItems.get(item);
+
+            if (!Objects.equals(before, status)) {
+                changes.add(item + " is now " + status + ((before != null) ? " (was " + before + ")" : ""));
+            }
+        });
+
+        agents.forEach((agent, action) -> {
+            var before = lastObservedAgents.get(agent);
+
+            if (agent.equals(name)) {
+                return; // Their own action's in the full scene, but it's not news to them
+            } else if (!lastObservedAgents.containsKey(agent)) {
+                changes.add(agent + " came in, and is " + action);
+            } else if (!Objects.equals(before, action)) {
+                changes.add(agent + " is now " + action + " (was " + before + ")");
+            }
+        });
+
+        lastObservedAgents.keySet().stream()
+            .filter(agent -> !agents.containsKey(agent))
+            .forEach(agent -> changes.add(agent + " left"));
+
+        return changes;
+    }
+
+    public static String observationStats() {
+        return "Observations (%s): %d full, %d of just what's changed, %d skipped w/ nothing new".formatted(
+            (OBSERVE_ONLY_ON_CHANGE) ? "only on change" : "every tick", fullObservations.get(), diffObservations.get(), skippedObservations.get()
+        );
     }
 
     @FunctionResponse
@@ -222,10 +348,43 @@ public class Agent {
     ) {}
 
     public CompletableFuture<Void> planMoment() {
-        return memory.getMostRelevantMemories(name, latestObservations, 3).thenCompose(memories -> {
-            var flatMemories = memories.stream().flatMap(Collection::stream).distinct().map(MemoryEntity::memory).toList();
+        return momentPlanPrompt()
+            .thenCompose(this::queryMomentPlan)
+            .thenCompose(this::carryOutMomentPlan);
+    }
 
-            var prompt = """
+    /**
+     * Plans the moment for a bunch of agents (e.g. everyone in a subarea) w/ one LLM call instead of one each,
+     * unless <code>LLM_BATCH_MOMENT_PLANS</code> is off. Anyone whose plan doesn't make it back from the batch
+     * (or if the whole batch fails) is planned on their own. Returns a future per agent, in the same order.
+     */
+    public static List<CompletableFuture<Void>> planMoments(List<Agent> agents) {
+        if (!BATCH_MOMENT_PLANS || agents.size() < 2 || agents.stream().map(a -> a.name).distinct().count() < agents.size()) {
+            return map(agents, Agent::planMoment);
+        }
+
+        var prompts = map(agents, agent -> agent.momentPlanPrompt().thenApply(prompt -> new BatchPrompt(prompt, agent.momentPlanProviders())));
+
+        var plans = FunctionService.queryBatchOrEach(
+            map(agents, a -> a.name),
+            prompts,
+            batch -> FunctionService.getDefault().queryBatch(MOMENT_PLAN_BATCH_PREAMBLE, batch, momentDeadline(), MomentPlan.class),
+            prompt -> FunctionService.getDefault().query(prompt.prompt(), momentDeadline(), MomentPlan.class, prompt.providers())
+        );
+
+        return zipMap(agents, plans, (agent, plan) -> plan.thenCompose(agent::carryOutMomentPlan));
+    }
+
+    private static final String MOMENT_PLAN_BATCH_PREAMBLE = """
+        Plan the next moment for each of the following people, separately, going only off of their own context
+        under their name. Respond with a moment plan for every one of them, keyed by their exact name.
+    """;
+
+    private CompletableFuture<String> momentPlanPrompt() {
+        return memory.getMostRelevantMemories(name, latestObservations, 3).thenApply(memories -> {
+            var flatMemories = memories.stream().flatMap(Collection::stream).map(MemoryEntity::memory).distinct().toList();
+
+            return """
                 %s
                 Never include others in your plans, not even friends, family, or community, unless there is reason to do so in the hourly plan.
                 Try to be a bit descriptive with your moment plan.
@@ -253,33 +412,41 @@ public class Agent {
                 plan.planForTheHour().get(SimClock.time().getMinute() / SimClock.TIME_GRANULARITY),
                 SimClock.dateTimeString()
             );
+        });
+    }
 
-            return FunctionService.getDefault().query(prompt, MomentPlan.class, subarea.agentNamesExcluding(name), subarea.itemNames()).thenCompose(response -> {
-                log(this, ANSI_WHITE, "Plan 4 moment for " + name + ": " + response);
+    private Collection<?>[] momentPlanProviders() {
+        return new Collection<?>[] { subarea.agentNamesExcluding(name), subarea.itemNames() };
+    }
 
-                if (response.talkTo != null) {
-                    var agent = subarea.findAgent(response.talkTo);
+    private CompletableFuture<MomentPlan> queryMomentPlan(String prompt) {
+        return FunctionService.getDefault().query(prompt, momentDeadline(), MomentPlan.class, momentPlanProviders());
+    }
 
-                    if (agent != null) {
-                        ConversationsRegistry.addConversation(this, agent);
-                        return completedFuture(null);
-                    }
-                }
+    private CompletableFuture<Void> carryOutMomentPlan(MomentPlan response) {
+        log(this, ANSI_WHITE, "Plan 4 moment for " + name + ": " + response);
 
-                log(this, "Items to update:" + response.items);
-                log(this, subarea.items().keySet());
+        if (response.talkTo != null) {
+            var agent = subarea.findAgent(response.talkTo);
 
-                if (response.items != null) {
-                    zipForEach(response.items, response.correspondingItemStatuses, subarea::findAndUpdateItem);
-                }
+            if (agent != null) {
+                ConversationsRegistry.addConversation(this, agent);
+                return completedFuture(null);
+            }
+        }
 
-                currentAction = response.action;
+        log(this, "Items to update:" + response.items);
+        log(this, subarea.items().keySet());
 
-                return (response.replanReason == null)
-                    ? completedFuture(null)
-                    : rePlanDay(response.replanReason);
-            });
-        });
+        if (response.items != null && response.correspondingItemStatuses != null) {
+            zipForEach(response.items, response.correspondingItemStatuses, subarea::findAndUpdateItem);
+        }
+
+        setCurrentAction(response.action);
+
+        return (response.replanReason == null)
+            ? completedFuture(null)
+            : rePlanDay(response.replanReason);
     }
 
     @FunctionResponse
@@ -302,7 +469,7 @@ public class Agent {
             .toList();
 
         return memory.getMostRelevantMemories(name, queries, 3).thenCompose(memories -> {
-            var context = memories.stream().flatMap(Collection::stream).distinct().map(MemoryEntity::memory).toList();
+            var context = memories.stream().flatMap(Collection::stream).map(MemoryEntity::memory).distinct().toList();
 
             var prompt = """
                 %s
@@ -320,7 +487,7 @@ public class Agent {
                 context
             );
 
-            return FunctionService.getDefault().query(prompt, MomentPlanV2.class, subarea.agentNamesExcluding(name), subarea.itemNames()).thenCompose(response -> {
+            return FunctionService.getDefault().query(prompt, momentDeadline(), MomentPlanV2.class, subarea.agentNamesExcluding(name), subarea.itemNames()).thenCompose(response -> {
                 log(this, ANSI_WHITE, "Plan 4 moment for " + name + ": " + response);
 
                 if (response.talkTo != null) {
@@ -332,7 +499,7 @@ public class Agent {
                     }
                 }
 
-                currentAction = plan.planForTheHour().get(SimClock.time().getMinute() / SimClock.TIME_GRANULARITY);
+                setCurrentAction(plan.planForTheHour().get(SimClock.time().getMinute() / SimClock.TIME_GRANULARITY));
 
                 return (response.talkTo != null || response.reaction == null)
                     ? completedFuture(null)
@@ -365,7 +532,7 @@ public class Agent {
             name
         );
 
-        return FunctionService.getDefault().query(areaPrompt, PlanPlace.class, localMap.areaNames()).thenCompose(areaName -> {
+        return FunctionService.getDefault().query(areaPrompt, momentDeadline(), PlanPlace.class, localMap.areaNames()).thenCompose(areaName -> {
             log(this, "Area name: " + areaName.placeName);
             var foundArea = localMap.findArea(areaName.placeName);
             var area = (foundArea != null) ? foundArea : subarea.area();
@@ -381,13 +548,142 @@ public class Agent {
                 name
             );
 
-            return FunctionService.getDefault().query(subareaPrompt, PlanPlace.class, area.subareaNames()).thenAccept(subareaName -> {
+            return FunctionService.getDefault().query(subareaPrompt, momentDeadline(), PlanPlace.class, area.subareaNames()).thenAccept(subareaName -> {
                 log(this, "Place 4 plan: " + subareaName.placeName);
-                var foundSubarea = area.findSubarea(subareaName.placeName);
+                moveTo(area.findSubarea(subareaName.placeName));
+            });
+        });
+    }
 
-                subarea.unregister(this);
-                subarea = (foundSubarea != null) ? foundSubarea : subarea;
-                subarea.register(this);
+    private void moveTo(SubArea destination) {
+        if (destination == null || destination == subarea) {
+            return;
+        }
+
+        subarea.unregister(this);
+        subarea = destination;
+        subarea.register(this);
+    }
+
+    @FunctionResponse
+    record Tick(
+        @JsonPropertyDescription("The synthesized, actionable, observation of the agent's surroundings and the other people in them")
+        @JsonProperty(required = true)
+        String observation,
+
+        @JsonPropertyDescription("The non-inflated, conservative importance of remembering the observation, from 1 to 10. Be realistic, don't try to draw out meaning.")
+        @JsonProperty(required = true)
+        int importance,
+
+        @JsonPropertyDescription("The action the agent should be doing for the next " + SimClock.TIME_GRANULARITY + " minutes")
+        @JsonProperty(required = true)
+        String action,
+
+        @JsonPropertyDescription("Reason for re-planning or null if no replan needed. Only replan if absolutely necessary (e.g., if the agent is straying far enough from the plan)")
+        String replanReason,
+
+        @EnumType
+        @JsonPropertyDescription("The name of the person you want to talk to, or null if no talking desired")
+        String talkTo,
+
+        @EnumType
+        @JsonPropertyDescription("List of each items to update if interacting with them (don't force any interaction, and pay attention to their current status before using it). DO NOT FORGET TO RESET THE ITEMS TO SOME IDLE STATUS AFTER YOU'RE FINISHED INTERACTING WITH THEM.")
+        List<String> items,
+
+        @JsonPropertyDescription("The new corresponding statuses of each item, or a neutral status such as \"idle\" or \"empty\" if done")
+        List<String> correspondingItemStatuses,
+
+        @EnumType
+        @JsonPropertyDescription("Where the agent should be to carry out the action, as `area > subarea`. Prefer staying put if the action can be done here.")
+        @JsonProperty(required = true)
+        String destination
+    ) {}
+
+    /**
+     * In the same order as the {@link Tick}'s <code>&#64;EnumType</code> fields.
+     */
+    Collection<?>[] tickProviders() {
+        return new Collection<?>[] { subarea.agentNamesExcluding(name), subarea.itemNames(), localMap.destinations() };
+    }
+
+    /**
+     * Observing, planning the moment, and planning the place all in one LLM call, for the fused reactive tick
+     * (see {@link org.datastax.simulacra.moment.ReactiveMoment}). Memories are looked up w/ the raw observations,
+     * since there's no synthesized one yet. What was observed is kept track of the same as in {@link #observe()}.
+     */
+    public CompletableFuture<Void> tick() {
+        var version = subarea.sceneVersion(this);
+        var items = subareaItems();
+        var agents = subareaAgents();
+        var observations = fullScene(items, agents).toString();
+
+        return memory.getMostRelevantMemories(name, List.of(observations), 3).thenCompose(memories -> {
+            var flatMemories = memories.stream().flatMap(Collection::stream).map(MemoryEntity::memory).distinct().toList();
+
+            var prompt = """
+                %s
+                Around %s right now: %s
+                Synthesize that into an observation that's important to the agent (perhaps that they might want to act upon),
+                about their surroundings and other people, not about themself. Keep it succinct, conservative, and factual.
+                Rate the importance of **remembering** it from 1 (purely mundane, e.g. brushing teeth) to 10 (extremely
+                poignant, e.g. a break up, college acceptance), with respect to the agent. Don't dramatize it.
+                
+                Then plan %s's next action, feasible for %d minutes, based on their plan, but also on the observation and context.
+                Never include others in your plans, not even friends, family, or community, unless there is reason to do so in the hourly plan.
+                Previous action %s.
+                Relevant context: %s.
+                Plan for the hour: %s.
+                Plan for right now: %s.
+                The exact time is %s.
+                A re-plan of the day is only needed if the action strays far enough from the plan to warrant one.
+                Try not to repeat yourself unless it makes sense in context (such as sleeping)
+                
+                Finally, pick where %s should be to carry out the action. They're currently in %s > %s, and their house is %s.
+                Prefer to stay in the same place if the action can be accomplished there.
+            """.formatted(
+                summary,
+                name, observations,
+                name, SimClock.TIME_GRANULARITY,
+                currentAction,
+                flatMemories,
+                plan.planForTheHour(),
+                plan.planForTheHour().get(SimClock.time().getMinute() / SimClock.TIME_GRANULARITY),
+                SimClock.dateTimeString(),
+                name, subarea.area().name(), subarea.name(), house.name()
+            );
+
+            return FunctionService.getDefault().query(prompt, momentDeadline(), Tick.class, tickProviders()).thenCompose(response -> {
+                log(this, ANSI_WHITE, "Tick for " + name + ": " + response);
+
+                latestObservations = List.of(response.observation);
+                importanceCounter += response.importance;
+                observed(version, items, agents);
+
+                var remembered = MemoryEntity.from(name, response.importance, MemoryType.OBSERVATION, response.observation)
+                    .thenAccept(memory::save);
+
+                if (response.talkTo != null) {
+                    var agent = subarea.findAgent(response.talkTo);
+
+                    if (agent != null) {
+                        ConversationsRegistry.addConversation(this, agent);
+                        return remembered;
+                    }
+                }
+
+                if (response.items != null && response.correspondingItemStatuses != null) {
+                    zipForEach(response.items, response.correspondingItemStatuses, subarea::findAndUpdateItem);
+                }
+
+                setCurrentAction(response.action);
+
+                if (response.destination != null) {
+                    moveTo(localMap.findDestination(response.destination));
+                }
+
+                return (response.replanReason == null)
+                    ? remembered
+                    : remembered.thenCompose(v -> rePlanDay(response.replanReason));
             });
         });
     }
@@ -509,7 +805,7 @@ public class Agent {
             flow freely." is NOT important because it doesn't build anything about the agent's character.
         """.formatted(summary, context);
 
-        return FunctionService.getDefault().query(prompt, Observation.class).thenCompose(response -> {
+        return FunctionService.getDefault().query(prompt, momentDeadline(), Observation.class).thenCompose(response -> {
             log(this, response);
             latestObservations = List.of(response.observation);
             importanceCounter += response.importance;
@@ -545,7 +841,7 @@ public class Agent {
             DO NOT ADD COMMENTS TO THE RATINGS, JUST DO THE RATINGS
         """.formatted(summary, observations);
 
-        return FunctionService.getDefault().query(prompt, ObservationV2.class).thenCompose(response -> {
+        return FunctionService.getDefault().query(prompt, momentDeadline(), ObservationV2.class).thenCompose(response -> {
             log(this, response);
             latestObservations = observations;
 
@@ -597,10 +893,38 @@ public class Agent {
         isInConversation = inConversation;
     }
 
+    /**
+     * Whether the agent's meant to be asleep right now (as per their daily plan), and nothing's woken them up.
+     */
+    public boolean isDormant() {
+        var now = SimClock.time();
+        return plan != null && !isInConversation && now.isAfter(awakeUntil) && plan.isSleepingAt(now.getHour());
+    }
+
+    /**
+     * Keeps the agent up until the end of the (sim) hour, e.g. if someone's trying to talk to them.
+     */
+    public void wake(String reason) {
+        if (isDormant()) {
+            log(this, name + " was woken up by " + reason);
+        }
+        awakeUntil = SimClock.time().truncatedTo(ChronoUnit.HOURS).plusHours(1).minusNanos(1);
+    }
+
     public void setCurrentAction(String currentAction) {
+        if (!Objects.equals(this.currentAction, currentAction)) {
+            actionVersion.incrementAndGet();
+        }
         this.currentAction = currentAction;
     }
 
+    /**
+     * Bumped whenever the agent's current action changes.
+     */
+    public long actionVersion() {
+        return actionVersion.get();
+    }
+
     @Override
     public String toString() {
         return "Agent{" +
@@ -0,0 +1,162 @@
+package org.datastax.simulacra.ai;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.Double.parseDouble;
+import static java.lang.Integer.parseInt;
+import static java.lang.Math.min;
+import static java.util.concurrent.CompletableFuture.failedFuture;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static org.datastax.simulacra.utils.Utils.allOf;
+import static org.datastax.simulacra.utils.Utils.map;
+
+/**
+ * Coalesces embedding requests from across agents into batched calls to some other embedding service.
+ * <p>
+ * Requests are held for a short window (or until <code>EMBED_BATCH_MAX_SIZE</code> texts are waiting), then sent
+ * as one call, and the results are fanned back out to each caller's future. The window adapts to the latency of
+ * the delegate: it's <code>EMBED_BATCH_WINDOW_FRACTION</code> of the delegate's average latency, capped at
+ * <code>EMBED_BATCH_MAX_WINDOW_MS</code>, so waiting never costs much relative to the call itself.
+ */
+public class BatchingEmbeddingService implements EmbeddingService {
+    public static final BatchingEmbeddingService DEFAULT = new BatchingEmbeddingService(
+        EmbeddingProvider.selected().service(),
+        parseInt(System.getenv().getOrDefault("EMBED_BATCH_MAX_SIZE", "64")),
+        parseDouble(System.getenv().getOrDefault("EMBED_BATCH_MAX_WINDOW_MS", "20")),
+        parseDouble(System.getenv().getOrDefault("EMBED_BATCH_WINDOW_FRACTION", "0.1"))
+    );
+
+    private static final double EWMA_WEIGHT = .2;
+
+    private final EmbeddingService delegate;
+    private final int maxBatchSize;
+    private final double maxWindowMs;
+    private final double windowFraction;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+        Thread.ofPlatform().name("embedding-batcher").daemon().factory()
+    );
+
+    private List<Pending> pending = new ArrayList<>();
+    private ScheduledFuture<?> scheduledFlush;
+    private volatile double latencyEwmaMs;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    public BatchingEmbeddingService(EmbeddingService delegate, int maxBatchSize, double maxWindowMs, double windowFraction) {
+        this.delegate = delegate;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWindowMs = maxWindowMs;
+        this.windowFraction = windowFraction;
+        this.latencyEwmaMs = maxWindowMs / windowFraction;
+    }
+
+    private record Pending(String text, CompletableFuture<float[]> future) {}
+
+    @Override
+    public CompletableFuture<float[]> embed(String text) {
+        var request = new Pending(text, new CompletableFuture<>());
+        enqueue(List.of(request));
+        return request.future;
+    }
+
+    @Override
+    public CompletableFuture<List<float[]>> embed(List<String> texts) {
+        var requests = map(texts, text -> new Pending(text, new CompletableFuture<>()));
+        enqueue(requests);
+        return allOf(map(requests, Pending::future));
+    }
+
+    public String stats() {
+        var numBatches = batches.get();
+
+        return "Embedding batcher: %d texts in %d batches (avg %.1f per batch), %.2fms window, %.1fms avg latency".formatted(
+            requests.get(), numBatches, (numBatches == 0) ? 0.0 : (double) requests.get() / numBatches, windowMs(), latencyEwmaMs
+        );
+    }
+
+    private void enqueue(List<Pending> requests) {
+        List<Pending> ready = null;
+
+        synchronized (this) {
+            pending.addAll(requests);
+
+            if (pending.size() >= maxBatchSize) {
+                ready = drain();
+            } else if (scheduledFlush == null) {
+                scheduledFlush = scheduler.schedule(this::flush, (long) (windowMs() * 1000), MICROSECONDS);
+            }
+        }
+
+        if (ready != null) {
+            dispatch(ready);
+        }
+    }
+
+    private void flush() {
+        List<Pending> ready;
+
+        synchronized (this) {
+            ready = drain();
+        }
+        dispatch(ready);
+    }
+
+    private List<Pending> drain() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+
+        var drained = pending;
+        pending = new ArrayList<>();
+        return drained;
+    }
+
+    private void dispatch(List<Pending> ready) {
+        for (int i = 0; i < ready.size(); i += maxBatchSize) {
+            var batch = ready.subList(i, min(i + maxBatchSize, ready.size()));
+            var start = System.nanoTime();
+
+            requests.addAndGet(batch.size());
+            batches.incrementAndGet();
+
+            CompletableFuture<List<float[]>> call;
+
+            try {
+                call = delegate.embed(map(batch, Pending::text));
+            } catch (Exception e) {
+                call = failedFuture(e);
+            }
+
+            call.whenComplete((embeddings, e) -> {
+                var latencyMs = (System.nanoTime() - start) / 1e6;
+                latencyEwmaMs = latencyEwmaMs * (1 - EWMA_WEIGHT) + latencyMs * EWMA_WEIGHT;
+
+                // A short or missing list fails the whole batch, rather than leaving whoever's past the end hanging
+                var error = (e == null && (embeddings == null || embeddings.size() != batch.size()))
+                    ? new IllegalStateException("Asked for %d embeddings, got %s".formatted(batch.size(), (embeddings == null) ? "none" : embeddings.size()))
+                    : e;
+
+                for (int j = 0; j < batch.size(); j++) {
+                    if (error != null) {
+                        batch.get(j).future.completeExceptionally(error);
+                    } else {
+                        batch.get(j).future.complete(embeddings.get(j));
+                    }
+                }
+            });
+        }
+    }
+
+    private double windowMs() {
+        return min(maxWindowMs, latencyEwmaMs * windowFraction);
+    }
+}
@@ -0,0 +1,332 @@
+package org.datastax.simulacra.ai;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.Integer.parseInt;
+import static java.nio.file.StandardOpenOption.*;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.failedFuture;
+import static org.datastax.simulacra.logging.HomemadeLogger.err;
+import static org.datastax.simulacra.utils.Utils.allOf;
+import static org.datastax.simulacra.utils.Utils.compactText;
+
+/**
+ * Content-addressed cache in front of some other embedding service, keyed by a hash of the compacted text and
+ * the namespace of the embeddings (see {@link EmbeddingProvider#cacheNamespace()}), so switching providers or
+ * models never hands back the old ones' embeddings.
+ * <ul>
+ *     <li>An in-memory LRU tier holding up to <code>EMBED_CACHE_MAX_ENTRIES</code> embeddings</li>
+ *     <li>An optional append-only on-disk tier which survives restarts (<code>EMBED_CACHE_PATH</code>, set it
+ *     to an empty string to disable it)</li>
+ *     <li>Single-flight coalescing, so concurrent requests for the same text share the one in-flight call</li>
+ * </ul>
+ */
+public class CachingEmbeddingService implements EmbeddingService {
+    public static final CachingEmbeddingService DEFAULT = new CachingEmbeddingService(
+        BatchingEmbeddingService.DEFAULT,
+        EmbeddingProvider.selected().cacheNamespace(),
+        EmbeddingProvider.selected().dims(),
+        parseInt(System.getenv().getOrDefault("EMBED_CACHE_MAX_ENTRIES", "20000")),
+        System.getenv().getOrDefault("EMBED_CACHE_PATH", "simulacra/cache/embeddings.bin")
+    );
+
+    private static final int KEY_BYTES = 32;
+
+    private final EmbeddingService delegate;
+    private final String namespace;
+
+    /**
+     * How many dimensions the embeddings have, or 0 until it's known (taken from the first one the delegate returns).
+     * Cached embeddings which don't match are ignored.
+     */
+    private volatile int dims;
+    private final Map<String, float[]> memory;
+    private final Map<String, CompletableFuture<float[]>> inFlight = new ConcurrentHashMap<>();
+    private final DiskTier disk;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public CachingEmbeddingService(EmbeddingService delegate, String namespace, int dims, int maxEntries, String diskPath) {
+        this.delegate = delegate;
+        this.namespace = namespace;
+        this.dims = dims;
+        this.disk = (diskPath == null || diskPath.isBlank()) ? null : DiskTier.open(Path.of(diskPath));
+
+        this.memory = new LinkedHashMap<>(16, .75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public CompletableFuture<float[]> embed(String text) {
+        return embed(List.of(text)).thenApply(l -> l.get(0));
+    }
+
+    @Override
+    public CompletableFuture<List<float[]>> embed(List<String> texts) {
+        var futures = new ArrayList<CompletableFuture<float[]>>(texts.size());
+
+        var missKeys = new ArrayList<String>();
+        var missTexts = new ArrayList<String>();
+        var missFutures = new ArrayList<CompletableFuture<float[]>>();
+
+        for (var text : texts) {
+            var key = keyOf(text);
+            var cached = lookup(key);
+
+            if (cached != null) {
+                futures.add(completedFuture(cached));
+                continue;
+            }
+
+            var future = new CompletableFuture<float[]>();
+            var existing = inFlight.putIfAbsent(key, future);
+
+            if (existing != null) {
+                coalesced.incrementAndGet();
+                futures.add(existing);
+                continue;
+            }
+
+            misses.incrementAndGet();
+            missKeys.add(key);
+            missTexts.add(text);
+            missFutures.add(future);
+            futures.add(future);
+        }
+
+        if (!missTexts.isEmpty()) {
+            CompletableFuture<List<float[]>> call;
+
+            try {
+                call = delegate.embed(missTexts);
+            } catch (Exception e) {
+                call = failedFuture(e);
+            }
+
+            call.whenComplete((embeddings, e) -> {
+                var error = (e == null && (embeddings == null || embeddings.size() != missTexts.size()))
+                    ? new IllegalStateException("Asked for %d embeddings, got %s".formatted(missTexts.size(), (embeddings == null) ? "none" : embeddings.size()))
+                    : e;
+
+                for (int i = 0; i < missKeys.size(); i++) {
+                    var key = missKeys.get(i);
+
+                    try {
+                        if (error != null) {
+                            missFutures.get(i).completeExceptionally(error);
+                        } else {
+                            store(key, embeddings.get(i));
+                            missFutures.get(i).complete(embeddings.get(i));
+                        }
+                    } catch (Exception ex) {
+                        missFutures.get(i).completeExceptionally(ex);
+                    } finally {
+                        inFlight.remove(key, missFutures.get(i));
+                    }
+                }
+            });
+        }
+
+        return allOf(futures);
+    }
+
+    public String stats() {
+        var hits = memoryHits.get() + diskHits.get() + coalesced.get();
+        var total = hits + misses.get();
+
+        return "Embedding cache: %.1f%% hit rate (%d memory hits, %d disk hits, %d coalesced, %d misses)".formatted(
+            (total == 0) ? 0.0 : 100.0 * hits / total, memoryHits.get(), diskHits.get(), coalesced.get(), misses.get()
+        );
+    }
+
+    private float[] lookup(String key) {
+        synchronized (memory) {
+            var cached = memory.get(key);
+
+            if (cached != null && fits(cached)) {
+                memoryHits.incrementAndGet();
+                return cached;
+            }
+        }
+
+        var fromDisk = (disk != null) ? disk.read(key) : null;
+
+        if (fromDisk != null && !fits(fromDisk)) {
+            err("Ignoring a cached %d-d embedding, expected %d-d".formatted(fromDisk.length, dims));
+            return null;
+        }
+
+        if (fromDisk != null) {
+            diskHits.incrementAndGet();
+
+            synchronized (memory) {
+                memory.put(key, fromDisk);
+            }
+        }
+        return fromDisk;
+    }
+
+    private boolean fits(float[] embedding) {
+        var dims = this.dims;
+        return dims == 0 || embedding.length == dims;
+    }
+
+    private void store(String key, float[] embedding) {
+        if (dims == 0) {
+            dims = embedding.length;
+        }
+
+        synchronized (memory) {
+            memory.put(key, embedding);
+        }
+
+        if (disk != null) {
+            disk.write(key, embedding);
+        }
+    }
+
+    private String keyOf(String text) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256").digest((namespace + '\0' + compactText(text)).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Append-only file of <code>[32 byte key][int dims][dims floats]</code> records, w/ an in-memory index of
+     * where each key's record starts. A partially written record at the end of the file (e.g. from a crash)
+     * is ignored and overwritten.
+     */
+    private static final class DiskTier {
+        private final Path path;
+        private FileChannel channel;
+        private final Map<String, Long> offsets = new HashMap<>();
+        private long end = 0;
+
+        private DiskTier(Path path, FileChannel channel) {
+            this.path = path;
+            this.channel = channel;
+        }
+
+        private static DiskTier open(Path path) {
+            try {
+                if (path.getParent() != null) {
+                    Files.createDirectories(path.getParent());
+                }
+
+                var tier = new DiskTier(path, FileChannel.open(path, CREATE, READ, WRITE));
+                tier.index();
+                return tier;
+            } catch (IOException e) {
+                err("Failed to open the embedding disk cache @ " + path + ", continuing without it", e);
+                return null;
+            }
+        }
+
+        private void index() throws IOException {
+            var header = ByteBuffer.allocate(KEY_BYTES + Integer.BYTES);
+            var size = channel.size();
+
+            while (end + header.capacity() <= size) {
+                header.clear();
+                channel.read(header, end);
+                header.flip();
+
+                var key = new byte[KEY_BYTES];
+                header.get(key);
+                var recordSize = header.capacity() + (long) header.getInt() * Float.BYTES;
+
+                if (end + recordSize > size) {
+                    break;
+                }
+
+                offsets.put(HexFormat.of().formatHex(key), end);
+                end += recordSize;
+            }
+        }
+
+        /**
+         * A thread being interrupted mid-read/write (e.g. when a tick's cancelled) closes the channel for everyone,
+         * so it's reopened if that's happened.
+         */
+        private FileChannel channel() throws IOException {
+            if (!channel.isOpen()) {
+                channel = FileChannel.open(path, READ, WRITE);
+            }
+            return channel;
+        }
+
+        private synchronized float[] read(String key) {
+            var offset = offsets.get(key);
+
+            if (offset == null) {
+                return null;
+            }
+
+            try {
+                var dims = ByteBuffer.allocate(Integer.BYTES);
+                channel().read(dims, offset + KEY_BYTES);
+
+                var body = ByteBuffer.allocate(dims.flip().getInt() * Float.BYTES);
+                channel().read(body, offset + KEY_BYTES + Integer.BYTES);
+
+                var embedding = new float[body.capacity() / Float.BYTES];
+                body.flip().asFloatBuffer().get(embedding);
+                return embedding;
+            } catch (IOException e) {
+                err("Failed to read from the embedding disk cache", e);
+                return null;
+            }
+        }
+
+        private synchronized void write(String key, float[] embedding) {
+            if (offsets.containsKey(key)) {
+                return;
+            }
+
+            var record = ByteBuffer.allocate(KEY_BYTES + Integer.BYTES + embedding.length * Float.BYTES);
+            record.put(HexFormat.of().parseHex(key));
+            record.putInt(embedding.length);
+            record.asFloatBuffer().put(embedding);
+            record.position(record.capacity()).flip();
+
+            try {
+                var position = end;
+
+                while (record.hasRemaining()) {
+                    position += channel().write(record, position);
+                }
+
+                offsets.put(key, end);
+                end = position;
+            } catch (IOException e) {
+                err("Failed to write to the embedding disk cache", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package org.datastax.simulacra.ai;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import static java.lang.Long.parseLong;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.failedFuture;
+import static java.util.stream.Collectors.joining;
+import static org.datastax.simulacra.logging.HomemadeLogger.err;
+import static org.datastax.simulacra.logging.HomemadeLogger.log;
+import static org.datastax.simulacra.utils.Utils.cat;
+import static org.datastax.simulacra.utils.Utils.compactText;
+import static org.datastax.simulacra.utils.Utils.map;
+import static org.datastax.simulacra.utils.Utils.toJsonTree;
+
+/**
+ * Persistent cache in front of some chat/function service, so re-running a simulation from the same cached world
+ * doesn't pay for the same prompts twice. Responses are keyed by a hash of the model, the compacted prompt, the
+ * response record's schema, and the enum providers, and kept in an append-only JSONL file
+ * (<code>PROMPT_CACHE_PATH</code>) which is read into memory on startup.
+ * <p>
+ * <code>PROMPT_CACHE_MODE</code> is one of:
+ * <ul>
+ *     <li><code>off</code> (default): no caching at all, since it makes otherwise random responses deterministic</li>
+ *     <li><code>on</code>: reads from and writes to the cache, w/ entries older than <code>PROMPT_CACHE_TTL_HOURS</code>
+ *     (if non-zero) treated as misses</li>
+ *     <li><code>bypass</code>: always calls the delegate, but still records the responses</li>
+ *     <li><code>replay</code>: only ever reads from the cache (ignoring the TTL), and fails on a miss</li>
+ * </ul>
+ * Stats are broken down by prompt type, which is just the method the query came from (e.g. <code>Agent.planDay</code>).
+ */
+public class CachingLLMService implements ChatService, FunctionService {
+    public static final CachingLLMService DEFAULT = new CachingLLMService(
+        HedgingLLMService.DEFAULT,
+        HedgingLLMService.DEFAULT,
+        LLMProvider.selected().model(),
+        Mode.valueOf(System.getenv().getOrDefault("PROMPT_CACHE_MODE", "off").toUpperCase()),
+        parseLong(System.getenv().getOrDefault("PROMPT_CACHE_TTL_HOURS", "0")),
+        System.getenv().getOrDefault("PROMPT_CACHE_PATH", "simulacra/cache/prompts.jsonl")
+    );
+
+    public enum Mode { OFF, ON, BYPASS, REPLAY }
+
+    private static final Pattern LAMBDA_NAME = Pattern.compile("lambda\\$(\\w+?)\\$\\d+");
+
+    private final ChatService chatDelegate;
+    private final FunctionService functionDelegate;
+    private final String model;
+    private final Mode mode;
+    private final long ttlMillis;
+    private final Path path;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, CachedResponse> entries = new ConcurrentHashMap<>();
+    private final Map<Class<?>, String> schemas = new ConcurrentHashMap<>();
+    private final Map<String, TypeStats> stats = new ConcurrentHashMap<>();
+    private BufferedWriter writer;
+
+    public CachingLLMService(ChatService chatDelegate, FunctionService functionDelegate, String model, Mode mode, long ttlHours, String path) {
+        this.chatDelegate = chatDelegate;
+        this.functionDelegate = functionDelegate;
+        this.model = model;
+        this.mode = mode;
+        this.ttlMillis = ttlHours * 60 * 60 * 1000;
+        this.path = Path.of(path);
+
+        if (mode != Mode.OFF) {
+            load();
+        }
+    }
+
+    private record CachedResponse(String key, String type, long createdAt, long latencyMs, String response) {}
+
+    private static final class TypeStats {
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong savedMs = new AtomicLong();
+    }
+
+    @Override
+    public CompletableFuture<String> query(String prompt) {
+        return query(prompt, (Instant) null);
+    }
+
+    /**
+     * Cache hits ignore the deadline; it's only passed on to the delegate.
+     */
+    @Override
+    public CompletableFuture<String> query(String prompt, Instant deadline) {
+        if (mode == Mode.OFF) {
+            return chatDelegate.query(prompt, deadline);
+        }
+
+        var key = keyOf(prompt, "", List.of());
+        return cached(key, callerName(), () -> chatDelegate.query(prompt, deadline), response -> response, response -> response, response -> {});
+    }
+
+    /**
+     * Cache hits are handed off all at once.
+     */
+    @Override
+    public CompletableFuture<String> queryStreaming(String prompt, Consumer<String> onToken) {
+        if (mode == Mode.OFF) {
+            return chatDelegate.queryStreaming(prompt, onToken);
+        }
+
+        var key = keyOf(prompt, "", List.of());
+        return cached(key, callerName(), () -> chatDelegate.queryStreaming(prompt, onToken), response -> response, response -> response, onToken);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> query(String prompt, Class<T> response, Collection<?>... providers) {
+        return query(prompt, null, response, providers);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> query(String prompt, Instant deadline, Class<T> response, Collection<?>... providers) {
+        if (mode == Mode.OFF) {
+            return functionDelegate.query(prompt, deadline, response, providers);
+        }
+
+        var key = keyOf(prompt, schemaOf(response), map(Arrays.asList(providers), values -> map(values, String::valueOf)));
+        return cached(key, callerName(), () -> functionDelegate.query(prompt, deadline, response, providers), this::toJson, json -> fromJson(json, response), r -> {});
+    }
+
+    @Override
+    public <T> CompletableFuture<Map<String, T>> queryBatch(String preamble, Map<String, BatchPrompt> prompts, Class<T> response) {
+        return queryBatch(preamble, prompts, null, response);
+    }
+
+    /**
+     * The whole batch is cached as one entry, including any responses left out of it, which the caller then
+     * queries (and so caches) on their own.
+     */
+    @Override
+    public <T> CompletableFuture<Map<String, T>> queryBatch(String preamble, Map<String, BatchPrompt> prompts, Instant deadline, Class<T> response) {
+        if (mode == Mode.OFF) {
+            return functionDelegate.queryBatch(preamble, prompts, deadline, response);
+        }
+
+        var providers = prompts.entrySet().stream()
+            .map(e -> cat(List.of(e.getKey()), map(Arrays.asList(e.getValue().providers()), String::valueOf)))
+            .toList();
+
+        var type = mapper.getTypeFactory().constructMapType(LinkedHashMap.class, String.class, response);
+
+        var key = keyOf(FunctionTemplate.batchPrompt(preamble, prompts), "batch:" + schemaOf(response), providers);
+        return cached(key, callerName(), () -> functionDelegate.queryBatch(preamble, prompts, deadline, response), this::toJson, json -> fromJson(json, type), r -> {});
+    }
+
+    /**
+     * Cache hits have all their fields handed off at once.
+     */
+    @Override
+    public <T> CompletableFuture<T> queryStreaming(String prompt, BiConsumer<String, JsonNode> onField, Class<T> response, Collection<?>... providers) {
+        if (mode == Mode.OFF) {
+            return functionDelegate.queryStreaming(prompt, onField, response, providers);
+        }
+
+        var key = keyOf(prompt, schemaOf(response), map(Arrays.asList(providers), values -> map(values, String::valueOf)));
+
+        return cached(key, callerName(), () -> functionDelegate.queryStreaming(prompt, onField, response, providers), this::toJson, json -> fromJson(json, response), hit -> {
+            toJsonTree(hit).fields().forEachRemaining(field -> onField.accept(field.getKey(), field.getValue()));
+        });
+    }
+
+    public String stats() {
+        if (mode == Mode.OFF) {
+            return "Prompt cache: off";
+        }
+
+        var sb = new StringBuilder("Prompt cache (" + mode.name().toLowerCase() + ", " + entries.size() + " entries):");
+
+        new TreeMap<>(stats).forEach((type, s) -> {
+            var total = s.hits.get() + s.misses.get();
+
+            sb.append("\n   - %s: %.1f%% hit rate (%d hits, %d misses), %.1fs saved".formatted(
+                type, (total == 0) ? 0.0 : 100.0 * s.hits.get() / total, s.hits.get(), s.misses.get(), s.savedMs.get() / 1000.0
+            ));
+        });
+
+        return sb.toString();
+    }
+
+    private <T> CompletableFuture<T> cached(String key, String type, Supplier<CompletableFuture<T>> call, Function<T, String> encode, Function<String, T> decode, Consumer<T> onHit) {
+        var typeStats = stats.computeIfAbsent(type, k -> new TypeStats());
+        var entry = entries.get(key);
+
+        if (entry != null && (mode == Mode.REPLAY || mode == Mode.ON && !isExpired(entry))) {
+            try {
+                var decoded = decode.apply(entry.response);
+                onHit.accept(decoded);
+                typeStats.hits.incrementAndGet();
+                typeStats.savedMs.addAndGet(entry.latencyMs);
+                return completedFuture(decoded);
+            } catch (Exception e) {
+                err("Failed to decode cached response for " + type + ", treating it as a miss", e);
+            }
+        }
+
+        typeStats.misses.incrementAndGet();
+
+        if (mode == Mode.REPLAY) {
+            return failedFuture(new IllegalStateException("No cached response for " + type + " (" + key + ") in replay mode"));
+        }
+
+        var start = System.currentTimeMillis();
+
+        return call.get().thenApply(response -> {
+            var latencyMs = System.currentTimeMillis() - start;
+            store(new CachedResponse(key, type, System.currentTimeMillis(), latencyMs, encode.apply(response)));
+            return response;
+        });
+    }
+
+    private boolean isExpired(CachedResponse entry) {
+        return ttlMillis > 0 && System.currentTimeMillis() - entry.createdAt > ttlMillis;
+    }
+
+    private String keyOf(String prompt, String schema, List<List<String>> providers) {
+        try {
+            var json = mapper.writeValueAsString(List.of(model, compactText(prompt), schema, providers));
+            var digest = MessageDigest.getInstance("SHA-256").digest(json.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Everything about the response record that goes into the function's schema (names, types, and annotations,
+     * which include descriptions/required-ness), so changing the record invalidates its cached responses.
+     */
+    private String schemaOf(Class<?> clazz) {
+        return schemas.computeIfAbsent(clazz, c -> c.getName() + Arrays.toString(c.getAnnotations()) + Arrays.stream(c.getRecordComponents())
+            .map(component -> component.getName() + ":" + component.getGenericType().getTypeName() + Arrays.toString(component.getAnnotations()))
+            .collect(joining(", ", "{", "}"))
+        );
+    }
+
+    /**
+     * The method the query came from, ignoring this package and turning <code>lambda$planDay$3</code> into <code>planDay</code>.
+     */
+    private static String callerName() {
+        return StackWalker.getInstance().walk(frames -> frames
+            .filter(frame -> !frame.getClassName().startsWith(CachingLLMService.class.getPackageName() + "."))
+            .findFirst()
+            .map(frame -> {
+                var className = frame.getClassName().substring(frame.getClassName().lastIndexOf('.') + 1);
+                var matcher = LAMBDA_NAME.matcher(frame.getMethodName());
+                return outerClassName(className) + "." + (matcher.matches() ? matcher.group(1) : frame.getMethodName());
+            })
+            .orElse("unknown")
+        );
+    }
+
+    private static String outerClassName(String className) {
+        var index = className.indexOf('$');
+        return (index == -1) ? className : className.substring(0, index);
+    }
+
+    private String toJson(Object response) {
+        try {
+            return mapper.writeValueAsString(response);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private <T> T fromJson(String json, Class<T> clazz) {
+        try {
+            return mapper.readValue(json, clazz);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private <T> T fromJson(String json, JavaType type) {
+        try {
+            return mapper.readValue(json, type);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void load() {
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+
+            if (Files.exists(path)) {
+                try (var lines = Files.lines(path, StandardCharsets.UTF_8)) {
+                    lines.forEach(line -> {
+                        try {
+                            var entry = mapper.readValue(line, CachedResponse.class);
+                            entries.put(entry.key, entry);
+                        } catch (IOException e) {
+                            err("Skipping malformed line in the prompt cache");
+                        }
+                    });
+                }
+            }
+
+            writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, CREATE, APPEND);
+            log("Loaded " + entries.size() + " cached prompts from " + path);
+        } catch (IOException e) {
+            err("Failed to open the prompt cache @ " + path + ", continuing w/o persisting it", e);
+        }
+    }
+
+    private void store(CachedResponse entry) {
+        entries.put(entry.key, entry);
+
+        if (writer == null) {
+            return;
+        }
+
+        synchronized (this) {
+            try {
+                writer.write(mapper.writeValueAsString(entry));
+                writer.newLine();
+                writer.flush();
+            } catch (IOException e) {
+                err("Failed to write to the prompt cache", e);
+            }
+        }
+    }
+}
@@ -1,11 +1,34 @@
 package org.datastax.simulacra.ai;
 
+import java.time.Instant;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import static org.datastax.simulacra.utils.Utils.withDeadline;
 
 public interface ChatService {
     CompletableFuture<String> query(String prompt);
 
+    /**
+     * Fails w/ a <code>TimeoutException</code> if there's no response by the deadline (<code>null</code> for none),
+     * cancelling the call.
+     */
+    default CompletableFuture<String> query(String prompt, Instant deadline) {
+        return withDeadline(query(prompt), deadline);
+    }
+
+    /**
+     * Streams the response in, calling <code>onToken</code> w/ each bit of it as it arrives. Services which can't
+     * stream just call it once w/ the whole thing.
+     */
+    default CompletableFuture<String> queryStreaming(String prompt, Consumer<String> onToken) {
+        return query(prompt).thenApply(response -> {
+            onToken.accept(response);
+            return response;
+        });
+    }
+
     static ChatService getDefault() {
-        return OpenAIService.INSTANCE;
+        return CachingLLMService.DEFAULT;
     }
 }
@@ -0,0 +1,46 @@
+package org.datastax.simulacra.ai;
+
+/**
+ * Whatever actually computes the embeddings, picked w/ <code>EMBED_PROVIDER</code> (<code>local</code> or
+ * <code>stand-in</code>). The batching & caching are layered on top of it the same either way.
+ * <p>
+ * If <code>EMBED_SERVICE_URL</code> lists more than one service, embeddings are balanced across all of them, so
+ * they should all be serving the same model.
+ */
+public enum EmbeddingProvider {
+    LOCAL,
+    STAND_IN;
+
+    public static EmbeddingProvider selected() {
+        return valueOf(System.getenv().getOrDefault("EMBED_PROVIDER", "local").toUpperCase().replace('-', '_'));
+    }
+
+    /**
+     * Which embeddings these are (provider, model & dimensions, as far as they're known), so cached embeddings
+     * from one aren't handed out as another's. The local service's model is whatever <code>EMBED_MODEL</code>
+     * says it is, and its dimensions are whatever <code>EMBED_DIMS</code> says (or unknown, if it's not set).
+     */
+    public String cacheNamespace() {
+        return switch (this) {
+            case LOCAL -> "local/%s/%d".formatted(System.getenv().getOrDefault("EMBED_MODEL", "default"), dims());
+            case STAND_IN -> "%s/%d/%d".formatted(StandInLLMService.MODEL, StandInLLMService.DEFAULT.seed(), dims());
+        };
+    }
+
+    /**
+     * How many dimensions the embeddings should have, or 0 if it's not known up front.
+     */
+    public int dims() {
+        return switch (this) {
+            case LOCAL -> Integer.parseInt(System.getenv().getOrDefault("EMBED_DIMS", "0"));
+            case STAND_IN -> StandInLLMService.DEFAULT.embedDims();
+        };
+    }
+
+    public EmbeddingService service() {
+        return switch (this) {
+            case LOCAL -> (LocalEmbeddingService.urls().size() > 1) ? PooledEmbeddingService.DEFAULT : LocalEmbeddingService.INSTANCE;
+            case STAND_IN -> StandInLLMService.DEFAULT;
+        };
+    }
+}
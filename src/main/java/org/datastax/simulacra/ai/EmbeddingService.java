@@ -4,10 +4,10 @@ import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 public interface EmbeddingService {
-    CompletableFuture<List<Float>> embed(String text);
-    CompletableFuture<List<List<Float>>> embed(List<String> text);
+    CompletableFuture<float[]> embed(String text);
+    CompletableFuture<List<float[]>> embed(List<String> text);
 
     static EmbeddingService getDefault() {
-        return LocalEmbeddingService.INSTANCE;
+        return CachingEmbeddingService.DEFAULT;
     }
 }
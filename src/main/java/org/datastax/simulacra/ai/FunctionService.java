@@ -1,7 +1,24 @@
 package org.datastax.simulacra.ai;
 
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.time.Instant;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.datastax.simulacra.logging.HomemadeLogger.err;
+import static org.datastax.simulacra.utils.Utils.map;
+import static org.datastax.simulacra.utils.Utils.toJsonTree;
+import static org.datastax.simulacra.utils.Utils.withDeadline;
+import static org.datastax.simulacra.utils.Utils.zipForEach;
+import static org.datastax.simulacra.utils.Utils.zipMap;
 
 /**
  * An interface for using basic function calling w/ the OpenAI API, but can be adapted
@@ -48,7 +65,95 @@ import java.util.concurrent.CompletableFuture;
 public interface FunctionService {
     <T> CompletableFuture<T> query(String prompt, Class<T> response, Collection<?>...providers);
 
+    /**
+     * Fails w/ a <code>TimeoutException</code> if there's no response by the deadline (<code>null</code> for none),
+     * cancelling the call.
+     */
+    default <T> CompletableFuture<T> query(String prompt, Instant deadline, Class<T> response, Collection<?>...providers) {
+        return withDeadline(query(prompt, response, providers), deadline);
+    }
+
+    /**
+     * Streams the response in, calling <code>onField</code> w/ each of the response's (top-level) fields as soon
+     * as it's complete, in the order the LLM writes them. Services which can't stream call it w/ every field once
+     * the whole response is in.
+     */
+    default <T> CompletableFuture<T> queryStreaming(String prompt, BiConsumer<String, JsonNode> onField, Class<T> response, Collection<?>...providers) {
+        return query(prompt, response, providers).thenApply(result -> {
+            toJsonTree(result).fields().forEachRemaining(field -> onField.accept(field.getKey(), field.getValue()));
+            return result;
+        });
+    }
+
+    /**
+     * Asks for a bunch of responses of the same type in one go, e.g. one per agent, keyed by something unique to
+     * each (like the agent's name). Each prompt gets its own enum providers, and the preamble goes before all of them.
+     * <p>
+     * Only the responses which could actually be read back are in the map, so callers should fall back to querying
+     * the rest on their own. Services which can't batch just query each prompt separately, and cancelling the batch
+     * cancels whichever of those are still going.
+     */
+    default <T> CompletableFuture<Map<String, T>> queryBatch(String preamble, Map<String, BatchPrompt> prompts, Class<T> response) {
+        var results = new ConcurrentHashMap<String, T>();
+
+        var entries = List.copyOf(prompts.entrySet());
+        var calls = map(entries, e -> query(e.getValue().prompt(), response, e.getValue().providers()));
+
+        var collected = zipMap(entries, calls, (e, call) -> call
+            .thenAccept(result -> results.put(e.getKey(), result))
+            .exceptionally(ex -> null));
+
+        var batch = CompletableFuture.allOf(collected.toArray(CompletableFuture[]::new)).<Map<String, T>>thenApply(v -> results);
+        batch.whenComplete((r, e) -> calls.forEach(call -> call.cancel(true)));
+
+        return batch;
+    }
+
+    /**
+     * Fails w/ a <code>TimeoutException</code> if there's no response by the deadline (<code>null</code> for none),
+     * cancelling the batch.
+     */
+    default <T> CompletableFuture<Map<String, T>> queryBatch(String preamble, Map<String, BatchPrompt> prompts, Instant deadline, Class<T> response) {
+        return withDeadline(queryBatch(preamble, prompts, response), deadline);
+    }
+
+    /**
+     * Batches up the prompts (keyed by <code>keys</code>, which should be unique) w/ <code>batch</code> once they're
+     * all ready, and queries each one whose response doesn't make it back from the batch (or all of them, if the
+     * whole batch fails) on its own w/ <code>single</code>. A prompt which fails fails only its own future. Returns a
+     * future per prompt, in the same order.
+     */
+    static <T> List<CompletableFuture<T>> queryBatchOrEach(
+        List<String> keys,
+        List<CompletableFuture<BatchPrompt>> prompts,
+        Function<Map<String, BatchPrompt>, CompletableFuture<Map<String, T>>> batch,
+        Function<BatchPrompt, CompletableFuture<T>> single
+    ) {
+        var batched = CompletableFuture.allOf(prompts.toArray(CompletableFuture[]::new)).exceptionally(e -> null).thenCompose(v -> {
+            var batchPrompts = new LinkedHashMap<String, BatchPrompt>();
+
+            zipForEach(keys, prompts, (key, prompt) -> {
+                if (!prompt.isCompletedExceptionally()) {
+                    batchPrompts.put(key, prompt.join());
+                }
+            });
+
+            return batch.apply(batchPrompts);
+        }).exceptionally(e -> {
+            err("Failed to query " + keys + " in one batch, querying each on their own", e);
+            return Map.of();
+        });
+
+        return zipMap(keys, prompts, (key, prompt) -> prompt.thenCompose(p -> batched.thenCompose(responses -> (
+            (responses.get(key) != null)
+                ? completedFuture(responses.get(key))
+                : single.apply(p)
+        ))));
+    }
+
+    record BatchPrompt(String prompt, Collection<?>... providers) {}
+
     static FunctionService getDefault() {
-        return OpenAIService.INSTANCE;
+        return CachingLLMService.DEFAULT;
     }
 }
@@ -0,0 +1,261 @@
+package org.datastax.simulacra.ai;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.theokanning.openai.completion.chat.ChatCompletionRequest;
+import com.theokanning.openai.completion.chat.ChatCompletionRequest.ChatCompletionRequestFunctionCall;
+import com.theokanning.openai.completion.chat.ChatFunction;
+import com.theokanning.openai.completion.chat.ChatMessage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.datastax.simulacra.logging.HomemadeLogger.err;
+import static org.datastax.simulacra.utils.Utils.writeJsonAsString;
+
+/**
+ * A function-calling request for some <code>&#64;FunctionResponse</code> record, serialized once w/ placeholders
+ * for the prompt and each <code>&#64;EnumType</code> field's values, so building a request is just stitching
+ * the pre-serialized segments back together w/ the actual values (no schema generation, reflection, or trees).
+ */
+final class FunctionTemplate {
+    private static final String PROMPT_SLOT = "@@PROMPT@@";
+    private static final String ENUM_SLOT = "@@ENUM_%d@@";
+
+    private final Class<?> clazz;
+
+    /**
+     * The request is <code>segments[0] + slot[0] + segments[1] + ... + segments[n]</code>, where each slot is the
+     * prompt (<code>-1</code>) or the index of the enum field (and so of its provider).
+     */
+    private final List<String> segments;
+    private final int[] slots;
+    private final int numEnums;
+
+    private FunctionTemplate(Class<?> clazz, List<String> segments, int[] slots, int numEnums) {
+        this.clazz = clazz;
+        this.segments = segments;
+        this.slots = slots;
+        this.numEnums = numEnums;
+    }
+
+    static FunctionTemplate compile(Class<?> clazz, String model, ObjectMapper mapper) {
+        var annotation = clazz.getAnnotation(FunctionResponse.class);
+
+        var function = ChatFunction.builder()
+            .name(clazz.getSimpleName())
+            .description(annotation.desc().isEmpty() ? null : annotation.desc())
+            .executor(clazz, x -> x)
+            .build();
+
+        var request = ChatCompletionRequest.builder()
+            .model(model)
+            .messages(List.of(new ChatMessage("user", PROMPT_SLOT)))
+            .functions(List.of(function))
+            .functionCall(new ChatCompletionRequestFunctionCall(clazz.getSimpleName()))
+            .build();
+
+        JsonNode json = mapper.valueToTree(request);
+
+        var properties = json
+            .get("functions")
+            .get(0)
+            .get("parameters")
+            .get("properties");
+
+        var enumFields = Arrays.stream(clazz.getRecordComponents())
+            .filter(f -> f.getAnnotation(EnumType.class) != null)
+            .toList();
+
+        for (int i = 0; i < enumFields.size(); i++) {
+            ((ObjectNode) properties.get(enumFields.get(i).getName())).set("enum", TextNode.valueOf(ENUM_SLOT.formatted(i)));
+        }
+
+        return split(clazz, writeJsonAsString(json), enumFields.size());
+    }
+
+    /**
+     * Splits the serialized request around the slots. Each enum slot includes its <code>,"enum":</code> key
+     * so it can be left out entirely when there are no providers.
+     */
+    private static FunctionTemplate split(Class<?> clazz, String json, int numEnums) {
+        var slotsByPosition = new TreeMap<Integer, Integer>();
+        var tokens = new String[numEnums + 1];
+
+        tokens[0] = "\"" + PROMPT_SLOT + "\"";
+
+        for (int i = 0; i < numEnums; i++) {
+            tokens[i + 1] = ",\"enum\":\"" + ENUM_SLOT.formatted(i) + "\"";
+        }
+
+        for (int i = 0; i < tokens.length; i++) {
+            var position = json.indexOf(tokens[i]);
+
+            if (position == -1) {
+                throw new IllegalStateException("Couldn't find " + tokens[i] + " in the request template for " + clazz.getName());
+            }
+            slotsByPosition.put(position, i - 1);
+        }
+
+        var segments = new ArrayList<String>();
+        var slots = new int[tokens.length];
+        var start = 0;
+        var n = 0;
+
+        for (var entry : slotsByPosition.entrySet()) {
+            segments.add(json.substring(start, entry.getKey()));
+            slots[n++] = entry.getValue();
+            start = entry.getKey() + tokens[entry.getValue() + 1].length();
+        }
+        segments.add(json.substring(start));
+
+        return new FunctionTemplate(clazz, segments, slots, numEnums);
+    }
+
+    /**
+     * Writes out the request for the (already compacted) prompt. The enum values are left out altogether if there
+     * are no providers, and string values are wrapped in quotes, same as it's always been.
+     */
+    String render(String prompt, Collection<?>[] providers) {
+        if (providers.length != 0 && providers.length < numEnums) {
+            throw new IllegalArgumentException("Expected " + numEnums + " enum providers for " + clazz.getSimpleName() + ", got " + providers.length);
+        }
+
+        var encoder = JsonStringEncoder.getInstance();
+        var sb = new StringBuilder(segments.stream().mapToInt(String::length).sum() + prompt.length() + 64);
+
+        for (int i = 0; i < slots.length; i++) {
+            sb.append(segments.get(i));
+
+            if (slots[i] == -1) {
+                sb.append('"');
+                encoder.quoteAsString(prompt, sb);
+                sb.append('"');
+            } else if (providers.length != 0) {
+                sb.append(",\"enum\":[");
+                var first = true;
+
+                for (var value : providers[slots[i]]) {
+                    if (!first) {
+                        sb.append(',');
+                    }
+                    first = false;
+
+                    sb.append('"');
+                    encoder.quoteAsString((value instanceof String) ? "\"" + value + "\"" : String.valueOf(value), sb);
+                    sb.append('"');
+                }
+                sb.append(']');
+            }
+        }
+
+        return sb.append(segments.get(slots.length)).toString();
+    }
+
+    /**
+     * The preamble, then each prompt under a header w/ its key.
+     */
+    static String batchPrompt(String preamble, Map<String, FunctionService.BatchPrompt> prompts) {
+        var sb = new StringBuilder(preamble);
+
+        prompts.forEach((key, prompt) -> {
+            sb.append("\n\n### ").append(key).append('\n').append(prompt.prompt());
+        });
+
+        return sb.toString();
+    }
+
+    /**
+     * Writes out a request for a whole batch of responses in one function call, whose arguments are an object w/
+     * one of the usual responses per key (all required), each w/ its own key's enum values. Only done once per
+     * batch, so it just goes through the tree instead of stitching strings together.
+     */
+    String renderBatch(String prompt, Map<String, Collection<?>[]> providers, ObjectMapper mapper) {
+        var properties = mapper.createObjectNode();
+        var definitions = mapper.createObjectNode();
+
+        try {
+            for (var entry : providers.entrySet()) {
+                var parameters = (ObjectNode) mapper.readTree(render("", entry.getValue())).at("/functions/0/parameters");
+
+                if (parameters.has("definitions")) {
+                    definitions.setAll((ObjectNode) parameters.remove("definitions"));
+                }
+                parameters.remove(List.of("$schema", "title"));
+
+                properties.set(entry.getKey(), parameters);
+            }
+
+            var request = (ObjectNode) mapper.readTree(render(prompt, new Collection<?>[0]));
+            var name = clazz.getSimpleName() + "Batch";
+
+            var parameters = mapper.createObjectNode()
+                .put("type", "object")
+                .put("additionalProperties", false);
+
+            parameters.set("properties", properties);
+            parameters.set("required", mapper.valueToTree(providers.keySet()));
+
+            if (!definitions.isEmpty()) {
+                parameters.set("definitions", definitions);
+            }
+
+            var function = (ObjectNode) request.get("functions").get(0);
+            function.put("name", name);
+            function.put("description", "A " + clazz.getSimpleName() + " for each of the keys, going off of the prompt under its header");
+            function.set("parameters", parameters);
+
+            ((ObjectNode) request.get("function_call")).put("name", name);
+
+            return writeJsonAsString(request);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads back each key's response from a batch, leaving out the ones which don't parse (or are missing).
+     */
+    <T> Map<String, T> parseBatch(JsonNode arguments, ObjectMapper mapper) {
+        try {
+            var tree = mapper.readTree((arguments instanceof TextNode) ? arguments.asText() : arguments.toString());
+            var results = new LinkedHashMap<String, T>();
+
+            tree.fields().forEachRemaining(field -> {
+                try {
+                    @SuppressWarnings("unchecked")
+                    var result = (T) mapper.treeToValue(field.getValue(), clazz);
+                    results.put(field.getKey(), result);
+                } catch (IOException e) {
+                    err("Couldn't read " + field.getKey() + "'s part of the " + clazz.getSimpleName() + " batch", e);
+                }
+            });
+
+            return results;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads the function call's arguments the same way <code>FunctionExecutor</code> does.
+     */
+    <T> T parse(JsonNode arguments, ObjectMapper mapper) {
+        try {
+            @SuppressWarnings("unchecked")
+            var result = (T) mapper.readValue((arguments instanceof TextNode) ? arguments.asText() : arguments.toString(), clazz);
+            return result;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package org.datastax.simulacra.ai;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.datastax.simulacra.utils.LatencyRecorder;
+import org.datastax.simulacra.utils.RecentLatencies;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static java.lang.Double.parseDouble;
+import static java.lang.Integer.parseInt;
+import static java.lang.Math.min;
+import static java.util.concurrent.CompletableFuture.delayedExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Hedged requests in front of some chat/function service, to cut off the long tail of slow completions which
+ * would otherwise hold up a whole stage of the tick.
+ * <p>
+ * If a call hasn't come back after the <code>LLM_HEDGE_PERCENTILE</code>th percentile of the last
+ * <code>LLM_HEDGE_WINDOW</code> calls' latencies, the same request is sent again, and whichever response comes back
+ * first wins (the other's cancelled). Hedges are capped at <code>LLM_HEDGE_BUDGET</code> of all calls, so a slow API
+ * doesn't get hammered w/ twice the load. There's no hedging until there are enough samples to go off of.
+ * <p>
+ * Calls w/ a deadline fail w/ a <code>TimeoutException</code> once it passes, cancelling whatever's in flight.
+ * Deadlines are opt-in though, so w/o one a call can still take as long as the client's own timeouts (and retries).
+ * <p>
+ * {@link #stats()} has the latency of single attempts ("raw") vs. what callers actually saw ("effective").
+ */
+public class HedgingLLMService implements ChatService, FunctionService {
+    public static final HedgingLLMService DEFAULT = new HedgingLLMService(
+        LLMProvider.selected().chatService(),
+        LLMProvider.selected().functionService(),
+        parseDouble(System.getenv().getOrDefault("LLM_HEDGE_PERCENTILE", "95")),
+        parseDouble(System.getenv().getOrDefault("LLM_HEDGE_BUDGET", "0.05")),
+        parseInt(System.getenv().getOrDefault("LLM_HEDGE_WINDOW", "200"))
+    );
+
+    private static final int MIN_SAMPLES = 20;
+    private static final double MAX_BUDGET_CREDITS = 10;
+
+    private final ChatService chatDelegate;
+    private final FunctionService functionDelegate;
+    private final double percentile;
+    private final double budget;
+
+    private final LatencyRecorder raw = new LatencyRecorder();
+    private final RecentLatencies recent;
+    private final LatencyRecorder effective = new LatencyRecorder();
+
+    private double budgetCredits = 0;
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+    private final AtomicLong deadlinesMissed = new AtomicLong();
+
+    /**
+     * @param percentile When to hedge (e.g. <code>95</code> for the p95), or <code>0</code> to never hedge
+     * @param budget The max fraction of calls which get hedged
+     * @param window How many of the latest calls the percentile's taken over
+     */
+    public HedgingLLMService(ChatService chatDelegate, FunctionService functionDelegate, double percentile, double budget, int window) {
+        this.chatDelegate = chatDelegate;
+        this.functionDelegate = functionDelegate;
+        this.percentile = percentile;
+        this.budget = budget;
+        this.recent = new RecentLatencies(window);
+    }
+
+    @Override
+    public CompletableFuture<String> query(String prompt) {
+        return query(prompt, (Instant) null);
+    }
+
+    @Override
+    public CompletableFuture<String> query(String prompt, Instant deadline) {
+        return hedged(() -> chatDelegate.query(prompt), deadline);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> query(String prompt, Class<T> response, Collection<?>... providers) {
+        return query(prompt, null, response, providers);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> query(String prompt, Instant deadline, Class<T> response, Collection<?>... providers) {
+        return hedged(() -> functionDelegate.query(prompt, response, providers), deadline);
+    }
+
+    @Override
+    public <T> CompletableFuture<Map<String, T>> queryBatch(String preamble, Map<String, BatchPrompt> prompts, Class<T> response) {
+        return queryBatch(preamble, prompts, null, response);
+    }
+
+    @Override
+    public <T> CompletableFuture<Map<String, T>> queryBatch(String preamble, Map<String, BatchPrompt> prompts, Instant deadline, Class<T> response) {
+        return hedged(() -> functionDelegate.queryBatch(preamble, prompts, response), deadline);
+    }
+
+    /**
+     * Streamed calls aren't hedged, since both attempts would be handing off the same tokens.
+     */
+    @Override
+    public CompletableFuture<String> queryStreaming(String prompt, Consumer<String> onToken) {
+        return chatDelegate.queryStreaming(prompt, onToken);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> queryStreaming(String prompt, BiConsumer<String, JsonNode> onField, Class<T> response, Collection<?>... providers) {
+        return functionDelegate.queryStreaming(prompt, onField, response, providers);
+    }
+
+    public String stats() {
+        return "LLM latency (hedging @ p%.0f, %d hedges, %d won, %d deadlines missed):\n   - raw: %s\n   - effective: %s".formatted(
+            percentile, hedges.get(), hedgesWon.get(), deadlinesMissed.get(), raw.summary(), effective.summary()
+        );
+    }
+
+    private <T> CompletableFuture<T> hedged(Supplier<CompletableFuture<T>> call, Instant deadline) {
+        var start = System.nanoTime();
+        var result = new CompletableFuture<T>();
+        var pending = new AtomicInteger();
+
+        attempt(call, result, pending, false);
+        earnBudget();
+
+        var hedgeDelay = hedgeDelay();
+
+        if (hedgeDelay > 0 && (deadline == null || Instant.now().plusMillis(hedgeDelay).isBefore(deadline))) {
+            delayedExecutor(hedgeDelay, MILLISECONDS, IOExecutor.get()).execute(() -> {
+                if (!result.isDone() && spendBudget()) {
+                    hedges.incrementAndGet();
+                    attempt(call, result, pending, true);
+                }
+            });
+        }
+
+        if (deadline != null) {
+            result.orTimeout(Math.max(0, Duration.between(Instant.now(), deadline).toMillis()), MILLISECONDS);
+        }
+
+        result.whenComplete((r, e) -> {
+            if (e instanceof TimeoutException) {
+                deadlinesMissed.incrementAndGet();
+            } else if (e == null) {
+                effective.recordSince(start);
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Only fails the result if there's no other attempt still going. The primary attempt's latency is recorded even
+     * if it's cancelled (as a lower bound), so hedging doesn't hide the tail it's cutting off from the percentile.
+     */
+    private <T> void attempt(Supplier<CompletableFuture<T>> call, CompletableFuture<T> result, AtomicInteger pending, boolean isHedge) {
+        var start = System.nanoTime();
+        pending.incrementAndGet();
+
+        var future = call.get();
+        result.whenComplete((r, e) -> future.cancel(true));
+
+        future.whenComplete((response, e) -> {
+            if (!isHedge) {
+                raw.recordSince(start);
+                recent.recordSince(start);
+            }
+
+            if (e == null) {
+                if (result.complete(response) && isHedge) {
+                    hedgesWon.incrementAndGet();
+                }
+            } else if (pending.decrementAndGet() == 0) {
+                result.completeExceptionally(e);
+            }
+        });
+    }
+
+    private long hedgeDelay() {
+        return (percentile <= 0 || recent.count() < MIN_SAMPLES) ? 0 : Math.max(1, recent.percentile(percentile));
+    }
+
+    private synchronized void earnBudget() {
+        budgetCredits = min(MAX_BUDGET_CREDITS, budgetCredits + budget);
+    }
+
+    private synchronized boolean spendBudget() {
+        if (budgetCredits < 1) {
+            return false;
+        }
+        budgetCredits--;
+        return true;
+    }
+}
@@ -0,0 +1,45 @@
+package org.datastax.simulacra.ai;
+
+/**
+ * Whatever actually answers the chat/function calls, picked w/ <code>LLM_PROVIDER</code> (<code>openai</code> or
+ * <code>stand-in</code>). The caching & hedging are layered on top of it the same either way.
+ * <p>
+ * If <code>OPENAI_BASE_URL</code> lists more than one endpoint, calls are balanced across all of them.
+ */
+public enum LLMProvider {
+    OPENAI,
+    STAND_IN;
+
+    public static LLMProvider selected() {
+        return valueOf(System.getenv().getOrDefault("LLM_PROVIDER", "openai").toUpperCase().replace('-', '_'));
+    }
+
+    public ChatService chatService() {
+        return switch (this) {
+            case OPENAI -> (isPooled()) ? PooledLLMService.DEFAULT : OpenAIService.INSTANCE;
+            case STAND_IN -> StandInLLMService.DEFAULT;
+        };
+    }
+
+    public FunctionService functionService() {
+        return switch (this) {
+            case OPENAI -> (isPooled()) ? PooledLLMService.DEFAULT : OpenAIService.INSTANCE;
+            case STAND_IN -> StandInLLMService.DEFAULT;
+        };
+    }
+
+    public String model() {
+        return (this == OPENAI) ? OpenAIService.CHAT_MODEL : StandInLLMService.MODEL;
+    }
+
+    public String stats() {
+        return switch (this) {
+            case OPENAI -> (isPooled()) ? PooledLLMService.DEFAULT.stats() : OpenAIService.INSTANCE.stats();
+            case STAND_IN -> StandInLLMService.DEFAULT.stats();
+        };
+    }
+
+    private static boolean isPooled() {
+        return OpenAIService.baseUrls().size() > 1;
+    }
+}
@@ -1,58 +1,274 @@
 package org.datastax.simulacra.ai;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.StringJoiner;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.failedFuture;
+import static org.datastax.simulacra.logging.HomemadeLogger.err;
+import static org.datastax.simulacra.utils.Utils.compactText;
+import static org.datastax.simulacra.utils.Utils.map;
+
+/**
+ * Client for the embedding service in <code>microservices/embedding_service.py</code>.
+ * <p>
+ * Speaks one of two wire formats, negotiated by content type:
+ * <ul>
+ *     <li><code>binary</code> (default): <code>application/octet-stream</code> in both directions. The request is an
+ *     int32 sentence count followed by each sentence as an int32 byte length + UTF-8 bytes, and the response is
+ *     an int32 row count, an int32 dimension count, then the row-major float32 matrix. Everything's little-endian.</li>
+ *     <li><code>json</code>: <code>{"sentences": [...]}</code> in, <code>[[...], ...]</code> out.</li>
+ * </ul>
+ * If the service says it doesn't speak binary (404, 406 or 415), or answers a binary request w/ JSON, the client
+ * permanently falls back to JSON. Until a binary request has worked, any other error's retried as JSON too (an older
+ * service which ignores the content type chokes on the binary body), and if that works, it falls back as well. After
+ * that, an error is just that request failing.
+ * <p>
+ * Requests are sent asynchronously, so nothing sits blocked on a thread waiting for the service. The client keeps
+ * a pool of keep-alive connections to the service (<code>jdk.httpclient.connectionPoolSize</code> caps it); set
+ * <code>EMBED_SERVICE_HTTP_VERSION=http_2</code> to multiplex over one connection if the service is behind something
+ * which speaks h2c.
+ */
+public class LocalEmbeddingService implements EmbeddingService {
+    public static final LocalEmbeddingService INSTANCE = new LocalEmbeddingService(urls().get(0), protocol());
+
+    public enum Protocol { BINARY, JSON }
+
+    private static final String OCTET_STREAM = "application/octet-stream";
+
+    /**
+     * Not found, not acceptable & unsupported media type, i.e. the service doesn't know the binary format at all.
+     */
+    private static final Set<Integer> UNSUPPORTED_PROTOCOL = Set.of(404, 406, 415);
 
-import static org.datastax.simulacra.utils.Utils.map2list;
-import static org.datastax.simulacra.ai.IOExecutor.defaultSupplyAsync;
+    private final URI uri;
+    private final HttpClient client;
+    private final JsonFactory json = new JsonFactory();
 
-public enum LocalEmbeddingService implements EmbeddingService {
-    INSTANCE;
+    private volatile boolean useBinary;
+    private volatile boolean binaryWorks;
 
-    private final String EMBED_SERVICE_URL = System.getenv().getOrDefault("EMBED_SERVICE_URL", "http://localhost:5000/embed");
+    public LocalEmbeddingService(String url, Protocol protocol) {
+        this.uri = URI.create(url);
+        this.useBinary = protocol == Protocol.BINARY;
 
-    private final HttpClient client = HttpClient.newHttpClient();
+        this.client = HttpClient.newBuilder()
+            .version(HttpClient.Version.valueOf(System.getenv().getOrDefault("EMBED_SERVICE_HTTP_VERSION", "HTTP_1_1").toUpperCase()))
+            .executor(IOExecutor.get())
+            .build();
+    }
+
+    /**
+     * Every service in <code>EMBED_SERVICE_URL</code>, which can be a comma-separated list of them to balance across
+     * (see {@link PooledEmbeddingService}).
+     */
+    public static List<String> urls() {
+        return Arrays.stream(System.getenv().getOrDefault("EMBED_SERVICE_URL", "http://localhost:5000/embed").split(","))
+            .map(String::trim)
+            .filter(url -> !url.isEmpty())
+            .toList();
+    }
 
-    private final HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
-        .uri(URI.create(EMBED_SERVICE_URL))
-        .header("Content-Type", "application/json");
+    public static Protocol protocol() {
+        return Protocol.valueOf(System.getenv().getOrDefault("EMBED_SERVICE_PROTOCOL", "binary").toUpperCase());
+    }
 
     @Override
-    public CompletableFuture<List<Float>> embed(String text) {
-        return defaultSupplyAsync(() -> embedSync(List.of(text)).get(0));
+    public CompletableFuture<float[]> embed(String text) {
+        return embed(List.of(text)).thenApply(l -> l.get(0));
     }
 
     @Override
-    public CompletableFuture<List<List<Float>>> embed(List<String> text) {
-        return defaultSupplyAsync(() -> embedSync(text));
+    public CompletableFuture<List<float[]>> embed(List<String> text) {
+        var future = (useBinary) ? embedBinary(text) : embedJson(text);
+
+        return future.exceptionallyCompose(e -> failedFuture(
+            new RuntimeException("Failed to embed " + text.size() + " sentences", (e instanceof CompletionException) ? e.getCause() : e)
+        ));
     }
 
-    private List<List<Float>> embedSync(List<String> text) {
-        var body = new StringJoiner("\", \"", "{\"sentences\": [\"", "\"]}");
+    private CompletableFuture<List<float[]>> embedBinary(List<String> text) {
+        return client.sendAsync(request(OCTET_STREAM, encodeBinary(text)), BodyHandlers.ofByteArray()).thenCompose(response -> {
+            if (response.statusCode() == 200 && isBinary(response)) {
+                binaryWorks = true;
+                return completedFuture(decodeBinary(ByteBuffer.wrap(response.body())));
+            }
 
-        for (String sentence : text) {
-            body.add(sentence.replace("\"", "\\\""));
-        }
+            if (response.statusCode() == 200) {
+                err("Embedding service answered a binary request w/ " + contentType(response) + ", falling back to JSON");
+                useBinary = false;
 
-        var bodyString = body.toString().replaceAll("\\s+", " ").trim();
-        var request = requestBuilder.POST(HttpRequest.BodyPublishers.ofString(bodyString)).build();
+                try {
+                    return completedFuture(decodeJson(new ByteArrayInputStream(response.body())));
+                } catch (IOException e) {
+                    return failedFuture(e);
+                }
+            }
 
+            if (UNSUPPORTED_PROTOCOL.contains(response.statusCode())) {
+                err("Embedding service doesn't accept binary requests (" + response.statusCode() + "), falling back to JSON");
+                useBinary = false;
+                return embedJson(text);
+            }
+
+            var error = new IOException("Embedding service responded with " + response.statusCode() + ": " + new String(response.body()));
+
+            if (binaryWorks) {
+                return failedFuture(error);
+            }
+
+            return embedJson(text)
+                .thenApply(embeddings -> {
+                    err("Embedding service failed a binary request (" + response.statusCode() + ") but not a JSON one, falling back to JSON");
+                    useBinary = false;
+                    return embeddings;
+                })
+                .exceptionallyCompose(e -> failedFuture(error));
+        });
+    }
+
+    /**
+     * The response is parsed as it streams in, on the client's (virtual) thread.
+     */
+    private CompletableFuture<List<float[]>> embedJson(List<String> text) {
         try {
-            var response = client.send(request, BodyHandlers.ofString());
+            return client.sendAsync(request("application/json", encodeJson(text)), BodyHandlers.ofInputStream()).thenApply(response -> {
+                try (var body = response.body()) {
+                    if (response.statusCode() != 200) {
+                        throw new IOException("Embedding service responded with " + response.statusCode() + ": " + new String(body.readAllBytes()));
+                    }
+                    return decodeJson(body);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException e) {
+            return failedFuture(e);
+        }
+    }
+
+    private HttpRequest request(String contentType, byte[] body) {
+        return HttpRequest.newBuilder()
+            .uri(uri)
+            .header("Content-Type", contentType)
+            .header("Accept", contentType)
+            .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+            .build();
+    }
+
+    private static boolean isBinary(HttpResponse<?> response) {
+        return contentType(response).startsWith(OCTET_STREAM);
+    }
+
+    private static String contentType(HttpResponse<?> response) {
+        return response.headers().firstValue("Content-Type").orElse("no content type");
+    }
+
+    public static byte[] encodeBinary(List<String> sentences) {
+        var encoded = map(sentences, sentence -> compactText(sentence).getBytes(StandardCharsets.UTF_8));
+        var size = Integer.BYTES + encoded.stream().mapToInt(bytes -> Integer.BYTES + bytes.length).sum();
+
+        var buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(encoded.size());
+
+        for (var bytes : encoded) {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+
+        return buffer.array();
+    }
+
+    /**
+     * Reads the float32 matrix through a float view of the response buffer; no parsing, just a bulk copy per row
+     * into the <code>float[]</code>s the rest of the sim works w/ (so not zero-copy, but that's the only copy).
+     */
+    public static List<float[]> decodeBinary(ByteBuffer body) {
+        body.order(ByteOrder.LITTLE_ENDIAN);
+
+        var rows = body.getInt();
+        var dims = body.getInt();
+        var floats = body.asFloatBuffer();
+        var embeddings = new ArrayList<float[]>(rows);
+
+        for (int i = 0; i < rows; i++) {
+            var embedding = new float[dims];
+            floats.get(embedding);
+            embeddings.add(embedding);
+        }
+
+        return embeddings;
+    }
+
+    /**
+     * Writes <code>{"sentences": [...]}</code> straight into the request bytes.
+     */
+    private byte[] encodeJson(List<String> sentences) throws IOException {
+        var out = new ByteArrayOutputStream();
+
+        try (var generator = json.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("sentences");
+
+            for (var sentence : sentences) {
+                generator.writeString(compactText(sentence));
+            }
+
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Streams the <code>[[...], [...]]</code> response straight off the socket into float arrays. The first row
+     * is read into a growable buffer, after which the dimensions are known and later rows are read in place.
+     */
+    private List<float[]> decodeJson(InputStream body) throws IOException {
+        try (var parser = json.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Expected an array of embeddings, got " + parser.currentToken());
+            }
+
+            var embeddings = new ArrayList<float[]>();
+            var row = new float[1024];
+
+            while (parser.nextToken() == JsonToken.START_ARRAY) {
+                var dims = 0;
+
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (dims == row.length) {
+                        row = Arrays.copyOf(row, row.length * 2);
+                    }
+                    row[dims++] = parser.getFloatValue();
+                }
 
-            var result = response.body().replace("[[", "").replace("]]", "").split("],\\s*\\[");
+                embeddings.add((dims == row.length) ? row : Arrays.copyOf(row, dims));
+                row = new float[Math.max(1, dims)];
+            }
 
-            return map2list(result, s ->
-                map2list(s.split(","), Float::parseFloat)
-            );
-        } catch (Exception e) {
-            System.out.println(bodyString);
-            throw new RuntimeException(e);
+            return embeddings;
         }
     }
 }
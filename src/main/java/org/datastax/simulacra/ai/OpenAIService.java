@@ -5,169 +5,326 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.TextNode;
 import com.theokanning.openai.OpenAiError;
 import com.theokanning.openai.OpenAiHttpException;
 import com.theokanning.openai.completion.chat.ChatCompletionRequest;
-import com.theokanning.openai.completion.chat.ChatCompletionRequest.ChatCompletionRequestBuilder;
-import com.theokanning.openai.completion.chat.ChatCompletionRequest.ChatCompletionRequestFunctionCall;
 import com.theokanning.openai.completion.chat.ChatCompletionResult;
-import com.theokanning.openai.completion.chat.ChatFunction;
+import com.theokanning.openai.completion.chat.ChatFunctionCall;
 import com.theokanning.openai.completion.chat.ChatMessage;
 import com.theokanning.openai.embedding.EmbeddingRequest;
-import com.theokanning.openai.embedding.EmbeddingResult;
-import com.theokanning.openai.service.FunctionExecutor;
-import io.reactivex.Single;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.MediaType;
+import okhttp3.Protocol;
 import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import org.datastax.simulacra.ai.RequestLimiter.Outcome;
+import org.datastax.simulacra.utils.Utils;
 import retrofit2.HttpException;
 import retrofit2.http.Body;
+import retrofit2.http.GET;
 import retrofit2.http.POST;
+import retrofit2.http.Streaming;
 
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.lang.reflect.RecordComponent;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 import static com.theokanning.openai.service.OpenAiService.*;
-import static java.util.Collections.singletonList;
-import static java.util.stream.Collectors.toMap;
+import static java.lang.Integer.parseInt;
+import static java.util.concurrent.CompletableFuture.*;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
 import static org.datastax.simulacra.utils.Utils.*;
-import static org.datastax.simulacra.ai.IOExecutor.defaultSupplyAsync;
 import static org.datastax.simulacra.logging.HomemadeLogger.err;
 import static org.datastax.simulacra.logging.HomemadeLogger.log;
 
-public enum OpenAIService implements ChatService, EmbeddingService, FunctionService {
-    INSTANCE;
+/**
+ * Client for the OpenAI API, or anything else which speaks it, at some base URL. Each instance has its own limiter,
+ * retries, and connection pool.
+ * <p>
+ * <code>OPENAI_BASE_URL</code> can be a comma-separated list of endpoints, in which case calls are balanced across
+ * all of them (see {@link PooledLLMService}), and {@link #INSTANCE} is just the first.
+ */
+public class OpenAIService implements ChatService, EmbeddingService, FunctionService {
+    public static final String CHAT_MODEL = "gpt-3.5-turbo";
 
-    private static final int MAX_RETRIES = 1;
+    private static final boolean STREAMING = Boolean.parseBoolean(System.getenv().getOrDefault("OPENAI_STREAMING", "true"));
+
+    private static final int EMBED_MAX_BATCH = parseInt(System.getenv().getOrDefault("OPENAI_EMBED_MAX_BATCH", "256"));
+    private static final int EMBED_MAX_TOKENS = parseInt(System.getenv().getOrDefault("OPENAI_EMBED_MAX_TOKENS", "50000"));
+
+    public static final OpenAIService INSTANCE = new OpenAIService(
+        baseUrls().get(0),
+        parseInt(System.getenv().getOrDefault("OPENAI_MAX_RETRIES", "4"))
+    );
+
+    private final String baseUrl;
+    private final RetryPolicy retryPolicy;
+    private final RequestLimiter limiter;
+    private final AtomicLong retries = new AtomicLong();
 
     private final ObjectMapper mapper = defaultObjectMapper();
-    private final MyOpenAiApi api = createApi();
+    private final MyOpenAiApi api;
+    private final Map<Class<?>, FunctionTemplate> templates = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxRetries How many times a failed call's retried against this same endpoint
+     */
+    public OpenAIService(String baseUrl, int maxRetries) {
+        this.baseUrl = baseUrl;
+        this.retryPolicy = new RetryPolicy(maxRetries, Duration.ofMillis(500), Duration.ofSeconds(20));
+
+        this.limiter = new RequestLimiter(
+            "OpenAI @ " + baseUrl,
+            parseInt(System.getenv().getOrDefault("OPENAI_CONCURRENCY_INITIAL", "8")),
+            parseInt(System.getenv().getOrDefault("OPENAI_CONCURRENCY_MAX", "64")),
+            parseInt(System.getenv().getOrDefault("OPENAI_RPM", "3500")),
+            parseInt(System.getenv().getOrDefault("OPENAI_TPM", "90000"))
+        );
+
+        this.api = createApi();
+    }
+
+    /**
+     * Every endpoint in <code>OPENAI_BASE_URL</code>.
+     */
+    public static List<String> baseUrls() {
+        return Arrays.stream(System.getenv().getOrDefault("OPENAI_BASE_URL", "https://api.openai.com/").split(","))
+            .map(String::trim)
+            .filter(url -> !url.isEmpty())
+            .toList();
+    }
 
     {
         mapper.enable(JsonParser.Feature.ALLOW_COMMENTS);
     }
 
+    /**
+     * Cancelling the returned future (e.g. when a hedged request loses) cancels the request itself, or gives up its
+     * spot in the limiter's queue, or stops it retrying; whichever it's in the middle of.
+     */
     @Override
     public CompletableFuture<String> query(String text) {
-        return defaultSupplyAsync(() -> queryNormalSync(text));
+        var message = query(text, this::chatRequest, this::complete, () -> true);
+        return cancelling(message, message.thenApply(ChatMessage::getContent));
     }
 
     @Override
     public <T> CompletableFuture<T> query(String text, Class<T> body, Collection<?> ...providers) {
-        return defaultSupplyAsync(() -> queryFunctionSync(text, body, providers));
+        var template = template(body);
+
+        var message = query(text, compactPrompt -> template.render(compactPrompt, providers), this::complete, () -> true);
+
+        return cancelling(message, message.thenApply(m -> (
+            template.parse(m.getFunctionCall().getArguments(), mapper)
+        )));
     }
 
+    /**
+     * Sends the whole batch as one function call, w/ the responses keyed the same as the prompts.
+     */
     @Override
-    public CompletableFuture<List<Float>> embed(String text) {
-        return defaultSupplyAsync(() -> embedSync(text));
+    public <T> CompletableFuture<Map<String, T>> queryBatch(String preamble, Map<String, BatchPrompt> prompts, Class<T> body) {
+        var template = template(body);
+        var providers = new LinkedHashMap<String, Collection<?>[]>();
+        prompts.forEach((key, prompt) -> providers.put(key, prompt.providers()));
+
+        var message = query(FunctionTemplate.batchPrompt(preamble, prompts), compactPrompt -> (
+            template.renderBatch(compactPrompt, providers, mapper)
+        ), this::complete, () -> true);
+
+        return cancelling(message, message.thenApply(m -> (
+            template.<T>parseBatch(m.getFunctionCall().getArguments(), mapper)
+        )));
     }
 
+    /**
+     * Streams the completion in over SSE. Only retried if it fails before the first token arrives, since the
+     * tokens before it have already been handed off.
+     */
     @Override
-    public CompletableFuture<List<List<Float>>> embed(List<String> text) {
-        return awaitAll(map(text, t -> defaultSupplyAsync(() -> embedSync(t))));
+    public CompletableFuture<String> queryStreaming(String text, Consumer<String> onToken) {
+        if (!STREAMING) {
+            return ChatService.super.queryStreaming(text, onToken);
+        }
+
+        var started = new AtomicBoolean();
+
+        var message = query(text, compactPrompt -> streaming(chatRequest(compactPrompt)), body -> (
+            stream(body, onToken, null, started)
+        ), () -> !started.get());
+
+        return cancelling(message, message.thenApply(ChatMessage::getContent));
     }
 
-    private List<Float> embedSync(String text) {
-        var request = EmbeddingRequest.builder()
-            .input(List.of(compactText(text)))
-            .model("text-embedding-ada-002")
-            .build();
+    /**
+     * Streams the function call in over SSE, feeding the partial arguments through a {@link StreamingFieldParser}
+     * so each field's passed on as soon as it's complete. Only retried if it fails before any of the arguments
+     * arrive.
+     */
+    @Override
+    public <T> CompletableFuture<T> queryStreaming(String text, BiConsumer<String, JsonNode> onField, Class<T> body, Collection<?>... providers) {
+        if (!STREAMING) {
+            return FunctionService.super.queryStreaming(text, onField, body, providers);
+        }
 
-        log("Making embedding request");
+        var template = template(body);
+        var started = new AtomicBoolean();
 
-        return execute(api.createEmbeddings(request))
-            .getData()
-            .get(0)
-            .getEmbedding()
-            .stream()
-            .map(Double::floatValue)
-            .toList();
+        var message = query(text, compactPrompt -> streaming(template.render(compactPrompt, providers)), requestBody -> (
+            stream(requestBody, token -> {}, new StreamingFieldParser(mapper, onField), started)
+        ), () -> !started.get());
+
+        return cancelling(message, message.thenApply(m -> (
+            template.parse(m.getFunctionCall().getArguments(), mapper)
+        )));
     }
 
-    private String queryNormalSync(String prompt) {
-        return query(prompt, x -> obj2JsonString(x.build())).getContent();
+    private FunctionTemplate template(Class<?> body) {
+        return templates.computeIfAbsent(body, clazz -> FunctionTemplate.compile(clazz, CHAT_MODEL, mapper));
     }
 
-    private <T, R> R queryFunctionSync(String text, Class<T> body, Collection<?>[] providers) {
-        var annotation = body.getAnnotation(FunctionResponse.class);
+    private String chatRequest(String compactPrompt) {
+        return obj2JsonString(
+            ChatCompletionRequest.builder()
+                .model(CHAT_MODEL)
+                .messages(List.of(new ChatMessage("user", compactPrompt)))
+                .build()
+        );
+    }
 
-        var fnName = body.getSimpleName();
-        var fnDesc = annotation.desc().isEmpty() ? null : annotation.desc();
+    /**
+     * Turns on streaming for an already serialized request.
+     */
+    private static String streaming(String request) {
+        return "{\"stream\":true," + request.substring(1);
+    }
 
-        var function = ChatFunction.builder()
-            .name(fnName)
-            .description(fnDesc)
-            .executor(body, x -> x)
-            .build();
+    /**
+     * Makes cancelling the derived future cancel the source too (which is a no-op if it's already done).
+     */
+    private static <T, R> CompletableFuture<R> cancelling(CompletableFuture<T> source, CompletableFuture<R> derived) {
+        derived.whenComplete((r, e) -> source.cancel(true));
+        return derived;
+    }
+
+    @Override
+    public CompletableFuture<float[]> embed(String text) {
+        return embed(List.of(text)).thenApply(l -> l.get(0));
+    }
+
+    /**
+     * Embeds the texts in as few requests as possible, chunked by <code>OPENAI_EMBED_MAX_BATCH</code> inputs and
+     * (roughly, at ~4 chars per token) <code>OPENAI_EMBED_MAX_TOKENS</code> tokens per request.
+     */
+    @Override
+    public CompletableFuture<List<float[]>> embed(List<String> text) {
+        return embed(text, EMBED_MAX_BATCH, EMBED_MAX_TOKENS);
+    }
+
+    CompletableFuture<List<float[]>> embed(List<String> text, int maxBatch, int maxTokens) {
+        var chunks = chunkForEmbedding(map(text, Utils::compactText), maxBatch, maxTokens);
+        var futures = map(chunks, this::embedChunk);
+
+        return allOf(futures).thenApply(results -> (
+            results.stream().flatMap(List::stream).toList()
+        ));
+    }
 
-        var fnList = singletonList(function);
-        var fnExecutor = new FunctionExecutor(fnList, mapper);
+    static List<List<String>> chunkForEmbedding(List<String> texts, int maxBatch, int maxTokens) {
+        var chunks = new ArrayList<List<String>>();
+        var chunk = new ArrayList<String>();
+        var tokens = 0;
 
-        var fnCall = query(text, builder -> {
-            var request = builder
-                .functions(fnExecutor.getFunctions())
-                .functionCall(new ChatCompletionRequestFunctionCall(fnName))
-                .build();
+        for (var text : texts) {
+            var estimate = text.length() / 4 + 1;
 
-            if (providers.length == 0) {
-                return obj2JsonString(request);
+            if (!chunk.isEmpty() && (chunk.size() >= maxBatch || tokens + estimate > maxTokens)) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+                tokens = 0;
             }
 
-            var json = obj2JsonNode(request);
-            populateEnumFields(json, body, providers);
-            return writeJsonAsString(json);
-        }).getFunctionCall();
+            chunk.add(text);
+            tokens += estimate;
+        }
 
-        return fnExecutor.execute(fnCall);
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
     }
 
-    private void populateEnumFields(JsonNode json, Class<?> clazz, Collection<?>[] providers) {
-        var properties = json
-            .get("functions")
-            .get(0)
-            .get("parameters")
-            .get("properties");
-
-        var ref = new Object() {
-            int providerIndex = 0;
-        };
-
-        var enumFields = Arrays.stream(clazz.getRecordComponents())
-            .filter(f -> f.getAnnotation(EnumType.class) != null)
-            .collect(toMap(
-                RecordComponent::getName,
-                f -> {
-                    var values = providers[ref.providerIndex++];
-
-                    return map(values, x -> (
-                        (x instanceof String) ? "\"" + x + "\"" : x
-                    ));
-                }
-            ));
+    private CompletableFuture<List<float[]>> embedChunk(List<String> texts) {
+        var request = EmbeddingRequest.builder()
+            .input(texts)
+            .model("text-embedding-ada-002")
+            .build();
 
-        enumFields.forEach((field, values) -> {
-            var valuesAsNodes = map(values, v -> TextNode.valueOf(v.toString()));
-            var fieldNode = (ObjectNode) properties.get(field);
-            fieldNode.putArray("enum").addAll(valuesAsNodes);
-        });
+        log("Making embedding request (" + texts.size() + " inputs)");
+
+        return api.createEmbeddings(request)
+            .exceptionallyCompose(e -> failedFuture(translate(e)))
+            .thenApply(response -> toEmbeddings(texts, response.data()));
     }
 
-    private ChatMessage query(String prompt, Function<ChatCompletionRequestBuilder, String> buildFn) {
-        var compactPrompt = compactText(prompt);
-        var msg = List.of(new ChatMessage("user", compactPrompt));
+    static List<float[]> toEmbeddings(List<String> texts, List<EmbeddingData> data) {
+        if (data.size() != texts.size()) {
+            throw new IllegalStateException("Asked for " + texts.size() + " embeddings, got " + data.size());
+        }
 
-        var builder = ChatCompletionRequest.builder()
-            .model("gpt-3.5-turbo")
-            .messages(msg);
+        // The data's meant to come back in order, but the index is the actual source of truth
+        var result = new float[texts.size()][];
+
+        for (var embedding : data) {
+            if (embedding.index() < 0 || embedding.index() >= result.length || result[embedding.index()] != null) {
+                throw new IllegalStateException("Got a missing, duplicate or out of range embedding index " + embedding.index());
+            }
+            result[embedding.index()] = embedding.embedding();
+        }
+        return Arrays.asList(result);
+    }
 
-        var requestString = buildFn.apply(builder);
+    /**
+     * A request to make, and how to make it.
+     *
+     * @param transport Sends the request and reads back the message, w/ cancelling its future cancelling the call
+     * @param canRetry Whether it's still safe to retry the request if it fails
+     */
+    private record ChatRequest(
+        RequestBody body,
+        String compactPrompt,
+        int estimatedTokens,
+        Function<RequestBody, CompletableFuture<ChatMessage>> transport,
+        BooleanSupplier canRetry
+    ) {}
+
+    /**
+     * @param buildFn Builds the request's JSON for the compacted prompt
+     */
+    private CompletableFuture<ChatMessage> query(String prompt, Function<String, String> buildFn, Function<RequestBody, CompletableFuture<ChatMessage>> transport, BooleanSupplier canRetry) {
+        var compactPrompt = compactText(prompt);
+        var requestString = buildFn.apply(compactPrompt);
 
 //        try {
 //            ObjectMapper objectMapper = new ObjectMapper();
@@ -187,65 +344,227 @@ public enum OpenAIService implements ChatService, EmbeddingService, FunctionServ
         log(compactPrompt);
         log("--------------------------------------");
 
-        int retries = 0;
-
-        while (retries <= MAX_RETRIES) {
-            try {
-                return execute(api.createChatCompletion(body))
-                    .getChoices()
-                    .get(0)
-                    .getMessage();
-            } catch (Exception e) {
-                err("Failed to make chat completions request", e);
-            } finally {
-                retries++;
+        var result = new CompletableFuture<ChatMessage>();
+        send(result, new ChatRequest(body, compactPrompt, requestString.length() / 4, transport, canRetry), 0);
+        return result;
+    }
+
+    /**
+     * Waits its turn w/ the limiter, then sends the request, retrying it (after a delay, w/o blocking anything)
+     * as the retry policy allows. Gives up as soon as the result's completed from the outside (i.e. cancelled).
+     */
+    private void send(CompletableFuture<ChatMessage> result, ChatRequest request, int retry) {
+        if (result.isDone()) {
+            return;
+        }
+
+        var permit = limiter.acquire(request.estimatedTokens);
+        result.whenComplete((r, e) -> permit.cancel(false));
+
+        permit.thenAccept(p -> {
+            var call = request.transport.apply(request.body);
+            result.whenComplete((r, e) -> call.cancel(true));
+
+            call.whenComplete((message, e) -> {
+                p.release((e == null) ? Outcome.SUCCESS : RetryPolicy.isThrottle(e) ? Outcome.THROTTLED : Outcome.FAILED);
+
+                if (e == null) {
+                    result.complete(message);
+                } else if (!result.isDone()) {
+                    retry(result, translate(e), request, retry);
+                }
+            });
+        });
+    }
+
+    private void retry(CompletableFuture<ChatMessage> result, Throwable cause, ChatRequest request, int retry) {
+        err("Failed to make chat completions request", cause);
+
+        var delay = (request.canRetry.getAsBoolean()) ? retryPolicy.delay(retry, cause) : Optional.<Duration>empty();
+
+        if (delay.isEmpty()) {
+            result.completeExceptionally(new RuntimeException("Failed to complete chat completions request (" + request.compactPrompt + ")", cause));
+            return;
+        }
+
+        RetryPolicy.retryAfter(cause).ifPresent(limiter::pause);
+        retries.incrementAndGet();
+
+        delayedExecutor(delay.get().toMillis(), MILLISECONDS, IOExecutor.get()).execute(() -> {
+            send(result, request, retry + 1);
+        });
+    }
+
+    private CompletableFuture<ChatMessage> complete(RequestBody body) {
+        // Retrofit's future cancels the underlying call when it's cancelled w/ mayInterruptIfRunning
+        var call = api.createChatCompletion(body);
+        return cancelling(call, call.thenApply(response -> response.getChoices().get(0).getMessage()));
+    }
+
+    /**
+     * Reads the SSE stream on a virtual thread as it comes in, handing off content tokens and function arguments
+     * as they arrive, and putting the whole message back together at the end.
+     */
+    private CompletableFuture<ChatMessage> stream(RequestBody body, Consumer<String> onToken, StreamingFieldParser arguments, AtomicBoolean started) {
+        var call = api.streamChatCompletion(body);
+        var message = new CompletableFuture<ChatMessage>();
+        message.whenComplete((m, e) -> call.cancel(true));
+
+        call.whenCompleteAsync((response, e) -> {
+            if (e != null) {
+                message.completeExceptionally(e);
+                return;
+            }
+
+            try (response) {
+                message.complete(readStream(response, message, onToken, arguments, started));
+            } catch (Exception ex) {
+                message.completeExceptionally(ex);
+            }
+        }, IOExecutor.get());
+
+        return message;
+    }
+
+    private ChatMessage readStream(ResponseBody response, CompletableFuture<?> message, Consumer<String> onToken, StreamingFieldParser arguments, AtomicBoolean started) throws IOException {
+        var content = new StringBuilder();
+        String functionName = null;
+
+        try (var reader = new BufferedReader(new InputStreamReader(response.byteStream(), StandardCharsets.UTF_8))) {
+            for (var line = reader.readLine(); line != null && !message.isDone(); line = reader.readLine()) {
+                if (!line.startsWith("data:")) {
+                    continue;
+                }
+
+                var data = line.substring("data:".length()).trim();
+
+                if (data.equals("[DONE]")) {
+                    break;
+                }
+
+                var chunk = mapper.readTree(data);
+
+                if (chunk.has("error")) {
+                    throw new IOException("Error partway through the stream: " + chunk.get("error"));
+                }
+
+                var delta = chunk.path("choices").path(0).path("delta");
+
+                if (delta.hasNonNull("content")) {
+                    started.set(true);
+                    content.append(delta.get("content").asText());
+                    onToken.accept(delta.get("content").asText());
+                }
+
+                var functionCall = delta.path("function_call");
+
+                if (functionCall.hasNonNull("name")) {
+                    functionName = functionCall.get("name").asText();
+                }
+
+                if (functionCall.hasNonNull("arguments") && arguments != null) {
+                    started.set(true);
+                    arguments.feed(functionCall.get("arguments").asText());
+                }
             }
         }
-        throw new RuntimeException("Failed to complete chat completions request (" + compactPrompt + ")");
+
+        var result = new ChatMessage("assistant", content.isEmpty() ? null : content.toString());
+
+        if (functionName != null && arguments != null) {
+            result.setFunctionCall(new ChatFunctionCall(functionName, TextNode.valueOf(arguments.text())));
+        }
+        return result;
+    }
+
+    /**
+     * Lists the endpoint's models, just to check it's up. Doesn't cost any tokens, & skips the limiter & retries,
+     * so it's only the one (tiny) request
+     */
+    public CompletableFuture<Void> ping() {
+        return api.listModels()
+            .exceptionallyCompose(e -> failedFuture(translate(e)))
+            .thenAccept(ResponseBody::close);
     }
 
-    private String compactText(String prompt) {
-        return prompt.replaceAll("\\s+", " ").trim();
+    public String stats() {
+        return limiter.stats() + ", " + retries.get() + " retries";
     }
 
+    /**
+     * Calls go through OkHttp's async dispatcher (which runs them on virtual threads) straight into Retrofit's
+     * CompletableFuture adapter. OkHttp negotiates HTTP/2 w/ the API when it can, which multiplexes the requests over
+     * a handful of connections; otherwise it's a pool of HTTP/1.1 connections.
+     */
     private MyOpenAiApi createApi() {
-        var client = defaultClient(System.getenv("OPENAI_TOKEN"), Duration.ofSeconds(15));
+        var maxRequests = parseInt(System.getenv().getOrDefault("OPENAI_MAX_REQUESTS", "256"));
+        var maxIdleConnections = parseInt(System.getenv().getOrDefault("OPENAI_MAX_IDLE_CONNECTIONS", "32"));
+
+        var dispatcher = new Dispatcher(IOExecutor.get());
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequests);
+
+        var client = defaultClient(System.getenv("OPENAI_TOKEN"), Duration.ofSeconds(15))
+            .newBuilder()
+            .dispatcher(dispatcher)
+            .connectionPool(new ConnectionPool(maxIdleConnections, 5, MINUTES))
+            .protocols(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1))
+            .build();
 
-        return defaultRetrofit(
-            client, mapper
-        ).create(MyOpenAiApi.class);
+        return defaultRetrofit(client, mapper)
+            .newBuilder()
+            .baseUrl(baseUrl)
+            .build()
+            .create(MyOpenAiApi.class);
     }
 
+    /**
+     * Unwraps the future's exception, and turns HTTP errors into OpenAI's error (w/ the HTTP error as the cause)
+     */
     @SuppressWarnings("DataFlowIssue")
-    public static <T> T execute(Single<T> apiCall) {
-        try {
-            return apiCall.blockingGet();
-        } catch (HttpException e) {
-            if (e.response() == null) {
-                throw e;
-            }
+    private static Throwable translate(Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
 
-            try (var errorBody = e.response().errorBody()) {
-                if (errorBody == null) {
-                    throw e;
-                }
+        if (!(e instanceof HttpException httpException) || httpException.response() == null) {
+            return e;
+        }
 
-                var error = readJsonTree(errorBody.string(), new TypeReference<OpenAiError>() {});
-                throw new OpenAiHttpException(error, e, e.code());
-            } catch (IOException ex) {
-                throw e;
+        try (var errorBody = httpException.response().errorBody()) {
+            if (errorBody == null) {
+                return e;
             }
+
+            var error = readJsonTree(errorBody.string(), new TypeReference<OpenAiError>() {});
+            return new OpenAiHttpException(error, httpException, httpException.code());
+        } catch (Exception ex) {
+            return e;
         }
     }
 
     private interface MyOpenAiApi {
         @POST("/v1/chat/completions")
-        Single<ChatCompletionResult> createChatCompletion(@Body RequestBody request);
+        CompletableFuture<ChatCompletionResult> createChatCompletion(@Body RequestBody request);
+
+        @Streaming
+        @POST("/v1/chat/completions")
+        CompletableFuture<ResponseBody> streamChatCompletion(@Body RequestBody request);
 
         @POST("/v1/embeddings")
-        Single<EmbeddingResult> createEmbeddings(@Body EmbeddingRequest request);
+        CompletableFuture<EmbeddingResponse> createEmbeddings(@Body EmbeddingRequest request);
+
+        @GET("/v1/models")
+        CompletableFuture<ResponseBody> listModels();
     }
 
+    /**
+     * Just the bits of the embeddings response we use, so Jackson can read each vector straight into a float[]
+     */
+    private record EmbeddingResponse(List<EmbeddingData> data) {}
+
+    record EmbeddingData(int index, float[] embedding) {}
+
     private String obj2JsonString(Object obj) {
         try {
             return mapper.writeValueAsString(obj);
@@ -254,7 +573,4 @@ public enum OpenAIService implements ChatService, EmbeddingService, FunctionServ
         }
     }
 
-    private JsonNode obj2JsonNode(Object obj) {
-        return mapper.valueToTree(obj);
-    }
 }
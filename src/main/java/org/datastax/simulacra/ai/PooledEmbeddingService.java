@@ -0,0 +1,47 @@
+package org.datastax.simulacra.ai;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Embeddings balanced across every embedding service in <code>EMBED_SERVICE_URL</code>, w/ failover & health checks
+ * (see {@link ProviderPool}).
+ */
+public class PooledEmbeddingService implements EmbeddingService {
+    public static final PooledEmbeddingService DEFAULT = new PooledEmbeddingService(ProviderPool.fromEnv(
+        "Embeddings",
+        endpoints(),
+        service -> service.embed("health check")
+    ));
+
+    private final ProviderPool<LocalEmbeddingService> pool;
+
+    public PooledEmbeddingService(ProviderPool<LocalEmbeddingService> pool) {
+        this.pool = pool;
+    }
+
+    private static Map<String, LocalEmbeddingService> endpoints() {
+        var endpoints = new LinkedHashMap<String, LocalEmbeddingService>();
+
+        for (var url : LocalEmbeddingService.urls()) {
+            endpoints.put(url, new LocalEmbeddingService(url, LocalEmbeddingService.protocol()));
+        }
+        return endpoints;
+    }
+
+    @Override
+    public CompletableFuture<float[]> embed(String text) {
+        return pool.call(service -> service.embed(text));
+    }
+
+    @Override
+    public CompletableFuture<List<float[]>> embed(List<String> text) {
+        return pool.call(service -> service.embed(text));
+    }
+
+    public String stats() {
+        return pool.stats();
+    }
+}
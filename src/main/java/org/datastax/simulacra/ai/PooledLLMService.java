@@ -0,0 +1,91 @@
+package org.datastax.simulacra.ai;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import static java.lang.Integer.parseInt;
+
+/**
+ * Chat/function calls balanced across every OpenAI-compatible endpoint in <code>OPENAI_BASE_URL</code>, w/ failover
+ * & health checks (see {@link ProviderPool}).
+ * <p>
+ * Each endpoint only retries a failed call <code>POOL_ENDPOINT_MAX_RETRIES</code> times itself before it's handed off
+ * to the next endpoint. Streamed calls only fail over if nothing's been streamed back yet, since the caller's
+ * already been handed whatever had been.
+ * <p>
+ * Ejected endpoints are health checked w/ {@link OpenAIService#ping()} (a <code>GET /v1/models</code>), which
+ * costs no tokens, just one tiny request per endpoint per check.
+ */
+public class PooledLLMService implements ChatService, FunctionService {
+    public static final PooledLLMService DEFAULT = new PooledLLMService(ProviderPool.fromEnv(
+        "LLM",
+        endpoints(parseInt(System.getenv().getOrDefault("POOL_ENDPOINT_MAX_RETRIES", "1"))),
+        OpenAIService::ping
+    ));
+
+    private final ProviderPool<OpenAIService> pool;
+
+    public PooledLLMService(ProviderPool<OpenAIService> pool) {
+        this.pool = pool;
+    }
+
+    private static Map<String, OpenAIService> endpoints(int maxRetries) {
+        var endpoints = new LinkedHashMap<String, OpenAIService>();
+
+        for (var url : OpenAIService.baseUrls()) {
+            endpoints.put(url, new OpenAIService(url, maxRetries));
+        }
+        return endpoints;
+    }
+
+    @Override
+    public CompletableFuture<String> query(String prompt) {
+        return pool.call(service -> service.query(prompt));
+    }
+
+    @Override
+    public <T> CompletableFuture<T> query(String prompt, Class<T> response, Collection<?>... providers) {
+        return pool.call(service -> service.query(prompt, response, providers));
+    }
+
+    @Override
+    public <T> CompletableFuture<Map<String, T>> queryBatch(String preamble, Map<String, BatchPrompt> prompts, Class<T> response) {
+        return pool.call(service -> service.queryBatch(preamble, prompts, response));
+    }
+
+    @Override
+    public CompletableFuture<String> queryStreaming(String prompt, Consumer<String> onToken) {
+        var started = new AtomicBoolean();
+
+        return pool.call(service -> service.queryStreaming(prompt, token -> {
+            started.set(true);
+            onToken.accept(token);
+        }), () -> !started.get());
+    }
+
+    @Override
+    public <T> CompletableFuture<T> queryStreaming(String prompt, BiConsumer<String, JsonNode> onField, Class<T> response, Collection<?>... providers) {
+        var started = new AtomicBoolean();
+
+        return pool.call(service -> service.queryStreaming(prompt, (field, value) -> {
+            started.set(true);
+            onField.accept(field, value);
+        }, response, providers), () -> !started.get());
+    }
+
+    public String stats() {
+        var lines = new StringBuilder(pool.stats());
+
+        for (var service : pool.services()) {
+            lines.append("\n   - ").append(service.stats());
+        }
+        return lines.toString();
+    }
+}
@@ -0,0 +1,305 @@
+package org.datastax.simulacra.ai;
+
+import org.datastax.simulacra.utils.LatencyRecorder;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+import static java.lang.Math.min;
+import static java.util.concurrent.CompletableFuture.delayedExecutor;
+import static java.util.concurrent.CompletableFuture.failedFuture;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.datastax.simulacra.logging.HomemadeLogger.err;
+import static org.datastax.simulacra.logging.HomemadeLogger.log;
+
+/**
+ * Balances calls across a few endpoints which can all do the same thing (e.g. several OpenAI-compatible servers, or
+ * several embedding services), failing over to the next one when a call fails.
+ * <p>
+ * Each call goes to the healthy endpoint w/ either the fewest calls in flight (<code>LEAST_OUTSTANDING</code>), or
+ * the lowest EWMA of its latency weighted by how many calls it has in flight (<code>EWMA</code>). Ties go round-robin.
+ * <p>
+ * After <code>ejectAfterFailures</code> failures in a row, an endpoint's ejected for <code>ejectMillis</code> (doubling
+ * each time it's ejected again, up to 16x), then has to pass a health check before it gets any more calls. If every
+ * endpoint's ejected, calls still go to whichever comes back soonest rather than failing outright.
+ */
+public class ProviderPool<S> {
+    public enum Balancing { LEAST_OUTSTANDING, EWMA }
+
+    /**
+     * How much each new latency sample counts towards the EWMA.
+     */
+    private static final double EWMA_WEIGHT = 0.3;
+    private static final int MAX_EJECTION_MULTIPLIER = 16;
+
+    private final String name;
+    private final List<Endpoint<S>> endpoints;
+    private final Balancing balancing;
+    private final int ejectAfterFailures;
+    private final long ejectMillis;
+    private final Function<S, CompletableFuture<?>> healthCheck;
+
+    private final AtomicInteger nextStart = new AtomicInteger();
+    private final long createdAt = System.nanoTime();
+
+    /**
+     * @param endpoints The services to balance across, by name (e.g. their URL)
+     * @param healthCheck Some cheap call which only succeeds if the endpoint's up
+     */
+    public ProviderPool(String name, Map<String, S> endpoints, Balancing balancing, int ejectAfterFailures, long ejectMillis, Function<S, CompletableFuture<?>> healthCheck) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("The " + name + " pool needs at least one endpoint");
+        }
+
+        this.name = name;
+        this.endpoints = endpoints.entrySet().stream().map(e -> new Endpoint<>(e.getKey(), e.getValue())).toList();
+        this.balancing = balancing;
+        this.ejectAfterFailures = ejectAfterFailures;
+        this.ejectMillis = ejectMillis;
+        this.healthCheck = healthCheck;
+    }
+
+    /**
+     * A pool configured w/ <code>POOL_BALANCING</code>, <code>POOL_EJECT_AFTER_FAILURES</code> & <code>POOL_EJECT_MS</code>.
+     */
+    public static <S> ProviderPool<S> fromEnv(String name, Map<String, S> endpoints, Function<S, CompletableFuture<?>> healthCheck) {
+        return new ProviderPool<>(
+            name,
+            endpoints,
+            Balancing.valueOf(System.getenv().getOrDefault("POOL_BALANCING", "least_outstanding").toUpperCase().replace('-', '_')),
+            Integer.parseInt(System.getenv().getOrDefault("POOL_EJECT_AFTER_FAILURES", "3")),
+            Long.parseLong(System.getenv().getOrDefault("POOL_EJECT_MS", "10000")),
+            healthCheck
+        );
+    }
+
+    private static final class Endpoint<S> {
+        private final String name;
+        private final S service;
+
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong failovers = new AtomicLong();
+        private final LatencyRecorder latency = new LatencyRecorder();
+
+        // Guarded by the endpoint itself
+        private double ewmaMillis = 0;
+        private int consecutiveFailures = 0;
+        private int ejections = 0;
+        private long ejectedUntil = 0;
+        private boolean ejected = false;
+
+        private Endpoint(String name, S service) {
+            this.name = name;
+            this.service = service;
+        }
+    }
+
+    public List<S> services() {
+        return endpoints.stream().map(e -> e.service).toList();
+    }
+
+    public <T> CompletableFuture<T> call(Function<S, CompletableFuture<T>> fn) {
+        return call(fn, () -> true);
+    }
+
+    /**
+     * Cancelling the returned future cancels whichever attempt's in flight.
+     *
+     * @param canFailover Whether it's still safe to retry the call on another endpoint after it's failed
+     */
+    public <T> CompletableFuture<T> call(Function<S, CompletableFuture<T>> fn, BooleanSupplier canFailover) {
+        var result = new CompletableFuture<T>();
+        attempt(fn, canFailover, result, new HashSet<>());
+        return result;
+    }
+
+    private <T> void attempt(Function<S, CompletableFuture<T>> fn, BooleanSupplier canFailover, CompletableFuture<T> result, Set<Endpoint<S>> tried) {
+        var endpoint = pick(tried);
+        tried.add(endpoint);
+
+        endpoint.outstanding.incrementAndGet();
+        endpoint.requests.incrementAndGet();
+        var start = System.nanoTime();
+
+        CompletableFuture<T> future;
+
+        try {
+            future = fn.apply(endpoint.service);
+        } catch (Exception e) {
+            future = failedFuture(e);
+        }
+
+        var call = future;
+        result.whenComplete((r, e) -> call.cancel(true));
+
+        call.whenComplete((response, e) -> {
+            endpoint.outstanding.decrementAndGet();
+
+            if (e == null) {
+                succeeded(endpoint, start);
+                result.complete(response);
+                return;
+            }
+
+            if (result.isDone() || isCancellation(e)) {
+                return;
+            }
+
+            failed(endpoint, e);
+
+            if (tried.size() < endpoints.size() && canFailover.getAsBoolean()) {
+                endpoint.failovers.incrementAndGet();
+                attempt(fn, canFailover, result, tried);
+            } else {
+                result.completeExceptionally(e);
+            }
+        });
+    }
+
+    /**
+     * The best endpoint which hasn't been tried yet, preferring healthy ones.
+     */
+    private Endpoint<S> pick(Set<Endpoint<S>> tried) {
+        var offset = Math.floorMod(nextStart.getAndIncrement(), endpoints.size());
+
+        Endpoint<S> best = null;
+        var bestScore = Double.MAX_VALUE;
+        Endpoint<S> soonestBack = null;
+
+        for (int i = 0; i < endpoints.size(); i++) {
+            var endpoint = endpoints.get((offset + i) % endpoints.size());
+
+            if (tried.contains(endpoint)) {
+                continue;
+            }
+
+            synchronized (endpoint) {
+                if (endpoint.ejected) {
+                    if (soonestBack == null || endpoint.ejectedUntil - soonestBack.ejectedUntil < 0) {
+                        soonestBack = endpoint;
+                    }
+                    continue;
+                }
+            }
+
+            var score = score(endpoint);
+
+            if (score < bestScore) {
+                best = endpoint;
+                bestScore = score;
+            }
+        }
+
+        return (best != null) ? best : soonestBack;
+    }
+
+    private double score(Endpoint<S> endpoint) {
+        var outstanding = endpoint.outstanding.get();
+
+        return switch (balancing) {
+            case LEAST_OUTSTANDING -> outstanding;
+            case EWMA -> {
+                synchronized (endpoint) {
+                    yield (endpoint.ewmaMillis + 1) * (outstanding + 1);
+                }
+            }
+        };
+    }
+
+    private void succeeded(Endpoint<S> endpoint, long startNanos) {
+        var millis = (System.nanoTime() - startNanos) / 1_000_000.0;
+        endpoint.latency.record((long) millis);
+
+        synchronized (endpoint) {
+            endpoint.ewmaMillis = (endpoint.ewmaMillis == 0) ? millis : endpoint.ewmaMillis + EWMA_WEIGHT * (millis - endpoint.ewmaMillis);
+            endpoint.consecutiveFailures = 0;
+            endpoint.ejections = 0;
+        }
+    }
+
+    private void failed(Endpoint<S> endpoint, Throwable e) {
+        endpoint.errors.incrementAndGet();
+
+        synchronized (endpoint) {
+            endpoint.consecutiveFailures++;
+
+            if (endpoint.ejected || endpoint.consecutiveFailures < ejectAfterFailures) {
+                return;
+            }
+            eject(endpoint, endpoint.consecutiveFailures + " failures in a row, the last being " + e);
+        }
+    }
+
+    private void eject(Endpoint<S> endpoint, String reason) {
+        long duration;
+
+        synchronized (endpoint) {
+            endpoint.ejections++;
+            duration = ejectMillis * min(MAX_EJECTION_MULTIPLIER, 1L << min(endpoint.ejections - 1, 30));
+
+            endpoint.ejected = true;
+            endpoint.ejectedUntil = System.nanoTime() + duration * 1_000_000;
+        }
+
+        err("[%s pool] Ejecting %s for %dms after %s".formatted(name, endpoint.name, duration, reason));
+        delayedExecutor(duration, MILLISECONDS, IOExecutor.get()).execute(() -> checkHealth(endpoint));
+    }
+
+    private void checkHealth(Endpoint<S> endpoint) {
+        CompletableFuture<?> check;
+
+        try {
+            check = healthCheck.apply(endpoint.service).orTimeout(ejectMillis, MILLISECONDS);
+        } catch (Exception e) {
+            check = failedFuture(e);
+        }
+
+        check.whenComplete((r, e) -> {
+            if (e != null) {
+                eject(endpoint, "failing its health check (" + e + ")");
+                return;
+            }
+
+            synchronized (endpoint) {
+                endpoint.ejected = false;
+                endpoint.consecutiveFailures = 0;
+            }
+            log("[%s pool] %s passed its health check, putting it back".formatted(name, endpoint.name));
+        });
+    }
+
+    private static boolean isCancellation(Throwable e) {
+        return e instanceof CancellationException || e instanceof CompletionException && e.getCause() instanceof CancellationException;
+    }
+
+    public String stats() {
+        var seconds = Math.max(1e-9, (System.nanoTime() - createdAt) / 1e9);
+        var lines = new ArrayList<String>();
+
+        lines.add("%s pool (%s, %d endpoints):".formatted(name, balancing.name().toLowerCase(), endpoints.size()));
+
+        for (var endpoint : endpoints) {
+            synchronized (endpoint) {
+                lines.add("   - %s [%s]: %d requests (%.2f/s), %d errors, %d failed over, %d in flight, %.0fms ewma, %s".formatted(
+                    endpoint.name, (endpoint.ejected) ? "ejected" : "healthy",
+                    endpoint.requests.get(), endpoint.requests.get() / seconds, endpoint.errors.get(), endpoint.failovers.get(),
+                    endpoint.outstanding.get(), endpoint.ewmaMillis, endpoint.latency.summary()
+                ));
+            }
+        }
+
+        return String.join("\n", lines);
+    }
+}
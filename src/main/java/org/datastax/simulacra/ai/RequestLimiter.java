@@ -0,0 +1,239 @@
+package org.datastax.simulacra.ai;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.datastax.simulacra.logging.HomemadeLogger.log;
+
+/**
+ * Client-side limiter for requests to some rate-limited API, so a burst of agents queues up here instead of
+ * all getting 429'd at once.
+ * <ul>
+ *     <li>An AIMD concurrency limit: it creeps up by about one per round trip while requests succeed, and halves
+ *     (at most once per round trip) when they're throttled or time out</li>
+ *     <li>Token buckets for requests & tokens per minute, each holding ~10s worth, w/ the caller estimating the
+ *     tokens a request will use. A limit of 0 disables the bucket.</li>
+ *     <li>A pause for everything when the server says to back off (i.e. <code>Retry-After</code>)</li>
+ * </ul>
+ * Requests are let through in FIFO order. Changes to the limit are logged, and {@link #stats()} has the rest.
+ */
+public class RequestLimiter {
+    public enum Outcome { SUCCESS, THROTTLED, FAILED }
+
+    private final String name;
+    private final double maxLimit;
+    private final TokenBucket requestBucket;
+    private final TokenBucket tokenBucket;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+        Thread.ofPlatform().name("request-limiter").daemon().factory()
+    );
+
+    private final Deque<Waiter> queue = new ArrayDeque<>();
+    private ScheduledFuture<?> wakeup;
+    private long wakeupAt;
+
+    private double limit;
+    private int inFlight = 0;
+    private long lastDecreaseAt = System.nanoTime();
+    private long pausedUntil = System.nanoTime();
+
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong queuedNanos = new AtomicLong();
+    private volatile int maxQueueDepth = 0;
+
+    public RequestLimiter(String name, int initialLimit, int maxLimit, int requestsPerMinute, int tokensPerMinute) {
+        this.name = name;
+        this.limit = initialLimit;
+        this.maxLimit = maxLimit;
+        this.requestBucket = TokenBucket.perMinute(requestsPerMinute);
+        this.tokenBucket = TokenBucket.perMinute(tokensPerMinute);
+    }
+
+    private record Waiter(CompletableFuture<Permit> future, int tokens, long queuedAt) {}
+
+    /**
+     * Completes once the request is allowed to go through. The permit must be released w/ how it went.
+     * Cancelling the future before then gives up the spot in the queue.
+     */
+    public CompletableFuture<Permit> acquire(int estimatedTokens) {
+        var future = new CompletableFuture<Permit>();
+
+        synchronized (this) {
+            queue.add(new Waiter(future, estimatedTokens, System.nanoTime()));
+            maxQueueDepth = max(maxQueueDepth, queue.size());
+        }
+
+        drain();
+        return future;
+    }
+
+    /**
+     * Holds off on letting anything else through for the given duration.
+     */
+    public void pause(Duration duration) {
+        synchronized (this) {
+            pausedUntil = max(pausedUntil, System.nanoTime() + duration.toNanos());
+        }
+        log("[%s] Pausing requests for %dms".formatted(name, duration.toMillis()));
+    }
+
+    /**
+     * The current concurrency limit.
+     */
+    public synchronized double limit() {
+        return limit;
+    }
+
+    public synchronized String stats() {
+        var numAcquired = acquired.get();
+
+        return "%s limiter: limit %.1f, %d in flight, %d queued (max %d), %d requests (%d throttled), %.1fms avg queue time".formatted(
+            name, limit, inFlight, queue.size(), maxQueueDepth, numAcquired, throttled.get(),
+            (numAcquired == 0) ? 0.0 : queuedNanos.get() / 1e6 / numAcquired
+        );
+    }
+
+    public final class Permit {
+        private final long acquiredAt = System.nanoTime();
+        private boolean released = false;
+
+        public void release(Outcome outcome) {
+            synchronized (RequestLimiter.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                inFlight--;
+
+                var before = (int) limit;
+
+                switch (outcome) {
+                    case SUCCESS -> limit = min(maxLimit, limit + 1 / limit);
+                    case THROTTLED -> {
+                        throttled.incrementAndGet();
+
+                        // Only back off once per round trip, otherwise a burst of 429s from requests which were
+                        // all sent at the old limit would each halve it
+                        if (acquiredAt > lastDecreaseAt) {
+                            limit = max(1, limit / 2);
+                            lastDecreaseAt = System.nanoTime();
+                        }
+                    }
+                    case FAILED -> {}
+                }
+
+                if ((int) limit != before) {
+                    log("[%s] Concurrency limit %d -> %d (%d in flight, %d queued)".formatted(name, before, (int) limit, inFlight, queue.size()));
+                }
+            }
+            drain();
+        }
+    }
+
+    private void drain() {
+        var ready = new ArrayList<Waiter>();
+        var permits = new ArrayList<Permit>();
+
+        synchronized (this) {
+            var now = System.nanoTime();
+
+            while (!queue.isEmpty() && inFlight < (int) limit) {
+                var head = queue.peek();
+
+                if (head.future.isDone()) {
+                    queue.poll();
+                    continue;
+                }
+
+                var waitNanos = max(pausedUntil - now, max(requestBucket.waitNanos(1, now), tokenBucket.waitNanos(head.tokens, now)));
+
+                if (waitNanos > 0) {
+                    scheduleWakeup(now, waitNanos);
+                    break;
+                }
+
+                queue.poll();
+                requestBucket.take(1, now);
+                tokenBucket.take(head.tokens, now);
+                inFlight++;
+
+                acquired.incrementAndGet();
+                queuedNanos.addAndGet(now - head.queuedAt);
+
+                ready.add(head);
+                permits.add(new Permit());
+            }
+        }
+
+        for (int i = 0; i < ready.size(); i++) {
+            if (!ready.get(i).future.complete(permits.get(i))) {
+                permits.get(i).release(Outcome.FAILED);
+            }
+        }
+    }
+
+    private void scheduleWakeup(long now, long waitNanos) {
+        if (wakeup != null && !wakeup.isDone() && wakeupAt <= now + waitNanos) {
+            return;
+        }
+
+        if (wakeup != null) {
+            wakeup.cancel(false);
+        }
+
+        wakeupAt = now + waitNanos;
+        wakeup = scheduler.schedule(this::drain, waitNanos, NANOSECONDS);
+    }
+
+    /**
+     * Not thread-safe on its own, guarded by the limiter's lock.
+     */
+    private static final class TokenBucket {
+        private final double capacity;
+        private final double perNano;
+        private double available;
+        private long updatedAt = System.nanoTime();
+
+        private TokenBucket(double capacity, double perNano) {
+            this.capacity = capacity;
+            this.perNano = perNano;
+            this.available = capacity;
+        }
+
+        private static TokenBucket perMinute(int perMinute) {
+            return (perMinute <= 0)
+                ? new TokenBucket(Double.POSITIVE_INFINITY, 0)
+                : new TokenBucket(max(1, perMinute / 6.0), perMinute / 60e9);
+        }
+
+        private long waitNanos(int amount, long now) {
+            refill(now);
+
+            // A single request bigger than the whole bucket just waits for a full one
+            var missing = min(amount, capacity) - available;
+            return (missing <= 0) ? 0 : (long) Math.ceil(missing / perNano);
+        }
+
+        private void take(int amount, long now) {
+            refill(now);
+            available -= min(amount, capacity);
+        }
+
+        private void refill(long now) {
+            available = min(capacity, available + (now - updatedAt) * perNano);
+            updatedAt = now;
+        }
+    }
+}
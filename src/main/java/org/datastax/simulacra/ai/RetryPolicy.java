@@ -0,0 +1,110 @@
+package org.datastax.simulacra.ai;
+
+import com.theokanning.openai.OpenAiHttpException;
+import retrofit2.HttpException;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.lang.Math.min;
+
+/**
+ * Jittered exponential backoff for calls to the OpenAI API, honoring the server's <code>Retry-After</code>
+ * (or <code>retry-after-ms</code>) if it sends one.
+ * <p>
+ * Only rate limits, server errors, and network errors/timeouts are retried; there's no point retrying a bad
+ * request or running out of quota.
+ */
+public record RetryPolicy(int maxRetries, Duration baseDelay, Duration maxDelay) {
+    /**
+     * How long to wait before the given retry (starting at 0), or nothing if it shouldn't be retried.
+     */
+    public Optional<Duration> delay(int retry, Throwable e) {
+        if (retry >= maxRetries || !isRetryable(e)) {
+            return Optional.empty();
+        }
+
+        var retryAfter = retryAfter(e);
+
+        if (retryAfter.isPresent()) {
+            return retryAfter;
+        }
+
+        // Jittered between half and all of the exponential delay, so a burst of failed requests doesn't retry in lockstep
+        var cap = min(maxDelay.toMillis(), baseDelay.toMillis() << min(retry, 20));
+        return Optional.of(Duration.ofMillis(ThreadLocalRandom.current().nextLong(cap / 2, cap + 1)));
+    }
+
+    /**
+     * Whether the failure means the server is overloaded/rate limiting us, as opposed to just failing.
+     */
+    public static boolean isThrottle(Throwable e) {
+        var status = statusCode(e);
+        return status == 429 || status == 503 || find(e, SocketTimeoutException.class) != null;
+    }
+
+    public static Optional<Duration> retryAfter(Throwable e) {
+        var httpException = httpException(e);
+
+        if (httpException == null || httpException.response() == null) {
+            return Optional.empty();
+        }
+
+        var headers = httpException.response().headers();
+
+        try {
+            var millis = headers.get("retry-after-ms");
+
+            if (millis != null) {
+                return Optional.of(Duration.ofMillis((long) Double.parseDouble(millis)));
+            }
+
+            var seconds = headers.get("Retry-After");
+
+            if (seconds != null) {
+                return Optional.of(Duration.ofMillis((long) (Double.parseDouble(seconds) * 1000)));
+            }
+        } catch (NumberFormatException ignored) {
+            // Could be an HTTP date, which OpenAI doesn't send, so just fall back to the backoff
+        }
+        return Optional.empty();
+    }
+
+    private static boolean isRetryable(Throwable e) {
+        var openAiException = find(e, OpenAiHttpException.class);
+
+        if (openAiException != null && "insufficient_quota".equals(openAiException.code)) {
+            return false;
+        }
+
+        var status = statusCode(e);
+        return status == 429 || status >= 500 || (status == -1 && find(e, IOException.class) != null);
+    }
+
+    private static int statusCode(Throwable e) {
+        var openAiException = find(e, OpenAiHttpException.class);
+
+        if (openAiException != null) {
+            return openAiException.statusCode;
+        }
+
+        var httpException = httpException(e);
+        return (httpException != null) ? httpException.code() : -1;
+    }
+
+    private static HttpException httpException(Throwable e) {
+        return find(e, HttpException.class);
+    }
+
+    private static <T extends Throwable> T find(Throwable e, Class<T> clazz) {
+        for (var cause = e; cause != null; cause = (cause.getCause() == cause) ? null : cause.getCause()) {
+            if (clazz.isInstance(cause)) {
+                return clazz.cast(cause);
+            }
+        }
+        return null;
+    }
+}
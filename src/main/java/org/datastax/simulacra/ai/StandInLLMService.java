@@ -0,0 +1,387 @@
+package org.datastax.simulacra.ai;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+import java.lang.reflect.RecordComponent;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import static com.theokanning.openai.service.OpenAiService.defaultObjectMapper;
+import static java.lang.Double.parseDouble;
+import static java.lang.Integer.parseInt;
+import static java.lang.Long.parseLong;
+import static java.util.concurrent.CompletableFuture.delayedExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.datastax.simulacra.utils.Utils.compactText;
+import static org.datastax.simulacra.utils.Utils.map;
+
+/**
+ * Deterministic, in-process stand-in for the LLM (and optionally the embedding service), for load testing the
+ * simulation w/o spending any tokens, and as a baseline for how much of a tick is the engine itself vs. the model.
+ * Selected w/ <code>LLM_PROVIDER=stand-in</code> (and <code>EMBED_PROVIDER=stand-in</code>).
+ * <p>
+ * Responses only depend on the prompt (and <code>STAND_IN_SEED</code>):
+ * <ul>
+ *     <li>Function calls are generated from the same JSON schema that'd be sent to OpenAI, so they're always valid.
+ *     Required fields are always filled in, and optional ones <code>STAND_IN_OPTIONAL_RATE</code> of the time
+ *     (all of them by default, like the model does in practice; turn it down to shake out missing null checks).
+ *     <code>&#64;EnumType</code> fields are picked from their providers, strings are filled in from a template,
+ *     and numbers are between 1 and 10.</li>
+ *     <li>Chat responses are matched against a few templates (e.g. daily plans come back as one line per hour),
+ *     falling back to echoing the start of the prompt.</li>
+ *     <li>Embeddings are random unit vectors seeded from the text.</li>
+ * </ul>
+ * Latency (<code>STAND_IN_LATENCY</code>, <code>STAND_IN_EMBED_LATENCY</code>) and failures
+ * (<code>STAND_IN_ERROR_RATE</code>) are random per call, like the real thing, from a seeded generator.
+ */
+public class StandInLLMService implements ChatService, FunctionService, EmbeddingService {
+    public static final String MODEL = "stand-in";
+
+    public static final StandInLLMService DEFAULT = new StandInLLMService(
+        Latency.parse(System.getenv().getOrDefault("STAND_IN_LATENCY", "lognormal:800:0.5")),
+        Latency.parse(System.getenv().getOrDefault("STAND_IN_EMBED_LATENCY", "fixed:10")),
+        parseDouble(System.getenv().getOrDefault("STAND_IN_ERROR_RATE", "0")),
+        parseDouble(System.getenv().getOrDefault("STAND_IN_OPTIONAL_RATE", "1")),
+        parseLong(System.getenv().getOrDefault("STAND_IN_SEED", "0")),
+        parseInt(System.getenv().getOrDefault("STAND_IN_EMBED_DIMS", "768"))
+    );
+
+    private static final Collection<?>[] NO_PROVIDERS = new Collection<?>[0];
+
+    private static final List<String> ACTIVITIES = List.of(
+        "Work on the day's main tasks", "Have a meal", "Take a walk around the neighborhood", "Read for a while",
+        "Tidy up the house", "Run some errands", "Relax and listen to music", "Catch up on messages"
+    );
+
+    /**
+     * Prompts the chat responses are templated on, in order of precedence.
+     */
+    private final List<ChatTemplate> chatTemplates = List.of(
+        new ChatTemplate(Pattern.compile("Format example `8am\\)"), this::dailyPlan)
+    );
+
+    private record ChatTemplate(Pattern pattern, Function<Random, String> respond) {}
+
+    private final Latency latency;
+    private final Latency embedLatency;
+    private final double errorRate;
+    private final double optionalRate;
+    private final long seed;
+    private final int embedDims;
+
+    private final ObjectMapper mapper = defaultObjectMapper();
+    private final Map<Class<?>, FunctionSchema> schemas = new ConcurrentHashMap<>();
+    private final Random timing;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong totalLatencyMs = new AtomicLong();
+
+    public StandInLLMService(Latency latency, Latency embedLatency, double errorRate, double optionalRate, long seed, int embedDims) {
+        this.latency = latency;
+        this.embedLatency = embedLatency;
+        this.errorRate = errorRate;
+        this.optionalRate = optionalRate;
+        this.seed = seed;
+        this.embedDims = embedDims;
+        this.timing = new Random(seed);
+    }
+
+    public long seed() {
+        return seed;
+    }
+
+    public int embedDims() {
+        return embedDims;
+    }
+
+    /**
+     * How long a call takes, in milliseconds.
+     */
+    public sealed interface Latency {
+        long sample(Random random);
+
+        record Fixed(long millis) implements Latency {
+            public long sample(Random random) {
+                return millis;
+            }
+        }
+
+        record LogNormal(double medianMillis, double sigma) implements Latency {
+            public long sample(Random random) {
+                return (long) (medianMillis * Math.exp(sigma * random.nextGaussian()));
+            }
+        }
+
+        /**
+         * Mostly fast, but sometimes slow, like a provider w/ the occasional overloaded replica.
+         */
+        record Bimodal(long fastMillis, long slowMillis, double slowFraction) implements Latency {
+            public long sample(Random random) {
+                return (random.nextDouble() < slowFraction) ? slowMillis : fastMillis;
+            }
+        }
+
+        /**
+         * <code>fixed:ms</code>, <code>lognormal:median ms:sigma</code>, or <code>bimodal:fast ms:slow ms:slow fraction</code>
+         */
+        static Latency parse(String spec) {
+            var parts = spec.split(":");
+
+            return switch (parts[0].toLowerCase()) {
+                case "fixed" -> new Fixed(parseLong(parts[1]));
+                case "lognormal" -> new LogNormal(parseDouble(parts[1]), parseDouble(parts[2]));
+                case "bimodal" -> new Bimodal(parseLong(parts[1]), parseLong(parts[2]), parseDouble(parts[3]));
+                default -> throw new IllegalArgumentException("Unknown latency distribution: " + spec);
+            };
+        }
+    }
+
+    @Override
+    public CompletableFuture<String> query(String prompt) {
+        var random = randomFor(prompt, "");
+
+        var response = chatTemplates.stream()
+            .filter(template -> template.pattern.matcher(prompt).find())
+            .findFirst()
+            .map(template -> template.respond.apply(random))
+            .orElseGet(() -> "Stand-in response to: " + compactText(prompt).substring(0, Math.min(compactText(prompt).length(), 80)));
+
+        return respond(latency, () -> response);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> query(String prompt, Class<T> response, Collection<?>... providers) {
+        T result = generate(prompt, response, providers);
+        return respond(latency, () -> result);
+    }
+
+    /**
+     * The same responses as querying each prompt on its own, but all in one call.
+     */
+    @Override
+    public <T> CompletableFuture<Map<String, T>> queryBatch(String preamble, Map<String, BatchPrompt> prompts, Class<T> response) {
+        var results = new LinkedHashMap<String, T>();
+        prompts.forEach((key, prompt) -> results.put(key, generate(prompt.prompt(), response, prompt.providers())));
+        return respond(latency, () -> results);
+    }
+
+    private <T> T generate(String prompt, Class<T> response, Collection<?>... providers) {
+        var schema = schemas.computeIfAbsent(response, this::schemaOf);
+        var random = randomFor(prompt, response.getName());
+        var arguments = (ObjectNode) generate(schema.parameters, schema.parameters, "", random);
+
+        for (int i = 0; i < schema.enumFields.size() && i < providers.length; i++) {
+            var field = schema.enumFields.get(i);
+
+            if (arguments.has(field)) {
+                arguments.set(field, pickEnum(schema.parameters.path("properties").path(field), providers[i], random));
+            }
+        }
+
+        return schema.template.parse(TextNode.valueOf(arguments.toString()), mapper);
+    }
+
+    @Override
+    public CompletableFuture<float[]> embed(String text) {
+        return respond(embedLatency, () -> embedding(compactText(text), embedDims));
+    }
+
+    @Override
+    public CompletableFuture<List<float[]>> embed(List<String> text) {
+        return respond(embedLatency, () -> map(text, t -> embedding(compactText(t), embedDims)));
+    }
+
+    public String stats() {
+        var numCalls = calls.get();
+
+        return "Stand-in LLM: %d calls (%d failed), %.1fms avg injected latency".formatted(
+            numCalls, errors.get(), (numCalls == 0) ? 0.0 : (double) totalLatencyMs.get() / numCalls
+        );
+    }
+
+    /**
+     * A random unit vector, seeded from the text, so the same text always gets the same embedding.
+     */
+    public static float[] embedding(String text, int dims) {
+        var random = new Random(text.hashCode());
+        var embedding = new float[dims];
+        var norm = 0.0;
+
+        for (int i = 0; i < dims; i++) {
+            embedding[i] = (float) random.nextGaussian();
+            norm += embedding[i] * embedding[i];
+        }
+
+        var length = (float) Math.sqrt(norm);
+
+        for (int i = 0; i < dims; i++) {
+            embedding[i] /= length;
+        }
+        return embedding;
+    }
+
+    private <T> CompletableFuture<T> respond(Latency latency, Supplier<T> response) {
+        long delay;
+        boolean fail;
+
+        synchronized (timing) {
+            delay = Math.max(0, latency.sample(timing));
+            fail = timing.nextDouble() < errorRate;
+        }
+
+        calls.incrementAndGet();
+        totalLatencyMs.addAndGet(delay);
+
+        var future = new CompletableFuture<T>();
+
+        delayedExecutor(delay, MILLISECONDS, IOExecutor.get()).execute(() -> {
+            if (fail) {
+                errors.incrementAndGet();
+                future.completeExceptionally(new RuntimeException("Stand-in LLM failure (injected)"));
+            } else {
+                future.complete(response.get());
+            }
+        });
+
+        return future;
+    }
+
+    private Random randomFor(String prompt, String salt) {
+        return new Random(seed * 31 + (compactText(prompt) + salt).hashCode());
+    }
+
+    /**
+     * One line per waking hour, in the <code>H:00) Activity</code> format the plan parser expects.
+     */
+    private String dailyPlan(Random random) {
+        var wake = 6 + random.nextInt(3);
+        var sleep = 21 + random.nextInt(3);
+
+        var lines = new ArrayList<String>();
+        lines.add(wake + ":00) Wake up and do morning routine");
+
+        for (int hour = wake + 1; hour < sleep; hour++) {
+            lines.add(hour + ":00) " + ACTIVITIES.get(random.nextInt(ACTIVITIES.size())));
+        }
+
+        lines.add(sleep + ":00) Get ready for bed");
+        return String.join("\n", lines);
+    }
+
+    private record FunctionSchema(FunctionTemplate template, JsonNode parameters, List<String> enumFields) {}
+
+    private FunctionSchema schemaOf(Class<?> clazz) {
+        var template = FunctionTemplate.compile(clazz, MODEL, mapper);
+
+        try {
+            var parameters = mapper.readTree(template.render("", NO_PROVIDERS)).at("/functions/0/parameters");
+
+            var enumFields = Arrays.stream(clazz.getRecordComponents())
+                .filter(f -> f.getAnnotation(EnumType.class) != null)
+                .map(RecordComponent::getName)
+                .toList();
+
+            return new FunctionSchema(template, parameters, enumFields);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Some value which satisfies the (draft 4) JSON schema, or null if there's nothing sensible to put there
+     * (i.e. a map, since the records' schemas don't always line up w/ their creators, e.g. <code>SubArea</code>'s
+     * items). Optional fields of the response itself are only sometimes filled in, but nested objects always are.
+     */
+    private JsonNode generate(JsonNode root, JsonNode schema, String name, Random random) {
+        var nodes = JsonNodeFactory.instance;
+
+        if (schema.has("$ref")) {
+            return generate(root, root.at(schema.get("$ref").asText().substring(1)), name, random);
+        }
+
+        if (schema.has("enum")) {
+            return schema.get("enum").get(random.nextInt(schema.get("enum").size()));
+        }
+
+        return switch (typeOf(schema)) {
+            case "object" -> {
+                if (!schema.has("properties")) {
+                    yield null;
+                }
+
+                var object = nodes.objectNode();
+                var required = new HashSet<String>();
+                schema.path("required").forEach(field -> required.add(field.asText()));
+
+                schema.path("properties").fields().forEachRemaining(field -> {
+                    if (schema != root || required.contains(field.getKey()) || random.nextDouble() < optionalRate) {
+                        var value = generate(root, field.getValue(), field.getKey(), random);
+
+                        if (value != null) {
+                            object.set(field.getKey(), value);
+                        }
+                    }
+                });
+                yield object;
+            }
+            case "array" -> {
+                var array = nodes.arrayNode();
+
+                for (int i = 0, n = 1 + random.nextInt(3); i < n; i++) {
+                    var item = generate(root, schema.path("items"), name, random);
+
+                    if (item != null) {
+                        array.add(item);
+                    }
+                }
+                yield array;
+            }
+            case "integer" -> nodes.numberNode(1 + random.nextInt(10));
+            case "number" -> nodes.numberNode(1 + random.nextInt(90) / 10.0);
+            case "boolean" -> nodes.booleanNode(random.nextBoolean());
+            default -> nodes.textNode(name + " #" + random.nextInt(1000));
+        };
+    }
+
+    private static String typeOf(JsonNode schema) {
+        var type = schema.path("type");
+        return (type.isArray()) ? type.get(0).asText() : type.asText();
+    }
+
+    /**
+     * One of the provider's values (or a couple, for a list), or null if there's nothing to pick from.
+     */
+    private JsonNode pickEnum(JsonNode schema, Collection<?> provider, Random random) {
+        var values = map(provider, String::valueOf);
+
+        if (values.isEmpty()) {
+            return JsonNodeFactory.instance.nullNode();
+        }
+
+        if (!typeOf(schema).equals("array")) {
+            return TextNode.valueOf(values.get(random.nextInt(values.size())));
+        }
+
+        ArrayNode array = JsonNodeFactory.instance.arrayNode();
+        random.ints(1 + random.nextInt(Math.min(2, values.size())), 0, values.size()).distinct().forEach(i -> array.add(values.get(i)));
+        return array;
+    }
+}
@@ -0,0 +1,99 @@
+package org.datastax.simulacra.ai;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.BiConsumer;
+
+import static org.datastax.simulacra.logging.HomemadeLogger.err;
+
+/**
+ * Incrementally parses a function call's arguments as they're streamed in, calling back w/ each top-level field as
+ * soon as its value's complete (so e.g. a string field fires once its closing quote arrives, not once the whole
+ * object does).
+ * <p>
+ * Runs on Jackson's non-blocking parser, so each fragment's only ever looked at once. If the arguments turn out to
+ * be malformed, it just stops calling back; the full text's still there for the usual parse to fail on.
+ */
+final class StreamingFieldParser {
+    private final ObjectMapper mapper;
+    private final BiConsumer<String, JsonNode> onField;
+    private final JsonParser parser;
+    private final StringBuilder text = new StringBuilder();
+
+    private int depth = 0;
+    private String field;
+    private TokenBuffer value;
+    private boolean failed = false;
+
+    StreamingFieldParser(ObjectMapper mapper, BiConsumer<String, JsonNode> onField) {
+        this.mapper = mapper;
+        this.onField = onField;
+
+        try {
+            this.parser = mapper.getFactory().createNonBlockingByteArrayParser();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    void feed(String fragment) {
+        text.append(fragment);
+
+        if (failed) {
+            return;
+        }
+
+        try {
+            var bytes = fragment.getBytes(StandardCharsets.UTF_8);
+            ((ByteArrayFeeder) parser.getNonBlockingInputFeeder()).feedInput(bytes, 0, bytes.length);
+
+            for (var token = parser.nextToken(); token != null && token != JsonToken.NOT_AVAILABLE; token = parser.nextToken()) {
+                handle(token);
+            }
+        } catch (IOException e) {
+            err("Couldn't parse streamed function arguments, waiting for the rest of them", e);
+            failed = true;
+        }
+    }
+
+    /**
+     * Everything that's been fed in so far.
+     */
+    String text() {
+        return text.toString();
+    }
+
+    private void handle(JsonToken token) throws IOException {
+        if (depth == 1 && token == JsonToken.FIELD_NAME) {
+            field = parser.currentName();
+            return;
+        }
+
+        if (depth == 1 && token != JsonToken.END_OBJECT) {
+            value = new TokenBuffer(mapper, false);
+        }
+
+        if (value != null) {
+            value.copyCurrentEvent(parser);
+        }
+
+        if (token.isStructStart()) {
+            depth++;
+        } else if (token.isStructEnd()) {
+            depth--;
+        }
+
+        if (depth == 1 && value != null) {
+            JsonNode node = mapper.readTree(value.asParser());
+            value = null;
+            onField.accept(field, node);
+        }
+    }
+}
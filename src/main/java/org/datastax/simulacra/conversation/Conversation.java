@@ -39,6 +39,8 @@ public class Conversation {
     }
 
     public static CompletableFuture<Conversation> start(Agent instigator, Agent target) {
+        target.wake(instigator.getName() + " starting a conversation");
+
         instigator.setInConversation(true);
         target.setInConversation(true);
 
@@ -69,13 +71,66 @@ public class Conversation {
             speaker == instigator ? target.getName() : instigator.getName()
         );
 
-        return FunctionService.getDefault().query(prompt, ConversationResponse.class).thenApply(response -> {
+        var turn = new Turn(speaker);
+
+        FunctionService.getDefault().queryStreaming(prompt, (field, value) -> {
+            switch (field) {
+                case "response" -> turn.respond(value.isNull() ? null : value.asText());
+                case "shouldEnd" -> turn.shouldEnd(value.asBoolean());
+            }
+        }, ConversationResponse.class).whenComplete((response, e) -> {
+            if (e != null) {
+                turn.future.completeExceptionally(e);
+                return;
+            }
+
             log(ANSI_BLUE, prelude.get());
             log(ANSI_PURPLE, response);
 
-            conversationHistory += "%s: %s\n".formatted(speaker.getName(), response.response);
-            return Boolean.TRUE.equals(response.shouldEnd);
+            turn.respond(response.response);
+            turn.shouldEnd(Boolean.TRUE.equals(response.shouldEnd));
         });
+
+        return turn.future;
+    }
+
+    /**
+     * One speaker's turn, as it's streamed in. The reply's added to the history as soon as it's complete, and the
+     * turn's over once it's known whether the conversation should end, w/o waiting on the rest of the response.
+     * The fields' callbacks all come in order from the one stream, before its future completes.
+     */
+    private final class Turn {
+        private final CompletableFuture<Boolean> future = new CompletableFuture<>();
+        private final Agent speaker;
+        private boolean responded = false;
+        private Boolean shouldEnd;
+
+        private Turn(Agent speaker) {
+            this.speaker = speaker;
+        }
+
+        private void respond(String response) {
+            if (responded) {
+                return;
+            }
+            responded = true;
+
+            conversationHistory += "%s: %s\n".formatted(speaker.getName(), response);
+            tryComplete();
+        }
+
+        private void shouldEnd(boolean shouldEnd) {
+            if (this.shouldEnd == null) {
+                this.shouldEnd = shouldEnd;
+            }
+            tryComplete();
+        }
+
+        private void tryComplete() {
+            if (responded && shouldEnd != null) {
+                future.complete(shouldEnd);
+            }
+        }
     }
 
     @FunctionResponse
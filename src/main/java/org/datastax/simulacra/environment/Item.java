@@ -1,7 +1,11 @@
 package org.datastax.simulacra.environment;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
 public class Item {
     @JsonProperty
     private String name;
@@ -9,6 +13,12 @@ public class Item {
     @JsonProperty
     private String status;
 
+    /**
+     * Bumped whenever the status actually changes, so agents can tell if there's anything new to observe.
+     */
+    @JsonIgnore
+    private final AtomicLong version = new AtomicLong();
+
     public String name() {
         return name;
     }
@@ -21,7 +31,14 @@ public class Item {
         this.name = name;
     }
 
+    public long version() {
+        return version.get();
+    }
+
     public void setStatus(String status) {
+        if (!Objects.equals(this.status, status)) {
+            version.incrementAndGet();
+        }
         this.status = status;
     }
 
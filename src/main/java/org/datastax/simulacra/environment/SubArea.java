@@ -8,6 +8,7 @@ import org.datastax.simulacra.agents.Agent;
 import org.datastax.simulacra.utils.Map2ValuesSerializer;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.util.stream.Collectors.toSet;
 import static org.datastax.simulacra.utils.Utils.*;
@@ -26,6 +27,12 @@ public class SubArea {
     @JsonIgnore
     private Area area;
 
+    /**
+     * Bumped whenever someone comes or goes.
+     */
+    @JsonIgnore
+    private final AtomicLong membershipVersion = new AtomicLong();
+
     public SubArea(String name, Map<String, Item> items, Map<String, Agent> agents) {
         this.name = name;
         this.items = items;
@@ -38,12 +45,32 @@ public class SubArea {
         return new SubArea(name, associateBy(items, i -> normalizeName(i.name())), new HashMap<>());
     }
 
+    /**
+     * Wakes up anyone asleep in here, since someone's walked in.
+     */
     public void register(Agent agent) {
+        wakeAll(agent.getName() + " coming into the " + name);
         agents.put(normalizeName(agent.getName()), agent);
+        membershipVersion.incrementAndGet();
     }
 
     public void unregister(Agent agent) {
         agents.remove(normalizeName(agent.getName()));
+        membershipVersion.incrementAndGet();
+    }
+
+    /**
+     * Everything an agent in here could observe, but boiled down to versions, so it's cheap to tell if anything's
+     * changed (e.g. an item's status, someone coming in, or someone else doing something else). The observer's own
+     * action's left out, since they already know what they're doing.
+     */
+    public record SceneVersion(SubArea subarea, long membership, long items, long actions) {}
+
+    public SceneVersion sceneVersion(Agent observer) {
+        var membership = membershipVersion.get();
+        var items = this.items.values().stream().mapToLong(Item::version).sum();
+        var actions = agents.values().stream().filter(a -> a != observer).mapToLong(Agent::actionVersion).sum();
+        return new SceneVersion(this, membership, items, actions);
     }
 
     public Item findItem(String name) {
@@ -53,17 +80,23 @@ public class SubArea {
     public void findAndUpdateItem(String name, String status) {
         var item = findItem(name);
 
-        if (item != null) {
+        if (item != null && !Objects.equals(item.status(), status)) {
             item.setStatus(status);
+            wakeAll("the " + item.name() + " becoming " + status);
         }
     }
 
+    private void wakeAll(String reason) {
+        agents.values().forEach(agent -> agent.wake(reason));
+    }
+
     public Set<String> itemNames() {
         return items.keySet();
     }
 
     public Set<String> agentNamesExcluding(String excluding) {
-        return agents.keySet().stream().filter(k -> !k.equals(excluding)).collect(toSet());
+        var normalized = normalizeName(excluding);
+        return agents.keySet().stream().filter(k -> !k.equals(normalized)).collect(toSet());
     }
 
     public String name() {
@@ -17,6 +17,29 @@ public class WorldMap {
         return areas.keySet();
     }
 
+    /**
+     * Every subarea in the world, as <code>area > subarea</code>.
+     */
+    public Set<String> destinations() {
+        var destinations = new TreeSet<String>();
+        areas.forEach((areaName, area) -> area.subareaNames().forEach(subareaName -> destinations.add(areaName + " > " + subareaName)));
+        return destinations;
+    }
+
+    /**
+     * The subarea for one of the {@link #destinations()}, or null if there's no such place.
+     */
+    public SubArea findDestination(String destination) {
+        var parts = destination.replace("\"", "").split(">", 2);
+
+        if (parts.length < 2) {
+            return null;
+        }
+
+        var area = findArea(parts[0]);
+        return (area != null) ? area.findSubarea(parts[1]) : null;
+    }
+
     public int areaCount() {
         return areas.size();
     }
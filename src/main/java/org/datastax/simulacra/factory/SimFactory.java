@@ -9,8 +9,11 @@ import org.datastax.simulacra.ai.FunctionService;
 import org.datastax.simulacra.environment.Area;
 import org.datastax.simulacra.environment.SubArea;
 import org.datastax.simulacra.environment.WorldMap;
+import org.datastax.simulacra.memorystream.ArrayMemoryStream;
 import org.datastax.simulacra.memorystream.AstraMemoryStream;
+import org.datastax.simulacra.memorystream.CachingMemoryStream;
 import org.datastax.simulacra.memorystream.MemoryEntity;
+import org.datastax.simulacra.memorystream.MemoryStream;
 import org.datastax.simulacra.memorystream.MemoryType;
 import org.datastax.simulacra.utils.Pair;
 
@@ -32,6 +35,26 @@ public class SimFactory {
     public static String AGENTS_CACHE_PATH = "simulacra/cache/agents.yaml";
     public static String ENVIRONMENT_CACHE_PATH = "simulacra/cache/environment.yaml";
 
+    /**
+     * Shared by every agent, as the memory streams are keyed by agent name anyway.
+     */
+    private static final MemoryStream memoryStream = memoryStream();
+
+    /**
+     * <code>MEMORY_STREAM=astra</code> (the default) for Astra w/ a cache in front of it (unless
+     * <code>MEMORY_CACHE=false</code>), or <code>array</code> to keep everything in memory w/ an HNSW index
+     * per agent (nothing's persisted).
+     */
+    private static MemoryStream memoryStream() {
+        var cached = Boolean.parseBoolean(System.getenv().getOrDefault("MEMORY_CACHE", "true"));
+
+        return switch (System.getenv().getOrDefault("MEMORY_STREAM", "astra").toLowerCase()) {
+            case "astra" -> (cached) ? new CachingMemoryStream(new AstraMemoryStream()) : new AstraMemoryStream();
+            case "array" -> new ArrayMemoryStream();
+            default -> throw new IllegalArgumentException("Unknown MEMORY_STREAM: " + System.getenv("MEMORY_STREAM"));
+        };
+    }
+
     public static void loadSimulation(int roughNumAgents) {
         WorldMap.GLOBAL.addAreas(areasFromYaml(CUSTOM_ENVIRONMENT_PATH));
         var agents = agentsFromYaml(CUSTOM_AGENTS_PATH);
@@ -294,14 +317,13 @@ public class SimFactory {
             MemoryEntity.from(dto.name(), 8, MemoryType.OBSERVATION, memory).join()
         )).toList();
 
-        var stream = new AstraMemoryStream();
-        stream.save(dto.name(), memories);
+        memoryStream.save(dto.name(), memories);
 
         var area = WorldMap.GLOBAL.findArea(dto.house());
         var subarea = area.findSubarea(dto.startSubArea());
 
         return new Agent(
-            dto.name(), dto.age(), dto.traits(), stream, subarea, dto.currentAction(), dto.circRhythm(), area
+            dto.name(), dto.age(), dto.traits(), memoryStream, subarea, dto.currentAction(), dto.circRhythm(), area
         );
     }
 
@@ -12,8 +12,6 @@ import static org.datastax.simulacra.utils.Utils.useWriter;
  * meh
  */
 public class HomemadeLogger {
-    private static final ActionRepository repository = new ActionRepository();
-
     public static final String ANSI_RESET  = "\u001B[0m";
     public static final String ANSI_GRAY   = "\u001B[37m";
     public static final String ANSI_PURPLE = "\u001B[35m";
@@ -25,6 +23,13 @@ public class HomemadeLogger {
     private static final PrintWriter logWriter = useWriter("simulacra/logs/_debug.log", false);
     private static final PrintWriter errWriter = useWriter("simulacra/logs/_error.log", true);
 
+    /**
+     * Only connects to Astra once there are actions to save, so logging alone doesn't need it.
+     */
+    private static final class Actions {
+        private static final ActionRepository repository = new ActionRepository();
+    }
+
     public static synchronized void log(String color, Object message) {
         logWriter.println(color + message + ANSI_RESET);
     }
@@ -59,7 +64,7 @@ public class HomemadeLogger {
     }
 
     public static void logActions(List<Agent> agents) {
-        repository.saveAll(map(agents, ActionEntity::from));
+        Actions.repository.saveAll(map(agents, ActionEntity::from));
     }
 
     public static void logAction(Agent agent) {
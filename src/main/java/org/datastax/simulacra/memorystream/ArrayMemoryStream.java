@@ -1,32 +1,70 @@
 package org.datastax.simulacra.memorystream;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
-import static java.lang.Math.min;
+import static java.lang.Integer.parseInt;
+import static java.lang.Math.max;
 import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.datastax.simulacra.logging.HomemadeLogger.log;
 import static org.datastax.simulacra.memorystream.MemoryUtils.calculateRelevanceAndSort;
 import static org.datastax.simulacra.memorystream.MemoryUtils.getEmbeddings;
+import static org.datastax.simulacra.utils.Utils.map;
 
+/**
+ * In-memory memory stream w/ an HNSW index per agent, so retrieval only has to rescore
+ * the approximate nearest neighbours of the query instead of every memory the agent has.
+ * <p>
+ * Setting <code>MEMORY_INDEX_SELF_CHECK=true</code> also runs an exact search next to every
+ * approximate one and logs the recall of the index.
+ */
 public class ArrayMemoryStream implements MemoryStream {
-    private final HashMap<String, List<MemoryEntity>> memories = new HashMap<>();
+    private static final int M = parseInt(System.getenv().getOrDefault("MEMORY_INDEX_M", "16"));
+    private static final int EF_CONSTRUCTION = parseInt(System.getenv().getOrDefault("MEMORY_INDEX_EF_CONSTRUCTION", "100"));
+    private static final int EF_SEARCH = parseInt(System.getenv().getOrDefault("MEMORY_INDEX_EF_SEARCH", "64"));
+    private static final boolean SELF_CHECK = Boolean.parseBoolean(System.getenv().getOrDefault("MEMORY_INDEX_SELF_CHECK", "false"));
+
+    private final Map<String, List<MemoryEntity>> memories = new ConcurrentHashMap<>();
+    private final Map<String, HnswIndex<MemoryEntity>> indexes = new ConcurrentHashMap<>();
 
     @Override
-    public void save(MemoryEntity memory) {
-        save(memory.agentName(), List.of(memory));
+    public CompletableFuture<Void> save(MemoryEntity memory) {
+        return save(memory.agentName(), List.of(memory));
     }
 
     @Override
-    public void save(String name, List<MemoryEntity> memories) {
-        this.memories.putIfAbsent(name, new ArrayList<>());
-        this.memories.get(name).addAll(memories);
+    public CompletableFuture<Void> save(String name, List<MemoryEntity> memories) {
+        var list = this.memories.computeIfAbsent(name, k -> new ArrayList<>());
+        var index = indexes.computeIfAbsent(name, k -> new HnswIndex<>(M, EF_CONSTRUCTION));
+
+        synchronized (list) {
+            list.addAll(memories);
+        }
+        memories.forEach(memory -> index.add(memory, memory.embedding()));
+        return completedFuture(null);
     }
 
     @Override
     public CompletableFuture<List<MemoryEntity>> getMostRecentMemories(String name, int limit) {
-        return completedFuture(memories.get(name).subList(0, min(limit, memories.size())));
+        var list = memories.getOrDefault(name, List.of());
+
+        synchronized (list) {
+            var recent = new ArrayList<>(list.subList(max(0, list.size() - limit), list.size()));
+            return completedFuture(recent.reversed());
+        }
+    }
+
+    @Override
+    public CompletableFuture<List<MemoryEntity>> getAllMemories(String name) {
+        var list = memories.getOrDefault(name, List.of());
+
+        synchronized (list) {
+            return completedFuture(new ArrayList<>(list));
+        }
     }
 
     @Override
@@ -36,6 +74,31 @@ public class ArrayMemoryStream implements MemoryStream {
 
     @Override
     public CompletableFuture<List<List<MemoryEntity>>> getMostRelevantMemories(String name, List<String> queries, int limit) {
-        return getEmbeddings(queries).thenApply(embeddings -> calculateRelevanceAndSort(memories.get(name), embeddings, limit));
+        return getEmbeddings(queries).thenApply(embeddings -> map(embeddings, embedding -> getMostRelevantMemories(name, embedding, limit)));
+    }
+
+    private List<MemoryEntity> getMostRelevantMemories(String name, float[] embedding, int limit) {
+        var index = indexes.get(name);
+
+        if (index == null) {
+            return List.of();
+        }
+
+        var candidates = index.search(embedding, max(limit, EF_SEARCH), EF_SEARCH);
+
+        if (SELF_CHECK) {
+            checkRecall(name, index, embedding, candidates);
+        }
+
+        return calculateRelevanceAndSort(candidates, embedding, limit);
+    }
+
+    private void checkRecall(String name, HnswIndex<MemoryEntity> index, float[] embedding, List<MemoryEntity> candidates) {
+        var exact = index.exactSearch(embedding, candidates.size());
+        var found = new HashSet<>(candidates);
+        var hits = exact.stream().filter(found::contains).count();
+        var recall = exact.isEmpty() ? 1 : (double) hits / exact.size();
+
+        log("HNSW recall for %s: %.3f (%d/%d of %d memories)".formatted(name, recall, hits, exact.size(), index.size()));
     }
 }
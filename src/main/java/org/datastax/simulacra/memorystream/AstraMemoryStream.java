@@ -1,22 +1,48 @@
 package org.datastax.simulacra.memorystream;
 
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static java.lang.Integer.parseInt;
 import static org.datastax.simulacra.memorystream.MemoryUtils.calculateRelevanceAndSort;
 import static org.datastax.simulacra.memorystream.MemoryUtils.getEmbeddings;
+import static org.datastax.simulacra.utils.Utils.allOf;
+import static org.datastax.simulacra.utils.Utils.map;
 
+/**
+ * Memory stream backed by Astra.
+ * <p>
+ * In <code>hybrid</code> mode (the default), relevance retrieval asks Astra for an over-fetched set of
+ * ANN candidates per query and only rescores those w/ recency and importance locally. Small partitions
+ * are still just read in full, as that's a single query no matter how many embeddings are being searched for.
+ * <p>
+ * <code>full</code> mode always reads the whole partition and scores it client-side.
+ */
 public class AstraMemoryStream implements MemoryStream {
+    private static final boolean HYBRID = !"full".equalsIgnoreCase(System.getenv().getOrDefault("ASTRA_RETRIEVAL_MODE", "hybrid"));
+    private static final int ANN_OVERFETCH = parseInt(System.getenv().getOrDefault("ASTRA_ANN_OVERFETCH", "4"));
+    private static final int FULL_SCAN_THRESHOLD = parseInt(System.getenv().getOrDefault("ASTRA_FULL_SCAN_THRESHOLD", "64"));
+
     private final MemoryRepository repository = new MemoryRepository();
 
+    /**
+     * Rows written per agent. The table's truncated on startup and this process is the only
+     * writer, so this is the exact partition size w/o having to ask Astra for it.
+     */
+    private final Map<String, AtomicInteger> partitionSizes = new ConcurrentHashMap<>();
+
     @Override
-    public void save(MemoryEntity memory) {
-        save(memory.agentName(), List.of(memory));
+    public CompletableFuture<Void> save(MemoryEntity memory) {
+        return save(memory.agentName(), List.of(memory));
     }
 
     @Override
-    public void save(String name, List<MemoryEntity> memories) {
-        repository.saveAll(memories);
+    public CompletableFuture<Void> save(String name, List<MemoryEntity> memories) {
+        partitionSizes.computeIfAbsent(name, k -> new AtomicInteger()).addAndGet(memories.size());
+        return repository.saveAll(memories);
     }
 
     @Override
@@ -24,16 +50,38 @@ public class AstraMemoryStream implements MemoryStream {
         return repository.getRecentMemories(name, limit);
     }
 
+    @Override
+    public CompletableFuture<List<MemoryEntity>> getAllMemories(String name) {
+        return repository.getAllMemories(name);
+    }
+
     @Override
     public CompletableFuture<List<MemoryEntity>> getMostRelevantMemories(String name, String query, int limit) {
         return getMostRelevantMemories(name, List.of(query), limit).thenApply(l -> l.get(0));
     }
 
+    @Override
+    public boolean isIndexed(String name) {
+        return HYBRID && partitionSizes.getOrDefault(name, new AtomicInteger()).get() > FULL_SCAN_THRESHOLD;
+    }
+
     @Override
     public CompletableFuture<List<List<MemoryEntity>>> getMostRelevantMemories(String name, List<String> queries, int limit) {
-        return repository.getAllMemories(name)
-            .thenCompose(memories ->
-                getEmbeddings(queries).thenApply(embeddings -> calculateRelevanceAndSort(memories, embeddings, limit))
-            );
+        if (!isIndexed(name)) {
+            return repository.getAllMemories(name)
+                .thenCompose(memories ->
+                    getEmbeddings(queries).thenApply(embeddings -> calculateRelevanceAndSort(memories, embeddings, limit))
+                );
+        }
+
+        return getEmbeddings(queries).thenCompose(embeddings ->
+            allOf(map(embeddings, embedding -> getMostRelevantMemories(name, embedding, limit)))
+        );
+    }
+
+    private CompletableFuture<List<MemoryEntity>> getMostRelevantMemories(String name, float[] embedding, int limit) {
+        return repository.getSimilarMemories(name, embedding, limit * ANN_OVERFETCH).thenApply(candidates ->
+            calculateRelevanceAndSort(candidates, embedding, limit)
+        );
     }
 }
@@ -0,0 +1,211 @@
+package org.datastax.simulacra.memorystream;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static java.lang.Integer.parseInt;
+import static java.lang.Long.parseLong;
+import static java.lang.Math.max;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.datastax.simulacra.logging.HomemadeLogger.log;
+import static org.datastax.simulacra.memorystream.MemoryUtils.calculateRelevanceAndSort;
+import static org.datastax.simulacra.memorystream.MemoryUtils.getEmbeddings;
+
+/**
+ * Write-through cache in front of some other (slower) memory stream, keeping each agent's whole working
+ * set in memory. Relies on this process being the only writer of each agent's memories.
+ * <p>
+ * Writes go to both the cache and the delegate. Agents are lazily loaded from the delegate on a miss
+ * (after waiting for any of their writes that are still in flight, so reads always see prior writes),
+ * and the least recently used agents are evicted once the cache holds more than
+ * <code>MEMORY_CACHE_MAX_AGENTS</code> agents or roughly <code>MEMORY_CACHE_MAX_BYTES</code> bytes.
+ * <p>
+ * Relevance queries only score the cached memories if the delegate would've scored the whole lot anyway, or if
+ * some of the agent's writes haven't landed yet. Otherwise they're handed to the delegate's index (e.g. Astra's
+ * ANN search), w/o loading the agent into the cache.
+ */
+public class CachingMemoryStream implements MemoryStream {
+    private static final int MAX_AGENTS = parseInt(System.getenv().getOrDefault("MEMORY_CACHE_MAX_AGENTS", "10000"));
+    private static final long MAX_BYTES = parseLong(System.getenv().getOrDefault("MEMORY_CACHE_MAX_BYTES", String.valueOf(256L * 1024 * 1024)));
+
+    private final MemoryStream delegate;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, .75f, true);
+    private long bytes = 0;
+
+    /**
+     * Delegate writes per agent which may not have landed yet. Guarded by the cache's lock.
+     */
+    private final Map<String, CompletableFuture<Void>> pendingWrites = new HashMap<>();
+
+    public CachingMemoryStream(MemoryStream delegate) {
+        this.delegate = delegate;
+    }
+
+    private static final class Entry {
+        private final CompletableFuture<Void> loaded = new CompletableFuture<>();
+        private final List<MemoryEntity> memories = new ArrayList<>();
+        private long bytes = 0;
+    }
+
+    @Override
+    public CompletableFuture<Void> save(MemoryEntity memory) {
+        return save(memory.agentName(), List.of(memory));
+    }
+
+    @Override
+    public synchronized CompletableFuture<Void> save(String name, List<MemoryEntity> memories) {
+        var entry = entries.get(name);
+        CompletableFuture<Void> write;
+
+        if (entry == null) {
+            write = delegate.save(name, memories);
+        } else {
+            append(entry, memories);
+            evict();
+
+            // If the agent's still being loaded, hold off on the write until the load's read is done, otherwise
+            // it's a toss-up whether the read sees the new memories and they'd end up in the cache twice
+            write = (entry.loaded.isDone())
+                ? delegate.save(name, memories)
+                : entry.loaded.handle((v, e) -> null).thenCompose(v -> delegate.save(name, memories));
+        }
+
+        pendingWrites.compute(name, (k, prev) -> (prev == null || prev.isDone())
+            ? write
+            : CompletableFuture.allOf(prev, write)
+        );
+
+        return write;
+    }
+
+    @Override
+    public CompletableFuture<List<MemoryEntity>> getMostRecentMemories(String name, int limit) {
+        return getAllMemories(name).thenApply(memories -> (
+            new ArrayList<>(memories.subList(max(0, memories.size() - limit), memories.size())).reversed()
+        ));
+    }
+
+    @Override
+    public CompletableFuture<List<MemoryEntity>> getMostRelevantMemories(String name, String query, int limit) {
+        return getMostRelevantMemories(name, List.of(query), limit).thenApply(l -> l.get(0));
+    }
+
+    @Override
+    public CompletableFuture<List<List<MemoryEntity>>> getMostRelevantMemories(String name, List<String> queries, int limit) {
+        boolean persisted;
+
+        synchronized (this) {
+            var pending = pendingWrites.get(name);
+            persisted = pending == null || pending.isDone();
+        }
+
+        if (persisted && delegate.isIndexed(name)) {
+            return delegate.getMostRelevantMemories(name, queries, limit);
+        }
+
+        return getAllMemories(name).thenCompose(memories ->
+            getEmbeddings(queries).thenApply(embeddings -> calculateRelevanceAndSort(memories, embeddings, limit))
+        );
+    }
+
+    /**
+     * Snapshot of the agent's memories, oldest first.
+     */
+    @Override
+    public CompletableFuture<List<MemoryEntity>> getAllMemories(String name) {
+        Entry entry;
+        CompletableFuture<Void> pending = null;
+
+        synchronized (this) {
+            entry = entries.get(name);
+
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(name, entry);
+                pending = pendingWrites.getOrDefault(name, completedFuture(null));
+            }
+        }
+
+        if (pending != null) {
+            load(name, entry, pending);
+        }
+
+        var ref = entry;
+
+        return entry.loaded.thenApply(v -> {
+            synchronized (this) {
+                return new ArrayList<>(ref.memories);
+            }
+        });
+    }
+
+    private void load(String name, Entry entry, CompletableFuture<Void> pending) {
+        log("Loading " + name + "'s memories into the cache");
+
+        pending
+            .handle((v, e) -> null)
+            .thenCompose(v -> delegate.getAllMemories(name))
+            .whenComplete((memories, e) -> {
+                synchronized (this) {
+                    if (e != null) {
+                        entries.remove(name, entry);
+                        bytes -= entry.bytes;
+                    } else {
+                        // Anything saved while loading has already been appended, and needs to stay after what was loaded
+                        var appended = new ArrayList<>(entry.memories);
+                        entry.memories.clear();
+                        bytes -= entry.bytes;
+                        entry.bytes = 0;
+
+                        append(entry, memories);
+                        append(entry, appended);
+                        evict();
+                    }
+                }
+
+                if (e != null) {
+                    entry.loaded.completeExceptionally(e);
+                } else {
+                    entry.loaded.complete(null);
+                }
+            });
+    }
+
+    private void append(Entry entry, List<MemoryEntity> memories) {
+        entry.memories.addAll(memories);
+
+        for (var memory : memories) {
+            var size = sizeOf(memory);
+            entry.bytes += size;
+            bytes += size;
+        }
+    }
+
+    /**
+     * Evicts the coldest fully loaded agents until the cache is back under its limits. Must hold the lock.
+     */
+    private void evict() {
+        var iterator = entries.entrySet().iterator();
+
+        while ((entries.size() > MAX_AGENTS || bytes > MAX_BYTES) && iterator.hasNext()) {
+            var next = iterator.next();
+
+            if (!next.getValue().loaded.isDone() || entries.size() == 1) {
+                continue;
+            }
+
+            log("Evicting " + next.getKey() + "'s memories from the cache");
+            bytes -= next.getValue().bytes;
+            iterator.remove();
+        }
+    }
+
+    private static long sizeOf(MemoryEntity memory) {
+        return 64 + memory.embedding().length * 4L + memory.memory().length() * 2L;
+    }
+}
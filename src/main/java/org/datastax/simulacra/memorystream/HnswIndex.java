@@ -0,0 +1,251 @@
+package org.datastax.simulacra.memorystream;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static org.datastax.simulacra.memorystream.MemoryUtils.testSimilarity;
+
+/**
+ * A small, incrementally built HNSW graph for approximate nearest neighbour search over
+ * unit length vectors (so similarity is just the dot product).
+ * <p>
+ * Inserts and searches are serialized on the index itself, which is fine as there's one
+ * index per agent and agents don't really contend with themselves.
+ * <p>
+ * <code>m</code> is the max number of links per node on the upper layers (level 0 gets twice that),
+ * <code>efConstruction</code> is the size of the candidate list while inserting, and the
+ * <code>ef</code> passed to {@link #search} is the size of the candidate list while searching.
+ */
+public class HnswIndex<T> {
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final Random random = new Random(42);
+
+    private final List<Node<T>> nodes = new ArrayList<>();
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    public HnswIndex(int m, int efConstruction) {
+        this.m = max(2, m);
+        this.maxM0 = this.m * 2;
+        this.efConstruction = max(this.m, efConstruction);
+        this.levelMultiplier = 1 / Math.log(this.m);
+    }
+
+    private record Scored(int id, double score) {}
+
+    private static final class Node<T> {
+        private final T item;
+        private final float[] vector;
+        private final int[][] links;
+        private final int[] linkCounts;
+
+        private Node(T item, float[] vector, int level, int m, int maxM0) {
+            this.item = item;
+            this.vector = vector;
+            this.links = new int[level + 1][];
+            this.linkCounts = new int[level + 1];
+
+            for (int l = 0; l <= level; l++) {
+                links[l] = new int[(l == 0) ? maxM0 : m];
+            }
+        }
+    }
+
+    public synchronized void add(T item, float[] vector) {
+        var level = randomLevel();
+        var id = nodes.size();
+        nodes.add(new Node<>(item, vector, level, m, maxM0));
+
+        if (entryPoint == -1) {
+            entryPoint = id;
+            maxLevel = level;
+            return;
+        }
+
+        var closest = entryPoint;
+
+        for (int l = maxLevel; l > level; l--) {
+            closest = greedyClosest(vector, closest, l);
+        }
+
+        for (int l = min(level, maxLevel); l >= 0; l--) {
+            var candidates = searchLayer(vector, closest, efConstruction, l);
+            var neighbours = candidates.subList(0, min(candidates.size(), maxLinks(l)));
+
+            for (var neighbour : neighbours) {
+                connect(id, neighbour.id, l);
+                connect(neighbour.id, id, l);
+            }
+            closest = candidates.get(0).id;
+        }
+
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = id;
+        }
+    }
+
+    /**
+     * Approximate top-k most similar items, most similar first.
+     */
+    public synchronized List<T> search(float[] query, int k, int ef) {
+        if (entryPoint == -1) {
+            return List.of();
+        }
+
+        var closest = entryPoint;
+
+        for (int l = maxLevel; l > 0; l--) {
+            closest = greedyClosest(query, closest, l);
+        }
+
+        var results = searchLayer(query, closest, max(ef, k), 0);
+        return results.subList(0, min(k, results.size())).stream().map(s -> nodes.get(s.id).item).toList();
+    }
+
+    /**
+     * Exact top-k most similar items, most similar first. Only really meant for sanity checking {@link #search}.
+     */
+    public synchronized List<T> exactSearch(float[] query, int k) {
+        var results = new PriorityQueue<Scored>(Comparator.comparingDouble(Scored::score));
+
+        for (int i = 0; i < nodes.size(); i++) {
+            results.add(new Scored(i, testSimilarity(query, nodes.get(i).vector)));
+
+            if (results.size() > k) {
+                results.poll();
+            }
+        }
+
+        return results.stream()
+            .sorted(Comparator.comparingDouble(Scored::score).reversed())
+            .map(s -> nodes.get(s.id).item)
+            .toList();
+    }
+
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    private int greedyClosest(float[] query, int start, int level) {
+        var closest = start;
+        var closestScore = similarity(query, start);
+
+        for (var changed = true; changed; ) {
+            changed = false;
+            var node = nodes.get(closest);
+
+            for (int i = 0; i < node.linkCounts[level]; i++) {
+                var neighbour = node.links[level][i];
+                var score = similarity(query, neighbour);
+
+                if (score > closestScore) {
+                    closest = neighbour;
+                    closestScore = score;
+                    changed = true;
+                }
+            }
+        }
+
+        return closest;
+    }
+
+    /**
+     * Best-first search of a single layer, returning up to <code>ef</code> results, most similar first.
+     */
+    private List<Scored> searchLayer(float[] query, int start, int ef, int level) {
+        var visited = new BitSet(nodes.size());
+        var candidates = new PriorityQueue<Scored>(Comparator.comparingDouble(Scored::score).reversed());
+        var results = new PriorityQueue<Scored>(Comparator.comparingDouble(Scored::score));
+
+        var first = new Scored(start, similarity(query, start));
+        visited.set(start);
+        candidates.add(first);
+        results.add(first);
+
+        while (!candidates.isEmpty()) {
+            var candidate = candidates.poll();
+
+            if (results.size() >= ef && candidate.score < results.peek().score) {
+                break;
+            }
+
+            var node = nodes.get(candidate.id);
+
+            for (int i = 0; i < node.linkCounts[level]; i++) {
+                var neighbour = node.links[level][i];
+
+                if (visited.get(neighbour)) {
+                    continue;
+                }
+                visited.set(neighbour);
+
+                var score = similarity(query, neighbour);
+
+                if (results.size() < ef || score > results.peek().score) {
+                    var scored = new Scored(neighbour, score);
+                    candidates.add(scored);
+                    results.add(scored);
+
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+
+        return results.stream()
+            .sorted(Comparator.comparingDouble(Scored::score).reversed())
+            .toList();
+    }
+
+    /**
+     * Adds a directed link, evicting the least similar existing link if the node is already full.
+     */
+    private void connect(int from, int to, int level) {
+        var node = nodes.get(from);
+        var links = node.links[level];
+
+        if (node.linkCounts[level] < links.length) {
+            links[node.linkCounts[level]++] = to;
+            return;
+        }
+
+        var worst = -1;
+        var worstScore = similarity(node.vector, to);
+
+        for (int i = 0; i < links.length; i++) {
+            var score = similarity(node.vector, links[i]);
+
+            if (score < worstScore) {
+                worst = i;
+                worstScore = score;
+            }
+        }
+
+        if (worst != -1) {
+            links[worst] = to;
+        }
+    }
+
+    private double similarity(float[] query, int id) {
+        return testSimilarity(query, nodes.get(id).vector);
+    }
+
+    private int maxLinks(int level) {
+        return (level == 0) ? maxM0 : m;
+    }
+
+    private int randomLevel() {
+        return (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+    }
+}
@@ -1,6 +1,7 @@
 package org.datastax.simulacra.memorystream;
 
 import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.Row;
 import com.datastax.oss.driver.api.core.data.CqlVector;
 import org.datastax.simulacra.SimClock;
 import org.datastax.simulacra.ai.EmbeddingService;
@@ -8,6 +9,7 @@ import org.datastax.simulacra.ai.EmbeddingService;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
+import static org.datastax.simulacra.memorystream.MemoryUtils.normalize;
 import static org.datastax.simulacra.utils.Utils.aggregatePages;
 
 public record MemoryEntity(
@@ -17,28 +19,48 @@ public record MemoryEntity(
     int importance,
     byte memType,
     String memory,
-    List<Float> embedding
+    float[] embedding
 ) {
     public static CompletableFuture<MemoryEntity> from(String agentName, int importance, byte type, String memory) {
         var time = (int) SimClock.elapsed().toHours();
 
         return EmbeddingService.getDefault().embed(memory).thenApply(embedding -> new MemoryEntity(
-            agentName, time, time, importance, type, memory, embedding
+            agentName, time, time, importance, type, memory, normalize(embedding)
         ));
     }
 
-    @SuppressWarnings({"unchecked", "DataFlowIssue"})
     public static CompletableFuture<List<MemoryEntity>> from(AsyncResultSet resultSet) {
-        return aggregatePages(resultSet).thenApply(rows ->
-            rows.stream().map(row -> new MemoryEntity(
-                row.getString("agent_name"),
-                row.getInt("created_at"),
-                row.getInt("last_fetch"),
-                row.getInt("importance"),
-                row.getByte("mem_type"),
-                row.getString("memory"),
-                ((CqlVector<Float>) row.get("embedding", CqlVector.class)).stream().toList()
-            )).toList()
+        return aggregatePages(resultSet).thenApply(rows -> rows.stream().map(MemoryEntity::from).toList());
+    }
+
+    @SuppressWarnings("DataFlowIssue")
+    public static MemoryEntity from(Row row) {
+        return new MemoryEntity(
+            row.getString("agent_name"),
+            row.getInt("created_at"),
+            row.getInt("last_fetch"),
+            row.getInt("importance"),
+            row.getByte("mem_type"),
+            row.getString("memory"),
+            fromCqlVector(row.getVector("embedding", Float.class))
         );
     }
+
+    public static CqlVector<Float> toCqlVector(float[] embedding) {
+        var boxed = new Float[embedding.length];
+
+        for (int i = 0; i < embedding.length; i++) {
+            boxed[i] = embedding[i];
+        }
+        return CqlVector.newInstance(boxed);
+    }
+
+    public static float[] fromCqlVector(CqlVector<Float> vector) {
+        var embedding = new float[vector.size()];
+
+        for (int i = 0; i < embedding.length; i++) {
+            embedding[i] = vector.get(i);
+        }
+        return embedding;
+    }
 }
@@ -2,10 +2,13 @@ package org.datastax.simulacra.memorystream;
 
 import com.datastax.oss.driver.api.core.CqlSession;
 import com.datastax.oss.driver.api.core.cql.PreparedStatement;
-import com.datastax.oss.driver.api.core.data.CqlVector;
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.datastax.oss.driver.api.core.uuid.Uuids;
 import org.datastax.simulacra.db.CqlSessionManager;
 import org.datastax.simulacra.db.Repository;
+import org.datastax.simulacra.utils.Utils;
 
+import java.util.Comparator;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
@@ -14,14 +17,14 @@ import java.util.concurrent.CompletableFuture;
     CREATE TABLE IF NOT EXISTS memories_by_agent (
         agent_name TEXT,
         created_at INT,
-        memory_id UUID,
+        memory_id TIMEUUID,
         last_fetch INT,
         importance INT,
         mem_type TINYINT,
         memory TEXT,
         embedding VECTOR<FLOAT, ${ASTRA_MEMORY_DIMS:768}>,
         PRIMARY KEY (agent_name, created_at, memory_id)
-    ) WITH CLUSTERING ORDER BY (created_at DESC, memory_id ASC);
+    ) WITH CLUSTERING ORDER BY (created_at DESC, memory_id DESC);
     
     CREATE CUSTOM INDEX IF NOT EXISTS memories_ann ON memories_by_agent(embedding)
         USING 'StorageAttachedIndex';
@@ -38,13 +41,15 @@ public class MemoryRepository {
             (?, ?, ?, ?, ?, ?, ?, ?)
     """);
 
-    public void saveAll(List<MemoryEntity> memories) {
-        memories.forEach(memory -> {
+    public CompletableFuture<Void> saveAll(List<MemoryEntity> memories) {
+        var insertions = memories.stream().map(memory -> {
             var boundInsertion = insertMemory.bind(
-                memory.agentName(), memory.createdAt(), UUID.randomUUID(), memory.lastFetch(), memory.importance(), memory.memType(), memory.memory(), CqlVector.newInstance(memory.embedding())
+                memory.agentName(), memory.createdAt(), Uuids.timeBased(), memory.lastFetch(), memory.importance(), memory.memType(), memory.memory(), MemoryEntity.toCqlVector(memory.embedding())
             );
-            session.executeAsync(boundInsertion);
+            return session.executeAsync(boundInsertion).toCompletableFuture();
         });
+
+        return CompletableFuture.allOf(insertions.toArray(CompletableFuture[]::new));
     }
 
     private final PreparedStatement recentMemories = session.prepare("""
@@ -61,18 +66,35 @@ public class MemoryRepository {
         SELECT * FROM memories_by_agent WHERE agent_name = ?
     """);
 
+    /**
+     * All of the agent's memories, oldest first. Sorted here rather than relying on the clustering order, since tables
+     * made before <code>memory_id</code> was time based (or w/ it ascending) don't keep an hour's memories in order.
+     */
     public CompletableFuture<List<MemoryEntity>> getAllMemories(String agentName) {
         var boundQuery = allMemories.bind(agentName);
         var resultSet = session.executeAsync(boundQuery);
-        return resultSet.toCompletableFuture().thenCompose(MemoryEntity::from);
+
+        return resultSet.toCompletableFuture().thenCompose(Utils::aggregatePages).thenApply(rows ->
+            rows.stream().sorted(CREATION_ORDER).map(MemoryEntity::from).toList()
+        );
+    }
+
+    private static final Comparator<Row> CREATION_ORDER = Comparator
+        .comparingInt((Row row) -> row.getInt("created_at"))
+        .thenComparingLong(row -> creationTimestamp(row.getUuid("memory_id")));
+
+    private static long creationTimestamp(UUID id) {
+        return (id != null && id.version() == 1)
+            ? id.timestamp()
+            : 0;
     }
 
     private final PreparedStatement similarMemories = session.prepare("""
         SELECT * FROM memories_by_agent WHERE agent_name = ? ORDER BY embedding ANN OF ? LIMIT ?
     """);
 
-    public CompletableFuture<List<MemoryEntity>> getSimilarMemories(String agentName, List<Float> query, int limit) {
-        var boundQuery = similarMemories.bind(agentName, query, limit);
+    public CompletableFuture<List<MemoryEntity>> getSimilarMemories(String agentName, float[] query, int limit) {
+        var boundQuery = similarMemories.bind(agentName, MemoryEntity.toCqlVector(query), limit);
         var resultSet = session.executeAsync(boundQuery);
         return resultSet.toCompletableFuture().thenCompose(MemoryEntity::from);
     }
@@ -4,13 +4,25 @@ import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 public interface MemoryStream {
-    void save(MemoryEntity memory);
+    CompletableFuture<Void> save(MemoryEntity memory);
 
-    void save(String name, List<MemoryEntity> memories);
+    CompletableFuture<Void> save(String name, List<MemoryEntity> memories);
 
     CompletableFuture<List<MemoryEntity>> getMostRelevantMemories(String name, String query, int limit);
 
     CompletableFuture<List<List<MemoryEntity>>> getMostRelevantMemories(String name, List<String> queries, int limit);
 
     CompletableFuture<List<MemoryEntity>> getMostRecentMemories(String name, int limit);
+
+    /**
+     * Everything the agent remembers, oldest first.
+     */
+    CompletableFuture<List<MemoryEntity>> getAllMemories(String name);
+
+    /**
+     * Whether relevance queries for the agent are answered from an index, rather than by scoring everything they remember.
+     */
+    default boolean isIndexed(String name) {
+        return false;
+    }
 }
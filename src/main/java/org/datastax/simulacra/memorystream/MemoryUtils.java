@@ -4,51 +4,86 @@ import org.datastax.simulacra.SimClock;
 import org.datastax.simulacra.ai.EmbeddingService;
 
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 
 import static java.lang.Math.min;
-import static java.util.Collections.reverseOrder;
 import static org.datastax.simulacra.utils.Utils.map;
-import static org.datastax.simulacra.utils.Utils.zipMap;
 
 public class MemoryUtils {
-    public static CompletableFuture<List<List<Float>>> getEmbeddings(List<String> queries) {
-        return EmbeddingService.getDefault().embed(queries);
-    }
+    /**
+     * Whether the SIMD kernel can be used; falls back to the scalar loop if the
+     * <code>jdk.incubator.vector</code> module wasn't added at launch (or if it's disabled through the env).
+     */
+    private static final boolean USE_VECTOR_API =
+        ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent() &&
+        !"false".equalsIgnoreCase(System.getenv("USE_VECTOR_API"));
 
-    public static List<List<MemoryEntity>> calculateRelevanceAndSort(List<MemoryEntity> memories, List<List<Float>> embeddings, int limit) {
-        return map(embeddings, embedding -> calculateRelevance(memories, embedding).subList(0, min(limit, memories.size())));
+    public static CompletableFuture<List<float[]>> getEmbeddings(List<String> queries) {
+        return EmbeddingService.getDefault().embed(queries).thenApply(embeddings -> map(embeddings, MemoryUtils::normalize));
     }
 
-    public static List<MemoryEntity> calculateRelevance(List<MemoryEntity> memories, List<Float> embedding) {
-        var rankings = map(memories, memory -> {
+    /**
+     * Finds the <code>limit</code> most relevant memories for each of the embeddings in a single pass
+     * over the memories, keeping a bounded heap per embedding. Recency and importance only depend on the
+     * memory, so they're only calculated once per memory rather than once per (memory, embedding) pair.
+     */
+    public static List<List<MemoryEntity>> calculateRelevanceAndSort(List<MemoryEntity> memories, List<float[]> embeddings, int limit) {
+        var hoursElapsed = SimClock.elapsed().toHours();
+        var heaps = map(embeddings, e -> new TopK<MemoryEntity>(min(limit, memories.size())));
+
+        for (var memory : memories) {
             var hourAccessed = memory.lastFetch();
-            var hoursElapsed = SimClock.elapsed().toHours();
             var recency = hourAccessed * Math.pow(.99, hoursElapsed - hourAccessed);
-            var relevance = testSimilarity(memory.embedding(), embedding);
             var importance = (double) memory.importance() / 10;
-            return recency + importance + relevance;
-        });
-
-        return zipMap(memories, rankings, (memory, ranking) -> Map.entry(ranking, memory))
-            .stream()
-            .sorted(reverseOrder(Map.Entry.comparingByKey()))
-            .map(Map.Entry::getValue)
-            .toList();
+
+            for (int i = 0; i < embeddings.size(); i++) {
+                var relevance = testSimilarity(memory.embedding(), embeddings.get(i));
+                heaps.get(i).offer(memory, recency + importance + relevance);
+            }
+        }
+
+        return map(heaps, TopK::toSortedList);
+    }
+
+    public static List<MemoryEntity> calculateRelevanceAndSort(List<MemoryEntity> memories, float[] embedding, int limit) {
+        return calculateRelevanceAndSort(memories, List.of(embedding), limit).get(0);
+    }
+
+    /**
+     * Cosine similarity of two embeddings. Both are expected to already be unit length
+     * (see {@link #normalize(float[])}), so this is just the dot product.
+     */
+    public static double testSimilarity(float[] a, float[] b) {
+        return (USE_VECTOR_API)
+            ? VectorKernel.dot(a, b)
+            : scalarDot(a, b);
+    }
+
+    /**
+     * Returns a unit-length copy of the given vector. Copies so that vectors shared between
+     * callers are never mutated out from under them.
+     */
+    public static float[] normalize(float[] vector) {
+        var norm = Math.sqrt(scalarDot(vector, vector));
+        var normalized = new float[vector.length];
+
+        if (norm == 0) {
+            return normalized;
+        }
+
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = (float) (vector[i] / norm);
+        }
+        return normalized;
     }
 
-    public static double testSimilarity(List<Float> listA, List<Float> listB) {
-        double dotProduct = 0.0;
-        double normA = 0.0;
-        double normB = 0.0;
+    private static float scalarDot(float[] a, float[] b) {
+        float dotProduct = 0;
 
-        for (int i = 0; i < listA.size(); i++) {
-            dotProduct += listA.get(i) * listB.get(i);
-            normA += Math.pow(listA.get(i), 2);
-            normB += Math.pow(listB.get(i), 2);
+        for (int i = 0; i < a.length; i++) {
+            dotProduct += a[i] * b[i];
         }
 
-        return dotProduct / (Math.sqrt(normA) * Math.sqrt(normB));
+        return dotProduct;
     }
 }
@@ -19,7 +19,27 @@ public record Plan(
         this(planForTheDay, parseHourlyPlan(planForTheHour));
     }
 
-    private static final Pattern pattern = Pattern.compile("^(\\d{1,2})");
+    private static final Pattern pattern = Pattern.compile("^\\s*(\\d{1,2})(?::\\d{2})?\\s*(am|pm)?", Pattern.CASE_INSENSITIVE);
+    private static final Pattern sleepPattern = Pattern.compile("^\\s*(\\d{1,2})(?::\\d{2})?\\s*(am|pm)?\\)\\s*(?:sleep|sleeping|asleep)\\b", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Whether the daily plan has the agent asleep at the given hour (0-23), w/ <code>8pm) Sleep</code> and
+     * <code>20:00) Sleep</code> both counting.
+     */
+    public boolean isSleepingAt(int hour) {
+        for (var entry : planForTheDay) {
+            var matcher = sleepPattern.matcher(entry);
+
+            if (!matcher.find()) {
+                continue;
+            }
+
+            if (toHour(matcher.group(1), matcher.group(2)) == hour) {
+                return true;
+            }
+        }
+        return false;
+    }
 
     private static List<String> parseDailyPlan(String plan) {
         var split = plan.split("\n");
@@ -46,7 +66,19 @@ public record Plan(
     private static int extractHour(String plan) {
         var matcher = pattern.matcher(plan);
         matcher.find();
-        return Integer.parseInt(matcher.group(1));
+        return toHour(matcher.group(1), matcher.group(2));
+    }
+
+    /**
+     * The hour (0-23), w/ <code>amPm</code> being null for 24h times
+     */
+    private static int toHour(String hour, String amPm) {
+        var entryHour = Integer.parseInt(hour);
+
+        if (amPm != null) {
+            entryHour = entryHour % 12 + (amPm.equalsIgnoreCase("pm") ? 12 : 0);
+        }
+        return entryHour;
     }
 
     private static List<String> parseHourlyPlan(String plan) {
@@ -0,0 +1,90 @@
+package org.datastax.simulacra.memorystream;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed-size min-heap keeping the <code>k</code> highest scoring items offered to it.
+ * Scores are kept as primitives so offering doesn't allocate anything.
+ */
+final class TopK<T> {
+    private final double[] scores;
+    private final Object[] items;
+    private int size = 0;
+
+    TopK(int k) {
+        this.scores = new double[Math.max(0, k)];
+        this.items = new Object[Math.max(0, k)];
+    }
+
+    void offer(T item, double score) {
+        if (size < scores.length) {
+            scores[size] = score;
+            items[size] = item;
+            siftUp(size++);
+        } else if (size > 0 && score > scores[0]) {
+            scores[0] = score;
+            items[0] = item;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Drains the heap, returning the items highest score first.
+     */
+    @SuppressWarnings("unchecked")
+    List<T> toSortedList() {
+        var result = new ArrayList<T>(size);
+
+        while (size > 0) {
+            result.add((T) items[0]);
+            swap(0, --size);
+            items[size] = null;
+            siftDown(0);
+        }
+
+        return result.reversed();
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            var parent = (i - 1) / 2;
+
+            if (scores[parent] <= scores[i]) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            var left = 2 * i + 1;
+            var right = left + 1;
+            var smallest = i;
+
+            if (left < size && scores[left] < scores[smallest]) {
+                smallest = left;
+            }
+            if (right < size && scores[right] < scores[smallest]) {
+                smallest = right;
+            }
+            if (smallest == i) {
+                return;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        var score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+
+        var item = items[a];
+        items[a] = items[b];
+        items[b] = item;
+    }
+}
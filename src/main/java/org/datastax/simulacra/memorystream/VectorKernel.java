@@ -0,0 +1,35 @@
+package org.datastax.simulacra.memorystream;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD kernels for the embedding math. Kept separate from {@link MemoryUtils} so that the
+ * incubator module is only ever loaded if it's actually present at runtime.
+ */
+final class VectorKernel {
+    private VectorKernel() {}
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    static float dot(float[] a, float[] b) {
+        var acc = FloatVector.zero(SPECIES);
+        var bound = SPECIES.loopBound(a.length);
+
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            var va = FloatVector.fromArray(SPECIES, a, i);
+            var vb = FloatVector.fromArray(SPECIES, b, i);
+            acc = va.fma(vb, acc);
+        }
+
+        var sum = acc.reduceLanes(VectorOperators.ADD);
+
+        for (; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+
+        return sum;
+    }
+}
@@ -3,15 +3,70 @@ package org.datastax.simulacra.moment;
 import org.datastax.simulacra.SimClock;
 import org.datastax.simulacra.agents.Agent;
 import org.datastax.simulacra.logging.HomemadeLogger;
+import org.datastax.simulacra.utils.AsyncListThreader;
+import org.datastax.simulacra.utils.AsyncPipeline;
+import org.datastax.simulacra.utils.LatencyRecorder;
 
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import static org.datastax.simulacra.utils.Utils.asyncListProcessor;
+import static org.datastax.simulacra.utils.Utils.filter;
 import static org.datastax.simulacra.logging.HomemadeLogger.*;
 
+/**
+ * Each agent observes their surroundings, plans what to do for the moment, and where to do it.
+ * <p>
+ * <code>REACTIVE_TICK_MODE</code> is either <code>multi_call</code> (default), which does each of those w/ its own
+ * LLM call(s), one after the other, or <code>fused</code>, which does them all in a single call per agent.
+ * <p>
+ * Unless <code>REACTIVE_TICK_PIPELINED</code> is off, each agent moves on to their next step as soon as they're done
+ * w/ the last, rather than waiting for everyone else in the subarea to be done w/ it too, and a failed step's retried
+ * once for just that agent. Batched moment plans (<code>LLM_BATCH_MOMENT_PLANS</code>) only batch up whoever's done
+ * observing within <code>REACTIVE_TICK_BATCH_WINDOW_MS</code> of each other, rather than waiting for everyone (which
+ * they still do when it's not pipelined).
+ * <p>
+ * Agents who are asleep as per their daily plan are skipped entirely (unless <code>REACTIVE_TICK_SKIP_DORMANT</code>
+ * is off), until something wakes them up for the rest of the hour; someone talking to them, coming into their
+ * subarea, or changing one of the items in it.
+ */
 public enum ReactiveMoment implements Moment {
     INSTANCE;
 
+    public enum Mode {
+        MULTI_CALL(3), // observe, plan the moment, plan the place (reflecting only happens every so often)
+        FUSED(1);
+
+        /**
+         * Roughly how many LLM calls each agent makes per tick.
+         */
+        private final int callsPerAgent;
+
+        Mode(int callsPerAgent) {
+            this.callsPerAgent = callsPerAgent;
+        }
+    }
+
+    private final Mode mode = Mode.valueOf(System.getenv().getOrDefault("REACTIVE_TICK_MODE", "multi_call").toUpperCase().replace('-', '_'));
+
+    private final boolean pipelined = Boolean.parseBoolean(System.getenv().getOrDefault("REACTIVE_TICK_PIPELINED", "true"));
+    private final long batchWindowMs = Long.parseLong(System.getenv().getOrDefault("REACTIVE_TICK_BATCH_WINDOW_MS", "250"));
+    private final boolean skipDormant = Boolean.parseBoolean(System.getenv().getOrDefault("REACTIVE_TICK_SKIP_DORMANT", "true"));
+
+    /**
+     * { awake, dormant } agent ticks for each sim day.
+     */
+    private final Map<LocalDate, AtomicLongArray> agentTicks = new ConcurrentSkipListMap<>();
+
+    private final LatencyRecorder latency = new LatencyRecorder();
+
+    private static final DateTimeFormatter DAY_FORMATTER = DateTimeFormatter.ofPattern("EEEE MMMM d");
+
     @Override
     public boolean elapsesTime() {
         return true;
@@ -21,7 +76,19 @@ public enum ReactiveMoment implements Moment {
     public void elapse(List<Agent> agents) {
         log("ReactiveMoment.elapse");
 
-        asyncListProcessor(agents)
+        var start = System.nanoTime();
+
+        var awake = (skipDormant) ? filter(agents, agent -> !agent.isDormant()) : agents;
+        var ticks = agentTicks.computeIfAbsent(SimClock.time().toLocalDate(), day -> new AtomicLongArray(2));
+        ticks.addAndGet(0, awake.size());
+        ticks.addAndGet(1, agents.size() - awake.size());
+
+        if (awake.isEmpty()) {
+            HomemadeLogger.logActions(agents);
+            return;
+        }
+
+        var processor = asyncListProcessor(awake)
             .onFail((error, list, offender) -> {
                 error.printStackTrace();
 
@@ -29,13 +96,71 @@ public enum ReactiveMoment implements Moment {
                     err("ReactiveMoment.elapse had a whoopsie", error);
                     agent.setCurrentAction(agent.getPlan().planForTheHour().get(SimClock.time().getHour() / SimClock.TIME_GRANULARITY));
                 }
-            })
+            });
+
+        if (pipelined) {
+            var pipeline = processor.pipelined().retrying(1);
+
+            switch (mode) {
+                case MULTI_CALL -> elapseMultiCallPipelined(pipeline);
+                case FUSED -> elapseFusedPipelined(pipeline);
+            }
+        } else {
+            switch (mode) {
+                case MULTI_CALL -> elapseMultiCall(processor);
+                case FUSED -> elapseFused(processor);
+            }
+        }
+
+        latency.recordSince(start);
+        HomemadeLogger.logActions(agents);
+    }
+
+    private static void elapseMultiCall(AsyncListThreader<Agent> processor) {
+        processor
             .peek(Agent::observe)
-            .peek(Agent::planMoment)
+            .peekBatch(Agent::planMoments)
             .discardIf(Agent::isInConversation)
             .peek(Agent::planPlace)
             .peek(Agent::reflect);
+    }
 
-        HomemadeLogger.logActions(agents);
+    private static void elapseFused(AsyncListThreader<Agent> processor) {
+        processor
+            .peek(Agent::tick)
+            .peek(Agent::reflect);
+    }
+
+    private void elapseMultiCallPipelined(AsyncPipeline<Agent> pipeline) {
+        var planned = (Agent.BATCH_MOMENT_PLANS)
+            ? pipeline.peek(Agent::observe).peekBatch(Agent::planMoments, batchWindowMs)
+            : pipeline.peek(Agent::observe).peek(Agent::planMoment);
+
+        planned
+            .discardIf(Agent::isInConversation)
+            .peek(Agent::planPlace)
+            .peek(Agent::reflect)
+            .await();
+    }
+
+    private static void elapseFusedPipelined(AsyncPipeline<Agent> pipeline) {
+        pipeline
+            .peek(Agent::tick)
+            .peek(Agent::reflect)
+            .await();
+    }
+
+    /**
+     * How long each subarea's agents took to get through the tick.
+     */
+    public String stats() {
+        var lines = new ArrayList<String>();
+        lines.add("Reactive tick latency (%s%s): %s".formatted(mode.name().toLowerCase(), (pipelined) ? ", pipelined" : "", latency.summary()));
+
+        agentTicks.forEach((day, ticks) -> lines.add("   - %s: %d of %d agent ticks skipped while asleep, ~%d LLM calls saved".formatted(
+            day.format(DAY_FORMATTER), ticks.get(1), ticks.get(0) + ticks.get(1), ticks.get(1) * mode.callsPerAgent
+        )));
+
+        return String.join("\n", lines);
     }
 }
@@ -0,0 +1,145 @@
+package org.datastax.simulacra.stubs;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.datastax.simulacra.ai.StandInLLMService;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import static java.lang.Integer.parseInt;
+import static java.lang.Long.parseLong;
+
+/**
+ * Stand-in for <code>microservices/embedding_service.py</code> which doesn't need a model (or python), for
+ * testing/benchmarking the embedding client offline. Speaks both the JSON and binary formats, and returns
+ * random unit vectors seeded by each sentence, so the same sentence always gets the same embedding.
+ * <p>
+ * <code>./gradlew embeddingStub --args="[port] [dims] [latency ms] [json-only]"</code>, where <code>json-only</code>
+ * makes it reject binary requests like an older service would.
+ */
+public class EmbeddingStubServer {
+    private static final String OCTET_STREAM = "application/octet-stream";
+
+    private final int dims;
+    private final long latencyMs;
+    private final boolean jsonOnly;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final JsonFactory json = new JsonFactory();
+
+    public EmbeddingStubServer(int dims, long latencyMs, boolean jsonOnly) {
+        this.dims = dims;
+        this.latencyMs = latencyMs;
+        this.jsonOnly = jsonOnly;
+    }
+
+    public static void main(String[] args) throws IOException {
+        var port = (args.length > 0) ? parseInt(args[0]) : 5000;
+        var dims = (args.length > 1) ? parseInt(args[1]) : 768;
+        var latencyMs = (args.length > 2) ? parseLong(args[2]) : 0;
+        var jsonOnly = args.length > 3 && args[3].equals("json-only");
+
+        var server = new EmbeddingStubServer(dims, latencyMs, jsonOnly).start(port);
+        System.out.println("Embedding stub listening @ http://localhost:" + server.getAddress().getPort() + "/embed");
+    }
+
+    public HttpServer start(int port) throws IOException {
+        var server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/embed", this::handle);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        return server;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            var binary = OCTET_STREAM.equals(exchange.getRequestHeaders().getFirst("Content-Type"));
+
+            if (binary && jsonOnly) {
+                exchange.sendResponseHeaders(415, -1);
+                return;
+            }
+
+            var body = exchange.getRequestBody().readAllBytes();
+            var sentences = (binary) ? decodeBinary(body) : decodeJson(body);
+            var embeddings = new ArrayList<float[]>(sentences.size());
+
+            for (var sentence : sentences) {
+                embeddings.add(StandInLLMService.embedding(sentence, dims));
+            }
+
+            if (latencyMs > 0) {
+                Thread.sleep(latencyMs);
+            }
+
+            var response = (binary) ? encodeBinary(embeddings) : encodeJson(embeddings);
+            exchange.getResponseHeaders().set("Content-Type", (binary) ? OCTET_STREAM : "application/json");
+            exchange.sendResponseHeaders(200, response.length);
+            exchange.getResponseBody().write(response);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static List<String> decodeBinary(byte[] body) {
+        var buffer = ByteBuffer.wrap(body).order(ByteOrder.LITTLE_ENDIAN);
+        var sentences = new ArrayList<String>();
+
+        for (int i = buffer.getInt(); i > 0; i--) {
+            var bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            sentences.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return sentences;
+    }
+
+    private static byte[] encodeBinary(List<float[]> embeddings) {
+        var dims = (embeddings.isEmpty()) ? 0 : embeddings.get(0).length;
+        var buffer = ByteBuffer.allocate(2 * Integer.BYTES + embeddings.size() * dims * Float.BYTES);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(embeddings.size());
+        buffer.putInt(dims);
+
+        var floats = buffer.asFloatBuffer();
+        embeddings.forEach(floats::put);
+
+        return buffer.array();
+    }
+
+    private List<String> decodeJson(byte[] body) throws IOException {
+        var sentences = new ArrayList<String>();
+        mapper.readTree(body).get("sentences").forEach(sentence -> sentences.add(sentence.asText()));
+        return sentences;
+    }
+
+    private byte[] encodeJson(List<float[]> embeddings) throws IOException {
+        var out = new ByteArrayOutputStream();
+
+        try (var generator = json.createGenerator(out)) {
+            generator.writeStartArray();
+
+            for (var embedding : embeddings) {
+                generator.writeStartArray();
+
+                for (var value : embedding) {
+                    generator.writeNumber(value);
+                }
+                generator.writeEndArray();
+            }
+
+            generator.writeEndArray();
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,62 @@
+package org.datastax.simulacra.stubs;
+
+import org.datastax.simulacra.ai.LocalEmbeddingService;
+import org.datastax.simulacra.ai.LocalEmbeddingService.Protocol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.lang.Integer.parseInt;
+
+/**
+ * Compares the JSON and binary embedding wire formats against an in-process {@link EmbeddingStubServer},
+ * checking both decode to the same embeddings along the way.
+ * <p>
+ * <code>./gradlew embeddingWireBenchmark --args="[batch size] [dims] [iterations]"</code>
+ */
+public class EmbeddingWireBenchmark {
+    public static void main(String[] args) throws Exception {
+        var batchSize = (args.length > 0) ? parseInt(args[0]) : 64;
+        var dims = (args.length > 1) ? parseInt(args[1]) : 768;
+        var iterations = (args.length > 2) ? parseInt(args[2]) : 200;
+
+        var server = new EmbeddingStubServer(dims, 0, false).start(0);
+        var url = "http://localhost:" + server.getAddress().getPort() + "/embed";
+
+        var json = new LocalEmbeddingService(url, Protocol.JSON);
+        var binary = new LocalEmbeddingService(url, Protocol.BINARY);
+
+        var batch = new ArrayList<String>();
+        for (int i = 0; i < batchSize; i++) {
+            batch.add("Memory #" + i + ": some agent did \"something\" near the café");
+        }
+
+        var fromJson = json.embed(batch).get();
+        var fromBinary = binary.embed(batch).get();
+
+        for (int i = 0; i < batchSize; i++) {
+            if (!Arrays.equals(fromJson.get(i), fromBinary.get(i))) {
+                throw new IllegalStateException("JSON and binary embeddings differ for sentence " + i);
+            }
+        }
+
+        // Run twice so the second round's numbers are w/ a warmed up JIT
+        for (int round = 0; round < 2; round++) {
+            System.out.printf("json:   %.3f ms/batch%n", time(json, batch, iterations));
+            System.out.printf("binary: %.3f ms/batch%n", time(binary, batch, iterations));
+        }
+
+        server.stop(0);
+        System.exit(0);
+    }
+
+    private static double time(LocalEmbeddingService service, List<String> batch, int iterations) throws Exception {
+        var start = System.nanoTime();
+
+        for (int i = 0; i < iterations; i++) {
+            service.embed(batch).get();
+        }
+        return (System.nanoTime() - start) / 1e6 / iterations;
+    }
+}
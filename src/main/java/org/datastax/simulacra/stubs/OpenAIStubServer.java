@@ -0,0 +1,320 @@
+package org.datastax.simulacra.stubs;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.datastax.simulacra.ai.StandInLLMService;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.Double.parseDouble;
+import static java.lang.Integer.parseInt;
+import static java.lang.Long.parseLong;
+
+/**
+ * Stand-in for the bits of the OpenAI API the simulation uses, for testing/benchmarking offline
+ * (point <code>OPENAI_BASE_URL</code> at it).
+ * <p>
+ * Chat completions echo back the start of the prompt, and function calls are answered w/ arguments made up from
+ * the function's schema (first enum value, "stub" for strings, etc.). Requests over <code>max concurrent</code>
+ * get a 429 w/ a <code>retry-after-ms</code>, like a rate-limited account would. Some fraction of chat requests can
+ * be made to take (much) longer, for a long tail of latencies. Streamed requests are streamed back, a chunk every
+ * 10ms after the initial latency.
+ * <p>
+ * <code>./gradlew openAIStub --args="[port] [latency ms] [max concurrent] [slow fraction] [slow latency ms]"</code>
+ */
+public class OpenAIStubServer {
+    private static final int EMBEDDING_DIMS = 1536;
+    private static final int STREAM_CHUNK_CHARS = 8;
+    private static final long STREAM_CHUNK_DELAY_MS = 10;
+
+    private final long latencyMs;
+    private final int maxConcurrent;
+    private final double slowFraction;
+    private final long slowLatencyMs;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final JsonFactory json = new JsonFactory();
+
+    private final AtomicLong embeddingRequests = new AtomicLong();
+    private final AtomicLong embeddingInputs = new AtomicLong();
+    private final AtomicLong chatRequests = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong modelRequests = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public OpenAIStubServer(long latencyMs, int maxConcurrent) {
+        this(latencyMs, maxConcurrent, 0, 0);
+    }
+
+    public OpenAIStubServer(long latencyMs, int maxConcurrent, double slowFraction, long slowLatencyMs) {
+        this.latencyMs = latencyMs;
+        this.maxConcurrent = maxConcurrent;
+        this.slowFraction = slowFraction;
+        this.slowLatencyMs = slowLatencyMs;
+    }
+
+    public static void main(String[] args) throws IOException {
+        var port = (args.length > 0) ? parseInt(args[0]) : 8080;
+        var latencyMs = (args.length > 1) ? parseLong(args[1]) : 0;
+        var maxConcurrent = (args.length > 2) ? parseInt(args[2]) : Integer.MAX_VALUE;
+        var slowFraction = (args.length > 3) ? parseDouble(args[3]) : 0;
+        var slowLatencyMs = (args.length > 4) ? parseLong(args[4]) : 0;
+
+        var server = new OpenAIStubServer(latencyMs, maxConcurrent, slowFraction, slowLatencyMs).start(port);
+        System.out.println("OpenAI stub listening @ http://localhost:" + server.getAddress().getPort() + "/");
+    }
+
+    public HttpServer start(int port) throws IOException {
+        var server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/v1/embeddings", this::handleEmbeddings);
+        server.createContext("/v1/chat/completions", this::handleChat);
+        server.createContext("/v1/models", this::handleModels);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        return server;
+    }
+
+    public long embeddingRequests() {
+        return embeddingRequests.get();
+    }
+
+    public long embeddingInputs() {
+        return embeddingInputs.get();
+    }
+
+    public long chatRequests() {
+        return chatRequests.get();
+    }
+
+    public long rejected() {
+        return rejected.get();
+    }
+
+    public long modelRequests() {
+        return modelRequests.get();
+    }
+
+    private void handleChat(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            var request = mapper.readTree(exchange.getRequestBody());
+
+            if (inFlight.incrementAndGet() > maxConcurrent) {
+                inFlight.decrementAndGet();
+                rejected.incrementAndGet();
+
+                var error = "{\"error\":{\"message\":\"Rate limit reached\",\"type\":\"requests\",\"code\":\"rate_limit_exceeded\"}}".getBytes();
+                exchange.getResponseHeaders().set("retry-after-ms", "100");
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(429, error.length);
+                exchange.getResponseBody().write(error);
+                return;
+            }
+
+            try {
+                chatRequests.incrementAndGet();
+                sleep((ThreadLocalRandom.current().nextDouble() < slowFraction) ? slowLatencyMs : latencyMs);
+
+                if (request.path("stream").asBoolean()) {
+                    streamResponse(exchange, chatResponse(request));
+                } else {
+                    respond(exchange, mapper.writeValueAsBytes(chatResponse(request)));
+                }
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    private ObjectNode chatResponse(JsonNode request) {
+        var response = mapper.createObjectNode();
+        response.put("id", "chatcmpl-stub");
+        response.put("object", "chat.completion");
+        response.put("model", request.path("model").asText());
+
+        var message = response.putArray("choices").addObject().put("index", 0).putObject("message");
+        message.put("role", "assistant");
+
+        if (request.has("functions")) {
+            var function = request.get("functions").get(0);
+            var arguments = stubValue(function.get("parameters"));
+
+            message.putNull("content");
+            message.putObject("function_call")
+                .put("name", function.get("name").asText())
+                .put("arguments", arguments.toString());
+        } else {
+            var prompt = request.get("messages").get(0).get("content").asText();
+            message.put("content", "Stub response to: " + prompt.substring(0, Math.min(prompt.length(), 64)));
+        }
+
+        response.putObject("usage").put("prompt_tokens", request.toString().length() / 4).put("completion_tokens", 16);
+        return response;
+    }
+
+    /**
+     * Sends the response back as SSE chunks, the way the real thing does w/ <code>"stream": true</code>: the content
+     * a word at a time, or the function call's arguments a few characters at a time, then <code>[DONE]</code>.
+     */
+    private void streamResponse(HttpExchange exchange, ObjectNode response) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+
+        var out = exchange.getResponseBody();
+        var message = response.get("choices").get(0).get("message");
+
+        if (message.has("function_call")) {
+            var functionCall = message.get("function_call");
+            writeChunk(out, mapper.createObjectNode().set("function_call", mapper.createObjectNode().put("name", functionCall.get("name").asText()).put("arguments", "")));
+
+            var arguments = functionCall.get("arguments").asText();
+
+            for (int i = 0; i < arguments.length(); i += STREAM_CHUNK_CHARS) {
+                var fragment = arguments.substring(i, Math.min(arguments.length(), i + STREAM_CHUNK_CHARS));
+                writeChunk(out, mapper.createObjectNode().set("function_call", mapper.createObjectNode().put("arguments", fragment)));
+            }
+        } else {
+            for (var word : message.get("content").asText().split("(?<= )")) {
+                writeChunk(out, mapper.createObjectNode().put("content", word));
+            }
+        }
+
+        out.write("data: [DONE]\n\n".getBytes());
+        out.flush();
+    }
+
+    private void writeChunk(OutputStream out, ObjectNode delta) throws IOException {
+        var chunk = mapper.createObjectNode();
+        chunk.put("object", "chat.completion.chunk");
+        chunk.putArray("choices").addObject().put("index", 0).set("delta", delta);
+
+        out.write(("data: " + chunk + "\n\n").getBytes());
+        out.flush();
+        sleep(STREAM_CHUNK_DELAY_MS);
+    }
+
+    /**
+     * Some value which satisfies the (draft 4) JSON schema.
+     */
+    private JsonNode stubValue(JsonNode schema) {
+        if (schema.has("enum")) {
+            return schema.get("enum").get(0);
+        }
+
+        var type = schema.path("type");
+        var typeName = (type.isArray()) ? type.get(0).asText() : type.asText();
+
+        return switch (typeName) {
+            case "object" -> {
+                var object = mapper.createObjectNode();
+                schema.path("properties").fields().forEachRemaining(field -> object.set(field.getKey(), stubValue(field.getValue())));
+                yield object;
+            }
+            case "array" -> mapper.createArrayNode().add(stubValue(schema.path("items")));
+            case "integer", "number" -> mapper.getNodeFactory().numberNode(1);
+            case "boolean" -> mapper.getNodeFactory().booleanNode(false);
+            default -> mapper.getNodeFactory().textNode("stub");
+        };
+    }
+
+    /**
+     * Answered straight away (no latency or concurrency limit), since the real one's just a cheap lookup too
+     */
+    private void handleModels(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            modelRequests.incrementAndGet();
+
+            var response = mapper.createObjectNode().put("object", "list");
+            response.putArray("data").addObject()
+                .put("id", "gpt-3.5-turbo")
+                .put("object", "model")
+                .put("owned_by", "stub");
+
+            respond(exchange, mapper.writeValueAsBytes(response));
+        }
+    }
+
+    /**
+     * Takes a string or an array of strings as the <code>input</code>, like the real thing does.
+     */
+    private void handleEmbeddings(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            var input = mapper.readTree(exchange.getRequestBody()).get("input");
+            var texts = new ArrayList<String>();
+
+            if (input.isArray()) {
+                input.forEach(text -> texts.add(text.asText()));
+            } else {
+                texts.add(input.asText());
+            }
+
+            embeddingRequests.incrementAndGet();
+            embeddingInputs.addAndGet(texts.size());
+
+            sleep(latencyMs);
+            respond(exchange, encodeEmbeddings(texts));
+        }
+    }
+
+    private byte[] encodeEmbeddings(List<String> texts) throws IOException {
+        var out = new ByteArrayOutputStream();
+
+        try (var generator = json.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeStringField("object", "list");
+            generator.writeStringField("model", "text-embedding-ada-002");
+            generator.writeArrayFieldStart("data");
+
+            // Backwards, to keep clients honest about using the index
+            for (int i = texts.size() - 1; i >= 0; i--) {
+                generator.writeStartObject();
+                generator.writeStringField("object", "embedding");
+                generator.writeNumberField("index", i);
+                generator.writeArrayFieldStart("embedding");
+
+                for (var value : StandInLLMService.embedding(texts.get(i), EMBEDDING_DIMS)) {
+                    generator.writeNumber(value);
+                }
+
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+
+            generator.writeEndArray();
+            generator.writeObjectFieldStart("usage");
+            generator.writeNumberField("prompt_tokens", texts.stream().mapToInt(String::length).sum() / 4);
+            generator.writeNumberField("total_tokens", texts.stream().mapToInt(String::length).sum() / 4);
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            if (millis > 0) {
+                Thread.sleep(millis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+    }
+}
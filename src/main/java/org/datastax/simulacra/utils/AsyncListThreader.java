@@ -1,6 +1,7 @@
 package org.datastax.simulacra.utils;
 
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -53,6 +54,21 @@ public record AsyncListThreader<T>(List<T> list, ErrorHandler onFail) {
         return new AsyncListThreader<>(removeErrors(newList), onFail);
     }
 
+    /**
+     * Like <code>peek</code>, but the function's given the whole list at once (e.g. so it can batch up requests
+     * for all of them), and returns a future for each element, in the same order.
+     */
+    public <R> AsyncListThreader<T> peekBatch(Function<List<T>, List<CompletableFuture<R>>> fn) {
+        var newList = Utils.zipMap(list, await(fn.apply(list)), (o, n) -> {
+            if (n == Errored.class) {
+                return n;
+            }
+            return o;
+        });
+
+        return new AsyncListThreader<>(removeErrors(newList), onFail);
+    }
+
     /**
      * Discards any elements that fail the predicate, but does not modify the original list.
      */
@@ -60,6 +76,14 @@ public record AsyncListThreader<T>(List<T> list, ErrorHandler onFail) {
         return new AsyncListThreader<>(list.stream().filter(fn.negate()).toList(), onFail);
     }
 
+    /**
+     * Switches to putting each element through the stages on its own, w/o waiting for the others (see
+     * {@link AsyncPipeline}).
+     */
+    public AsyncPipeline<T> pipelined() {
+        return new AsyncPipeline<>(list, Utils.map(list, CompletableFuture::completedFuture), onFail, 0);
+    }
+
     public <R> List<R> get(Function<T, R> fn) {
         return Utils.map(list, fn);
     }
@@ -69,11 +93,18 @@ public record AsyncListThreader<T>(List<T> list, ErrorHandler onFail) {
     }
 
     private <R> List<?> getMapped(Function<T, CompletableFuture<R>> fn) {
-        var futures = Utils.map(list, fn);
+        return await(Utils.map(list, fn));
+    }
 
+    private <R> List<?> await(List<CompletableFuture<R>> futures) {
         return Utils.zipMap(list, futures, (l, f) -> {
             try {
                 return f.get();
+            } catch (InterruptedException e) {
+                // Waits out whatever's still going, so none of it's left changing things once the caller's moved on
+                CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).exceptionally(ex -> null).join();
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while waiting on the list");
             } catch (Throwable e) {
                 onFail.onError(e, list, l);
                 return Errored.class;
@@ -0,0 +1,325 @@
+package org.datastax.simulacra.utils;
+
+import org.datastax.simulacra.ai.IOExecutor;
+import org.datastax.simulacra.utils.AsyncListThreader.ErrorHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.delayedExecutor;
+import static java.util.concurrent.CompletableFuture.failedFuture;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Like {@link AsyncListThreader}, except each element goes through the stages on its own, w/o waiting on the rest
+ * of the list to finish a stage before starting the next. So the whole thing takes as long as the slowest element's
+ * chain of stages, rather than the sum of the slowest element at each stage.
+ * <p>
+ * If an element fails a stage, the stage is retried for just that element (up to <code>retries</code> times), after
+ * which the error handler's called and the element drops out of the rest of the stages, same as a discarded one.
+ * <p>
+ * Batch stages either wait for every element to get to them ({@link #peekBatch(Function)}), or just batch up
+ * whichever elements get there within a short window of each other ({@link #peekBatch(Function, long)}).
+ * <p>
+ * If the thread waiting on the pipeline's interrupted (e.g. the tick's run over), no more stages are started, and it
+ * waits out whichever are already going before giving up. So nothing from a cancelled pipeline is left still
+ * changing things after it's returned (the calls themselves are bounded by their own deadlines).
+ */
+public final class AsyncPipeline<T> {
+    private final List<T> source;
+    private final List<CompletableFuture<T>> chains;
+    private final ErrorHandler onFail;
+    private final int retries;
+    private final Stages stages;
+
+    /**
+     * @param chains Each element's chain of stages so far, which completes w/ <code>null</code> if it's dropped out
+     */
+    AsyncPipeline(List<T> source, List<CompletableFuture<T>> chains, ErrorHandler onFail, int retries) {
+        this(source, chains, onFail, retries, new Stages());
+    }
+
+    private AsyncPipeline(List<T> source, List<CompletableFuture<T>> chains, ErrorHandler onFail, int retries, Stages stages) {
+        this.source = source;
+        this.chains = chains;
+        this.onFail = onFail;
+        this.retries = retries;
+        this.stages = stages;
+    }
+
+    /**
+     * How many times to retry a failed stage (for the stages after this).
+     */
+    public AsyncPipeline<T> retrying(int retries) {
+        return new AsyncPipeline<>(source, chains, onFail, retries, stages);
+    }
+
+    public <R> AsyncPipeline<T> peek(Function<T, CompletableFuture<R>> fn) {
+        return next(Utils.map(chains, chain -> chain.thenComposeAsync(
+            element -> (element == null) ? completedFuture(null) : attempt(element, fn, 0),
+            IOExecutor.get()
+        )));
+    }
+
+    /**
+     * Waits for every element to get here, then hands whichever are left to the function all at once.
+     */
+    public <R> AsyncPipeline<T> peekBatch(Function<List<T>, List<CompletableFuture<R>>> fn) {
+        var remaining = await();
+
+        if (remaining.isEmpty()) {
+            return this;
+        }
+
+        var futures = startBatch(fn, remaining);
+        var next = new ArrayList<CompletableFuture<T>>(remaining.size());
+
+        for (int i = 0; i < remaining.size(); i++) {
+            var element = remaining.get(i);
+
+            next.add(futures.get(i).handle((r, e) -> {
+                if (e == null) {
+                    return element;
+                }
+                onFail.onError(unwrap(e), source, element);
+                return null;
+            }));
+        }
+
+        return next(next);
+    }
+
+    /**
+     * Hands whichever elements get here within <code>windowMs</code> of the first of them to the function together,
+     * so the stage only holds each element up for (at most) the window, rather than until the slowest one's here too.
+     * A batch is also sent as soon as every element that's still coming has got here.
+     */
+    public <R> AsyncPipeline<T> peekBatch(Function<List<T>, List<CompletableFuture<R>>> fn, long windowMs) {
+        var batcher = new Batcher<>(fn, windowMs, chains.size());
+        return next(Utils.map(chains, chain -> chain.exceptionally(e -> null).thenCompose(batcher::arrive)));
+    }
+
+    private final class Batcher<R> {
+        private final Function<List<T>, List<CompletableFuture<R>>> fn;
+        private final long windowMs;
+
+        // Guarded by the batcher
+        private int coming;
+        private int generation = 0;
+        private List<T> batch = new ArrayList<>();
+        private List<CompletableFuture<T>> results = new ArrayList<>();
+
+        private Batcher(Function<List<T>, List<CompletableFuture<R>>> fn, long windowMs, int coming) {
+            this.fn = fn;
+            this.windowMs = windowMs;
+            this.coming = coming;
+        }
+
+        private CompletableFuture<T> arrive(T element) {
+            var result = (element == null) ? CompletableFuture.<T>completedFuture(null) : new CompletableFuture<T>();
+            var flushNow = false;
+
+            synchronized (this) {
+                coming--;
+
+                if (element != null) {
+                    batch.add(element);
+                    results.add(result);
+
+                    if (batch.size() == 1 && coming > 0) {
+                        var scheduledFor = generation;
+                        delayedExecutor(windowMs, MILLISECONDS, IOExecutor.get()).execute(() -> flush(scheduledFor));
+                    }
+                }
+
+                flushNow = coming == 0 && !batch.isEmpty();
+            }
+
+            if (flushNow) {
+                flush(-1);
+            }
+            return result;
+        }
+
+        /**
+         * @param scheduledFor Which batch a timed flush was for, so it doesn't flush a later one early (-1 for now)
+         */
+        private void flush(int scheduledFor) {
+            List<T> elements;
+            List<CompletableFuture<T>> futures;
+
+            synchronized (this) {
+                if (batch.isEmpty() || (scheduledFor != -1 && scheduledFor != generation)) {
+                    return;
+                }
+
+                elements = batch;
+                futures = results;
+                batch = new ArrayList<>();
+                results = new ArrayList<>();
+                generation++;
+            }
+
+            List<CompletableFuture<R>> calls;
+
+            try {
+                calls = startBatch(fn, elements);
+            } catch (Exception e) {
+                calls = Utils.map(elements, element -> failedFuture(e));
+            }
+
+            for (int i = 0; i < elements.size(); i++) {
+                var element = elements.get(i);
+                var future = futures.get(i);
+
+                calls.get(i).whenComplete((r, e) -> {
+                    if (e != null) {
+                        onFail.onError(unwrap(e), source, element);
+                        future.complete(null);
+                    } else {
+                        future.complete(element);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Drops any elements that pass the predicate, checked once each gets here.
+     */
+    public AsyncPipeline<T> discardIf(Predicate<T> fn) {
+        return next(Utils.map(chains, chain -> chain.thenApply(element -> (element == null || fn.test(element)) ? null : element)));
+    }
+
+    /**
+     * Waits for every element to get through all the stages, returning the ones which made it. If the waiting
+     * thread's interrupted (e.g. the tick's cancelled), the rest of the stages are skipped, and it waits for the ones
+     * already going to finish before throwing a <code>CancellationException</code>.
+     */
+    public List<T> await() {
+        var remaining = new ArrayList<T>();
+
+        try {
+            for (var chain : chains) {
+                var element = chain.get();
+
+                if (element != null) {
+                    remaining.add(element);
+                }
+            }
+        } catch (InterruptedException e) {
+            stages.cancelAndWait();
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting on the pipeline");
+        } catch (ExecutionException e) {
+            throw new CompletionException(e.getCause());
+        }
+
+        return remaining;
+    }
+
+    /**
+     * Waits for every element to get through all the stages, then goes back to doing them a stage at a time.
+     */
+    public AsyncListThreader<T> sync() {
+        return new AsyncListThreader<>(await(), onFail);
+    }
+
+    private <R> CompletableFuture<T> attempt(T element, Function<T, CompletableFuture<R>> fn, int attempt) {
+        if (!stages.start()) {
+            return completedFuture(null);
+        }
+
+        CompletableFuture<R> future;
+
+        try {
+            future = fn.apply(element);
+        } catch (Exception e) {
+            future = failedFuture(e);
+        }
+
+        return future.whenComplete((r, e) -> stages.finish()).thenApply(r -> element).exceptionallyCompose(e -> {
+            if (attempt < retries) {
+                return attempt(element, fn, attempt + 1);
+            }
+            onFail.onError(unwrap(e), source, element);
+            return completedFuture(null);
+        });
+    }
+
+    /**
+     * Hands the elements to a batch stage, or drops them all (w/ <code>null</code>s) if the pipeline's been cancelled
+     */
+    private <R> List<CompletableFuture<R>> startBatch(Function<List<T>, List<CompletableFuture<R>>> fn, List<T> elements) {
+        if (!stages.start()) {
+            return Utils.map(elements, element -> completedFuture(null));
+        }
+
+        List<CompletableFuture<R>> calls;
+
+        try {
+            calls = fn.apply(elements);
+        } catch (RuntimeException e) {
+            stages.finish();
+            throw e;
+        }
+
+        CompletableFuture.allOf(calls.toArray(CompletableFuture[]::new)).whenComplete((r, e) -> stages.finish());
+
+        if (calls.size() != elements.size()) {
+            throw new IllegalStateException("Expected " + elements.size() + " results from the batch, got " + calls.size());
+        }
+        return calls;
+    }
+
+    private AsyncPipeline<T> next(List<CompletableFuture<T>> chains) {
+        return new AsyncPipeline<>(source, chains, onFail, retries, stages);
+    }
+
+    /**
+     * How many stage calls are still going (across every stage of the pipeline), so a cancelled pipeline can stop
+     * starting new ones & wait out the rest
+     */
+    private static final class Stages {
+        // Guarded by this
+        private boolean cancelled;
+        private int running;
+
+        private synchronized boolean start() {
+            if (cancelled) {
+                return false;
+            }
+            running++;
+            return true;
+        }
+
+        private synchronized void finish() {
+            if (--running == 0) {
+                notifyAll();
+            }
+        }
+
+        private synchronized void cancelAndWait() {
+            cancelled = true;
+
+            while (running > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException ignored) {
+                    // Already on our way out, the caller re-interrupts
+                }
+            }
+        }
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        return (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+    }
+}
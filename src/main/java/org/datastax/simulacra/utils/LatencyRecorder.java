@@ -0,0 +1,77 @@
+package org.datastax.simulacra.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static java.lang.Math.*;
+
+/**
+ * Lock-free latency histogram w/ log-scaled buckets, each ~5% wider than the last, from 1ms up to about an hour
+ * (anything bigger goes in the last bucket). Percentiles come back as the upper bound of the bucket they land in,
+ * so they're accurate to within ~5%.
+ */
+public class LatencyRecorder {
+    private static final double GROWTH = 1.05;
+    private static final int NUM_BUCKETS = (int) ceil(log(3_600_000) / log(GROWTH)) + 1;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMillis = new AtomicLong();
+    private final AtomicLong maxMillis = new AtomicLong();
+
+    public void record(long millis) {
+        millis = max(0, millis);
+
+        buckets.incrementAndGet(bucketOf(millis));
+        count.incrementAndGet();
+        totalMillis.addAndGet(millis);
+        maxMillis.accumulateAndGet(millis, Math::max);
+    }
+
+    public void recordSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1_000_000);
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    /**
+     * @param percentile e.g. <code>99</code> for the p99
+     */
+    public long percentile(double percentile) {
+        var total = count.get();
+
+        if (total == 0) {
+            return 0;
+        }
+
+        var rank = (long) ceil(total * percentile / 100);
+        var seen = 0L;
+
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += buckets.get(i);
+
+            if (seen >= max(1, rank)) {
+                return min(upperBoundOf(i), maxMillis.get());
+            }
+        }
+        return maxMillis.get();
+    }
+
+    public String summary() {
+        var total = count.get();
+
+        return "p50 %dms, p90 %dms, p99 %dms, max %dms, avg %.1fms (n=%d)".formatted(
+            percentile(50), percentile(90), percentile(99), maxMillis.get(), (total == 0) ? 0.0 : (double) totalMillis.get() / total, total
+        );
+    }
+
+    private static int bucketOf(long millis) {
+        return (millis <= 1) ? 0 : min(NUM_BUCKETS - 1, (int) ceil(log(millis) / log(GROWTH)));
+    }
+
+    private static long upperBoundOf(int bucket) {
+        return (long) floor(pow(GROWTH, bucket));
+    }
+}
@@ -0,0 +1,55 @@
+package org.datastax.simulacra.utils;
+
+import java.util.Arrays;
+
+import static java.lang.Math.ceil;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * Just the last <code>size</code> latencies, for percentiles which keep up w/ the latency as it changes (e.g. after a
+ * slow warm-up, or switching providers), unlike {@link LatencyRecorder}, which has everything since the start.
+ * <p>
+ * Percentiles are exact, but sort a copy of the window each time, so keep the window to a few hundred samples.
+ */
+public class RecentLatencies {
+    private final long[] samples;
+    private int next = 0;
+    private int count = 0;
+
+    public RecentLatencies(int size) {
+        this.samples = new long[max(1, size)];
+    }
+
+    public synchronized void record(long millis) {
+        samples[next] = max(0, millis);
+        next = (next + 1) % samples.length;
+        count = min(count + 1, samples.length);
+    }
+
+    public void recordSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1_000_000);
+    }
+
+    public synchronized int count() {
+        return count;
+    }
+
+    /**
+     * @param percentile e.g. <code>99</code> for the p99
+     */
+    public long percentile(double percentile) {
+        long[] sorted;
+
+        synchronized (this) {
+            if (count == 0) {
+                return 0;
+            }
+            sorted = Arrays.copyOf(samples, count);
+        }
+
+        Arrays.sort(sorted);
+        var rank = (int) ceil(sorted.length * percentile / 100);
+        return sorted[min(sorted.length, max(1, rank)) - 1];
+    }
+}
@@ -10,6 +10,8 @@ import com.fasterxml.jackson.dataformat.yaml.YAMLGenerator;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.*;
@@ -18,6 +20,7 @@ import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 import static java.lang.Math.min;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.CompletableFuture.completedFuture;
 import static java.util.stream.Collectors.toMap;
 
@@ -106,6 +109,10 @@ public class Utils {
         }
     }
 
+    public static JsonNode toJsonTree(Object json) {
+        return ObjectMappers.JSON.valueToTree(json);
+    }
+
     public static void writeYaml(String path, Object yaml, boolean append) {
         try (var writer = new BufferedWriter(new FileWriter(path, StandardCharsets.UTF_8, append))) {
             ObjectMappers.YAML.writeValue(writer, yaml);
@@ -134,6 +141,10 @@ public class Utils {
         }
     }
 
+    public static String compactText(String text) {
+        return text.replaceAll("\\s+", " ").trim();
+    }
+
     public static String normalizeName(String name) {
         return name.trim().toLowerCase().replace(".", "");
     }
@@ -161,6 +172,41 @@ public class Utils {
         );
     }
 
+    /**
+     * Like {@link #awaitAll}, but doesn't block the calling thread while waiting.
+     */
+    public static <T> CompletableFuture<List<T>> allOf(List<CompletableFuture<T>> futures) {
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).thenApply(v ->
+            map(futures, CompletableFuture::join)
+        );
+    }
+
+    /**
+     * Fails w/ a <code>TimeoutException</code> if the call hasn't finished by the deadline (<code>null</code> for
+     * none), in which case the call itself is cancelled, rather than just no longer waited on, so it doesn't keep
+     * holding on to a connection or whatever else it's using.
+     */
+    public static <T> CompletableFuture<T> withDeadline(CompletableFuture<T> call, Instant deadline) {
+        if (deadline == null) {
+            return call;
+        }
+
+        var result = new CompletableFuture<T>();
+
+        call.whenComplete((r, e) -> {
+            if (e == null) {
+                result.complete(r);
+            } else {
+                result.completeExceptionally(e);
+            }
+        });
+
+        result.orTimeout(Math.max(0, Duration.between(Instant.now(), deadline).toMillis()), MILLISECONDS);
+        result.whenComplete((r, e) -> call.cancel(true));
+
+        return result;
+    }
+
     public static <T, R> List<R> map(Collection<T> list, Function<T, R> mapper) {
         return list.stream().map(mapper).toList();
     }
@@ -0,0 +1,40 @@
+package org.datastax.simulacra;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SimClockTest {
+    @Test
+    void countsTicksOverTheirBudget() {
+        var stats = new SimClock.TickStats();
+
+        assertEquals(0, stats.record(900, 1000));
+        assertEquals(0, stats.record(1000, 1000));
+        assertEquals(250, stats.record(1250, 1000));
+        assertEquals(4000, stats.record(5000, 1000));
+
+        assertEquals(4, stats.durations.count());
+        assertEquals(2, stats.overruns.get());
+        assertEquals(4250, stats.overrunMillis.get());
+    }
+
+    @Test
+    void noBudgetMeansNoOverruns() {
+        var stats = new SimClock.TickStats();
+
+        assertEquals(0, stats.record(60_000, 0));
+
+        assertEquals(1, stats.durations.count());
+        assertEquals(0, stats.overruns.get());
+        assertEquals(0, stats.overrunMillis.get());
+    }
+
+    @Test
+    void waitsOutTheRestOfTheFloor() {
+        assertEquals(700, SimClock.nextTickDelay(300, 1000));
+        assertEquals(0, SimClock.nextTickDelay(1000, 1000));
+        assertEquals(0, SimClock.nextTickDelay(1500, 1000));
+        assertEquals(0, SimClock.nextTickDelay(300, 0));
+    }
+}
@@ -0,0 +1,72 @@
+package org.datastax.simulacra.agents;
+
+import org.datastax.simulacra.environment.Area;
+import org.datastax.simulacra.environment.Item;
+import org.datastax.simulacra.environment.SubArea;
+import org.datastax.simulacra.environment.WorldMap;
+import org.datastax.simulacra.memorystream.ArrayMemoryStream;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Only observing what's changed, against the stand-in LLM (see the test task's env).
+ */
+class ObserveTest {
+    private static SubArea study;
+    private static Agent carol;
+    private static Agent dave;
+
+    @BeforeAll
+    static void setUp() {
+        study = SubArea.createSubArea("Study", List.of(item("lamp", "off")));
+
+        var house = Area.createArea("Observe House", List.of(study), "A house", Area.Category.HOUSE);
+        WorldMap.GLOBAL.addAreas(List.of(house));
+
+        carol = new Agent("Carol", 35, List.of("tidy"), new ArrayMemoryStream(), study, "reading", "early bird", house);
+        dave = new Agent("Dave", 50, List.of("quiet"), new ArrayMemoryStream(), study, "napping", "night owl", house);
+    }
+
+    private static Item item(String name, String status) {
+        var item = new Item();
+        item.setName(name);
+        item.setStatus(status);
+        return item;
+    }
+
+    @Test
+    void onlyCallsTheLLMWhenSomeoneElseChangedSomething() {
+        var full = Agent.fullObservations.get();
+        var diff = Agent.diffObservations.get();
+        var skipped = Agent.skippedObservations.get();
+
+        carol.observe().join();
+        assertEquals(full + 1, Agent.fullObservations.get());
+
+        // Nobody's changed anything but Carol herself
+        carol.setCurrentAction("writing a letter");
+        carol.observe().join();
+
+        assertEquals(full + 1, Agent.fullObservations.get());
+        assertEquals(diff, Agent.diffObservations.get());
+        assertEquals(skipped + 1, Agent.skippedObservations.get());
+
+        // Dave's doing something else now
+        dave.setCurrentAction("making tea");
+        carol.observe().join();
+
+        assertEquals(full + 1, Agent.fullObservations.get());
+        assertEquals(diff + 1, Agent.diffObservations.get());
+
+        // And so's the lamp
+        study.findAndUpdateItem("lamp", "on");
+        carol.observe().join();
+
+        assertEquals(diff + 2, Agent.diffObservations.get());
+        assertEquals(skipped + 1, Agent.skippedObservations.get());
+    }
+}
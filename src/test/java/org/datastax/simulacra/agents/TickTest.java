@@ -0,0 +1,100 @@
+package org.datastax.simulacra.agents;
+
+import org.datastax.simulacra.agents.Agent.Tick;
+import org.datastax.simulacra.ai.StandInLLMService;
+import org.datastax.simulacra.ai.StandInLLMService.Latency;
+import org.datastax.simulacra.environment.Area;
+import org.datastax.simulacra.environment.Item;
+import org.datastax.simulacra.environment.SubArea;
+import org.datastax.simulacra.environment.WorldMap;
+import org.datastax.simulacra.memorystream.ArrayMemoryStream;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static com.theokanning.openai.service.OpenAiService.defaultObjectMapper;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The fused tick's response, and the enum providers it's asked for w/.
+ */
+class TickTest {
+    private static SubArea kitchen;
+    private static SubArea garden;
+    private static Agent alice;
+
+    @BeforeAll
+    static void setUp() {
+        kitchen = SubArea.createSubArea("Kitchen", List.of(item("kettle", "idle"), item("stove", "off")));
+        garden = SubArea.createSubArea("Garden", List.of());
+
+        var house = Area.createArea("Tick House", List.of(kitchen, garden), "A house", Area.Category.HOUSE);
+        WorldMap.GLOBAL.addAreas(List.of(house));
+
+        alice = new Agent("Alice", 30, List.of("curious"), new ArrayMemoryStream(), kitchen, "reading", "early bird", house);
+        new Agent("Bob", 40, List.of("calm"), new ArrayMemoryStream(), kitchen, "cooking", "night owl", house);
+    }
+
+    private static Item item(String name, String status) {
+        var item = new Item();
+        item.setName(name);
+        item.setStatus(status);
+        return item;
+    }
+
+    @Test
+    void providersLineUpWithTheEnumFields() {
+        var llm = new StandInLLMService(new Latency.Fixed(0), new Latency.Fixed(0), 0, 1, 0, 8);
+
+        for (int i = 0; i < 20; i++) {
+            var tick = llm.query("tick #" + i, Tick.class, alice.tickProviders()).join();
+
+            assertEquals("bob", tick.talkTo());
+            assertTrue(Set.of("kettle", "stove").containsAll(tick.items()), tick.items().toString());
+            assertTrue(WorldMap.GLOBAL.destinations().contains(tick.destination()), tick.destination());
+        }
+    }
+
+    @Test
+    void providersLeaveTheAgentOut() {
+        var providers = alice.tickProviders();
+
+        assertEquals(3, providers.length);
+        assertEquals(Set.of("bob"), Set.copyOf(providers[0]));
+        assertEquals(Set.of("kettle", "stove"), Set.copyOf(providers[1]));
+        assertTrue(providers[2].contains("tick house > garden"));
+    }
+
+    @Test
+    void parsesAResponseTheWayTheModelWritesIt() throws Exception {
+        var json = """
+            {
+              "observation": "Bob is cooking, and the stove is on",
+              "importance": 3,
+              "action": "Help Bob w/ dinner",
+              "replanReason": null,
+              "items": ["stove"],
+              "correspondingItemStatuses": ["on"],
+              "destination": "\\"Tick House > Kitchen\\""
+            }
+            """;
+
+        var tick = defaultObjectMapper().readValue(json, Tick.class);
+
+        assertEquals("Bob is cooking, and the stove is on", tick.observation());
+        assertEquals(3, tick.importance());
+        assertEquals("Help Bob w/ dinner", tick.action());
+        assertNull(tick.replanReason());
+        assertNull(tick.talkTo());
+        assertEquals(List.of("stove"), tick.items());
+        assertEquals(List.of("on"), tick.correspondingItemStatuses());
+
+        // Enum values are sent wrapped in quotes, so they sometimes come back that way
+        assertSame(kitchen, WorldMap.GLOBAL.findDestination(tick.destination()));
+    }
+}
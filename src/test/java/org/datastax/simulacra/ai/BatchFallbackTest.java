@@ -0,0 +1,111 @@
+package org.datastax.simulacra.ai;
+
+import org.datastax.simulacra.ai.FunctionService.BatchPrompt;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.failedFuture;
+import static org.datastax.simulacra.utils.Utils.map;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * {@link FunctionService#queryBatchOrEach}, which batched moment plans go through.
+ */
+class BatchFallbackTest {
+    private static final List<String> KEYS = List.of("alice", "bob", "carol");
+
+    private final List<Map<String, BatchPrompt>> batches = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> singles = Collections.synchronizedList(new ArrayList<>());
+
+    private List<String> run(List<CompletableFuture<BatchPrompt>> prompts, Function<Map<String, BatchPrompt>, Map<String, String>> batch) {
+        var results = FunctionService.queryBatchOrEach(
+            KEYS,
+            prompts,
+            p -> {
+                batches.add(p);
+                return completedFuture(batch.apply(p));
+            },
+            p -> {
+                singles.add(p.prompt());
+                return completedFuture("single " + p.prompt());
+            }
+        );
+        return map(results, CompletableFuture::join);
+    }
+
+    private static List<CompletableFuture<BatchPrompt>> prompts() {
+        return map(KEYS, key -> completedFuture(new BatchPrompt(key + "'s prompt")));
+    }
+
+    @Test
+    void everyoneInTheBatch() {
+        var results = run(prompts(), p -> Map.of("alice", "a", "bob", "b", "carol", "c"));
+
+        assertEquals(List.of("a", "b", "c"), results);
+        assertEquals(1, batches.size());
+        assertEquals(KEYS, List.copyOf(batches.get(0).keySet()));
+        assertEquals(List.of(), singles);
+    }
+
+    @Test
+    void whoeversMissingFromAShortBatchIsQueriedOnTheirOwn() {
+        var results = run(prompts(), p -> Map.of("alice", "a", "carol", "c", "dave", "?"));
+
+        assertEquals(List.of("a", "single bob's prompt", "c"), results);
+        assertEquals(List.of("bob's prompt"), singles);
+    }
+
+    @Test
+    void everyoneIsQueriedOnTheirOwnIfTheBatchFails() {
+        var results = FunctionService.queryBatchOrEach(
+            KEYS,
+            prompts(),
+            p -> failedFuture(new IllegalStateException("bad batch")),
+            p -> completedFuture("single " + p.prompt())
+        );
+
+        assertEquals(map(KEYS, key -> "single " + key + "'s prompt"), map(results, CompletableFuture::join));
+    }
+
+    @Test
+    void aBatchWhichThrowsIsTreatedAsFailed() {
+        var results = FunctionService.queryBatchOrEach(
+            KEYS,
+            prompts(),
+            p -> { throw new IllegalStateException("bad batch"); },
+            p -> completedFuture("single " + p.prompt())
+        );
+
+        assertEquals(map(KEYS, key -> "single " + key + "'s prompt"), map(results, CompletableFuture::join));
+    }
+
+    @Test
+    void aFailedPromptOnlyFailsItsOwnFuture() {
+        var prompts = new ArrayList<>(prompts());
+        prompts.set(1, failedFuture(new IllegalStateException("no prompt")));
+
+        var results = FunctionService.queryBatchOrEach(
+            KEYS,
+            prompts,
+            p -> {
+                batches.add(p);
+                return completedFuture(Map.of("alice", "a", "carol", "c"));
+            },
+            p -> completedFuture("single " + p.prompt())
+        );
+
+        assertEquals("a", results.get(0).join());
+        assertThrows(CompletionException.class, () -> results.get(1).join());
+        assertEquals("c", results.get(2).join());
+        assertEquals(List.of("alice", "carol"), List.copyOf(batches.get(0).keySet()));
+    }
+}
@@ -0,0 +1,66 @@
+package org.datastax.simulacra.ai;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.datastax.simulacra.utils.Utils.map;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BatchingEmbeddingServiceTest {
+    /**
+     * Embeds each text as <code>[length]</code>, remembering how big each call was.
+     */
+    private static final class FakeEmbeddings implements EmbeddingService {
+        private final List<Integer> calls = new ArrayList<>();
+        private final int drop;
+
+        private FakeEmbeddings(int drop) {
+            this.drop = drop;
+        }
+
+        @Override
+        public CompletableFuture<float[]> embed(String text) {
+            return embed(List.of(text)).thenApply(l -> l.get(0));
+        }
+
+        @Override
+        public synchronized CompletableFuture<List<float[]>> embed(List<String> texts) {
+            calls.add(texts.size());
+            var embeddings = map(texts, text -> new float[] { text.length() });
+            return completedFuture(embeddings.subList(0, embeddings.size() - drop));
+        }
+    }
+
+    @Test
+    void batchesConcurrentRequests() throws Exception {
+        var delegate = new FakeEmbeddings(0);
+        var batcher = new BatchingEmbeddingService(delegate, 4, 1000, 1);
+
+        var futures = List.of(batcher.embed("a"), batcher.embed("bb"), batcher.embed("ccc"), batcher.embed("dddd"));
+
+        for (int i = 0; i < futures.size(); i++) {
+            assertArrayEquals(new float[] { i + 1 }, futures.get(i).get(1, TimeUnit.SECONDS));
+        }
+        assertEquals(List.of(4), delegate.calls);
+    }
+
+    @Test
+    void failsTheWholeBatchIfTheDelegateReturnsTooFew() {
+        var batcher = new BatchingEmbeddingService(new FakeEmbeddings(1), 3, 1000, 1);
+        var futures = List.of(batcher.embed("a"), batcher.embed("bb"), batcher.embed("ccc"));
+
+        for (var future : futures) {
+            var e = assertThrows(ExecutionException.class, () -> future.get(1, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalStateException.class, e.getCause());
+        }
+    }
+}
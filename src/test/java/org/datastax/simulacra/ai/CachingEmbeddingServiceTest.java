@@ -0,0 +1,104 @@
+package org.datastax.simulacra.ai;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.datastax.simulacra.utils.Utils.map;
+
+class CachingEmbeddingServiceTest {
+    /**
+     * Embeds each text as <code>[value, length]</code>, counting how many texts it's been asked for.
+     */
+    private static final class FakeEmbeddings implements EmbeddingService {
+        private final float value;
+        private final AtomicInteger embedded = new AtomicInteger();
+        private volatile boolean dropLast = false;
+
+        private FakeEmbeddings(float value) {
+            this.value = value;
+        }
+
+        @Override
+        public CompletableFuture<float[]> embed(String text) {
+            return embed(List.of(text)).thenApply(l -> l.get(0));
+        }
+
+        @Override
+        public CompletableFuture<List<float[]>> embed(List<String> texts) {
+            embedded.addAndGet(texts.size());
+            var embeddings = map(texts, text -> new float[] { value, text.length() });
+            return completedFuture((dropLast) ? embeddings.subList(0, embeddings.size() - 1) : embeddings);
+        }
+    }
+
+    @Test
+    void servesRepeatsFromMemory() throws Exception {
+        var delegate = new FakeEmbeddings(1);
+        var cache = new CachingEmbeddingService(delegate, "test", 0, 100, "");
+
+        cache.embed(List.of("a", "bb")).get();
+        var again = cache.embed(List.of("bb", "a")).get();
+
+        assertEquals(2, delegate.embedded.get());
+        assertArrayEquals(new float[] { 1, 2 }, again.get(0));
+    }
+
+    @Test
+    void failsEveryTextIfTheDelegateReturnsTooFew() throws Exception {
+        var delegate = new FakeEmbeddings(1);
+        var cache = new CachingEmbeddingService(delegate, "test", 0, 100, "");
+
+        delegate.dropLast = true;
+        var short1 = cache.embed(List.of("a", "bb", "ccc"));
+        assertThrows(ExecutionException.class, () -> short1.get(1, TimeUnit.SECONDS));
+
+        // Nothing's left in flight, so asking again goes back to the delegate rather than hanging
+        delegate.dropLast = false;
+        var retried = cache.embed(List.of("a", "bb", "ccc")).get(1, TimeUnit.SECONDS);
+
+        assertEquals(3, retried.size());
+        assertEquals(6, delegate.embedded.get());
+    }
+
+    @Test
+    void keepsNamespacesApartOnDisk(@TempDir Path dir) throws Exception {
+        var path = dir.resolve("embeddings.bin").toString();
+
+        var standIn = new FakeEmbeddings(1);
+        new CachingEmbeddingService(standIn, "stand-in/0/2", 0, 100, path).embed("hello").get();
+
+        var local = new FakeEmbeddings(2);
+        var embedding = new CachingEmbeddingService(local, "local/default/0", 0, 100, path).embed("hello").get();
+
+        assertEquals(1, local.embedded.get());
+        assertArrayEquals(new float[] { 2, 5 }, embedding);
+
+        var standInAgain = new FakeEmbeddings(3);
+        var cached = new CachingEmbeddingService(standInAgain, "stand-in/0/2", 0, 100, path).embed("hello").get();
+
+        assertEquals(0, standInAgain.embedded.get());
+        assertArrayEquals(new float[] { 1, 5 }, cached);
+    }
+
+    @Test
+    void ignoresCachedEmbeddingsOfTheWrongSize(@TempDir Path dir) throws Exception {
+        var path = dir.resolve("embeddings.bin").toString();
+        new CachingEmbeddingService(new FakeEmbeddings(1), "test", 0, 100, path).embed("hello").get();
+
+        var delegate = new FakeEmbeddings(2);
+        new CachingEmbeddingService(delegate, "test", 768, 100, path).embed("hello").get();
+
+        assertEquals(1, delegate.embedded.get());
+    }
+}
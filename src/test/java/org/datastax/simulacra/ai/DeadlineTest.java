@@ -0,0 +1,99 @@
+package org.datastax.simulacra.ai;
+
+import org.datastax.simulacra.ai.FunctionService.BatchPrompt;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The default deadline handling in {@link ChatService} & {@link FunctionService}, for services which don't do their
+ * own (e.g. when hedging's not in front of them).
+ */
+class DeadlineTest {
+    /**
+     * Answers prompts starting w/ "fast", and leaves everything else hanging.
+     */
+    private static final class Service implements ChatService, FunctionService {
+        private final List<CompletableFuture<?>> calls = new CopyOnWriteArrayList<>();
+
+        @Override
+        public CompletableFuture<String> query(String prompt) {
+            return call(prompt, prompt);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> CompletableFuture<T> query(String prompt, Class<T> response, Collection<?>... providers) {
+            return call(prompt, (T) prompt);
+        }
+
+        private <T> CompletableFuture<T> call(String prompt, T answer) {
+            var call = (prompt.startsWith("fast")) ? CompletableFuture.completedFuture(answer) : new CompletableFuture<T>();
+            calls.add(call);
+            return call;
+        }
+    }
+
+    private final Service service = new Service();
+
+    @Test
+    void chatCallIsCancelledWhenTheDeadlinePasses() {
+        var result = service.query("slow", Instant.now().plusMillis(50));
+
+        assertTimedOut(result);
+        assertTrue(service.calls.get(0).isCancelled());
+    }
+
+    @Test
+    void functionCallIsCancelledWhenTheDeadlinePasses() {
+        var result = service.query("slow", Instant.now().plusMillis(50), String.class);
+
+        assertTimedOut(result);
+        assertTrue(service.calls.get(0).isCancelled());
+    }
+
+    @Test
+    void callsWhichMakeItAreLeftAlone() throws Exception {
+        var result = service.query("fast", Instant.now().plusSeconds(5));
+
+        assertEquals("fast", result.get(5, TimeUnit.SECONDS));
+        assertFalse(service.calls.get(0).isCancelled());
+    }
+
+    @Test
+    void batchCancelsWhicheverPromptsAreStillGoing() {
+        var prompts = Map.of("a", new BatchPrompt("fast a"), "b", new BatchPrompt("slow b"), "c", new BatchPrompt("slow c"));
+        var result = service.queryBatch("", prompts, Instant.now().plusMillis(50), String.class);
+
+        assertTimedOut(result);
+        assertEquals(3, service.calls.size());
+        assertEquals(2, service.calls.stream().filter(CompletableFuture::isCancelled).count());
+    }
+
+    @Test
+    void batchWithoutADeadlineHasWhatCameBack() throws Exception {
+        var prompts = Map.of("a", new BatchPrompt("fast a"), "b", new BatchPrompt("fast b"));
+        var result = service.queryBatch("", prompts, null, String.class);
+
+        assertEquals(Map.of("a", "fast a", "b", "fast b"), result.get(5, TimeUnit.SECONDS));
+    }
+
+    private static void assertTimedOut(CompletableFuture<?> result) {
+        var e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, e.getCause());
+    }
+}
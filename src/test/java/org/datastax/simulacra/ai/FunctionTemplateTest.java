@@ -0,0 +1,116 @@
+package org.datastax.simulacra.ai;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.TextNode;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.StreamSupport;
+
+import static com.theokanning.openai.service.OpenAiService.defaultObjectMapper;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FunctionTemplateTest {
+    private final ObjectMapper mapper = defaultObjectMapper();
+
+    @FunctionResponse(desc = "Where to go next")
+    record Move(
+        @EnumType
+        String destination,
+        String reason,
+        @EnumType
+        String companion
+    ) {}
+
+    private final FunctionTemplate template = FunctionTemplate.compile(Move.class, "some-model", mapper);
+
+    @Test
+    void fillsInThePromptAndEnums() throws Exception {
+        var prompt = "Say \"hi\"\nthen go";
+        var json = mapper.readTree(template.render(prompt, new Collection<?>[] { List.of("park", "cafe"), List.of("Bob") }));
+
+        assertEquals("some-model", json.get("model").asText());
+        assertEquals(prompt, json.at("/messages/0/content").asText());
+        assertEquals("Move", json.at("/function_call/name").asText());
+
+        var properties = json.at("/functions/0/parameters/properties");
+
+        // String values have always been sent wrapped in quotes
+        assertEquals(List.of("\"park\"", "\"cafe\""), values(properties.at("/destination/enum")));
+        assertEquals(List.of("\"Bob\""), values(properties.at("/companion/enum")));
+        assertFalse(properties.get("reason").has("enum"));
+    }
+
+    @Test
+    void leavesTheEnumsOutWithoutProviders() throws Exception {
+        var json = mapper.readTree(template.render("go", new Collection<?>[0]));
+        var properties = json.at("/functions/0/parameters/properties");
+
+        assertFalse(properties.get("destination").has("enum"));
+        assertFalse(properties.get("companion").has("enum"));
+    }
+
+    @Test
+    void rendersTheSameEveryTime() {
+        var providers = new Collection<?>[] { List.of("park"), List.of("Bob") };
+        assertEquals(template.render("go", providers), template.render("go", providers));
+    }
+
+    @Test
+    void rejectsTooFewProviders() {
+        assertThrows(IllegalArgumentException.class, () -> template.render("go", new Collection<?>[] { List.of("park") }));
+    }
+
+    @Test
+    void parsesArgumentsEitherAsAStringOrATree() throws Exception {
+        var arguments = "{\"destination\": \"park\", \"reason\": \"sunny\", \"companion\": \"Bob\"}";
+        var expected = new Move("park", "sunny", "Bob");
+
+        assertEquals(expected, template.parse(TextNode.valueOf(arguments), mapper));
+        assertEquals(expected, template.parse(mapper.readTree(arguments), mapper));
+    }
+
+    @Test
+    void batchesRequireEveryKey() throws Exception {
+        var providers = new LinkedHashMap<String, Collection<?>[]>();
+        providers.put("Alice", new Collection<?>[] { List.of("park"), List.of("Bob") });
+        providers.put("Bob", new Collection<?>[] { List.of("cafe"), List.of("Alice") });
+
+        var json = mapper.readTree(template.renderBatch("batch prompt", providers, mapper));
+        var parameters = json.at("/functions/0/parameters");
+
+        assertEquals("MoveBatch", json.at("/functions/0/name").asText());
+        assertEquals("MoveBatch", json.at("/function_call/name").asText());
+        assertEquals(List.of("Alice", "Bob"), values(parameters.get("required")));
+        assertEquals(List.of("\"cafe\""), values(parameters.at("/properties/Bob/properties/destination/enum")));
+    }
+
+    @Test
+    void batchesSkipResponsesWhichDontParse() {
+        var arguments = TextNode.valueOf("""
+            {"Alice": {"destination": "park", "reason": "sunny", "companion": "Bob"}, "Bob": [1, 2]}
+        """);
+
+        Map<String, Move> results = template.parseBatch(arguments, mapper);
+        assertEquals(Map.of("Alice", new Move("park", "sunny", "Bob")), results);
+    }
+
+    @Test
+    void batchPromptsGetAHeaderPerKey() {
+        var prompts = new LinkedHashMap<String, FunctionService.BatchPrompt>();
+        prompts.put("Alice", new FunctionService.BatchPrompt("a's prompt"));
+        prompts.put("Bob", new FunctionService.BatchPrompt("b's prompt"));
+
+        assertEquals("pre\n\n### Alice\na's prompt\n\n### Bob\nb's prompt", FunctionTemplate.batchPrompt("pre", prompts));
+    }
+
+    private static List<String> values(JsonNode array) {
+        return StreamSupport.stream(array.spliterator(), false).map(JsonNode::asText).toList();
+    }
+}
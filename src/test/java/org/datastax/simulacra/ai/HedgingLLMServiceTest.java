@@ -0,0 +1,81 @@
+package org.datastax.simulacra.ai;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.CompletableFuture.delayedExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HedgingLLMServiceTest {
+    /**
+     * Answers after <code>firstAttemptMs</code> the first time it's asked something, and after 10ms any time after.
+     */
+    private static final class FakeChat implements ChatService {
+        private volatile long firstAttemptMs;
+        private final Map<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+
+        @Override
+        public CompletableFuture<String> query(String prompt) {
+            var attempt = attempts.computeIfAbsent(prompt, k -> new AtomicInteger()).getAndIncrement();
+            var delay = (attempt == 0) ? firstAttemptMs : 10;
+
+            return CompletableFuture.supplyAsync(() -> prompt + " #" + attempt, delayedExecutor(delay, MILLISECONDS));
+        }
+    }
+
+    @Test
+    void hedgesOffOfRecentLatenciesOnly() throws Exception {
+        var chat = new FakeChat();
+        var service = new HedgingLLMService(chat, null, 95, 1, 20);
+
+        // A slow warm-up, which would keep the threshold way up if it were never forgotten
+        chat.firstAttemptMs = 1000;
+        warmUp(service, "slow");
+
+        chat.firstAttemptMs = 10;
+        warmUp(service, "fast");
+
+        // The first attempt at this would take 500ms, well under the warm-up's p95, but way over the recent one's
+        chat.firstAttemptMs = 500;
+        var start = System.nanoTime();
+        var response = service.query("tail").get(5, TimeUnit.SECONDS);
+
+        // The hedge's response, not the first attempt's
+        assertEquals("tail #1", response);
+        assertTrue((System.nanoTime() - start) / 1e6 < 400);
+    }
+
+    @Test
+    void failsOnceTheDeadlinePasses() {
+        var chat = new FakeChat();
+        chat.firstAttemptMs = 2000;
+
+        var service = new HedgingLLMService(chat, null, 0, 0, 20);
+        var future = service.query("slow", Instant.now().plusMillis(100));
+
+        var e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, e.getCause());
+    }
+
+    private static void warmUp(HedgingLLMService service, String prefix) {
+        var futures = new ArrayList<CompletableFuture<String>>();
+
+        for (int i = 0; i < 20; i++) {
+            futures.add(service.query(prefix + i));
+        }
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+    }
+}
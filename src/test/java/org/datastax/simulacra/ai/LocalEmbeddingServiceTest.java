@@ -0,0 +1,200 @@
+package org.datastax.simulacra.ai;
+
+import com.sun.net.httpserver.HttpServer;
+import org.datastax.simulacra.ai.LocalEmbeddingService.Protocol;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntUnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LocalEmbeddingServiceTest {
+    private HttpServer server;
+
+    /**
+     * Content types of the requests the server's seen.
+     */
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+
+    private static final String OCTET_STREAM = "application/octet-stream";
+    private static final String JSON = "application/json";
+
+    /**
+     * Answer a binary request w/ a JSON 200, like a service which ignores the content type would.
+     */
+    private static final int JSON_INSTEAD = -1;
+
+    @AfterEach
+    void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void encodesLengthPrefixedSentences() {
+        var buffer = ByteBuffer.wrap(LocalEmbeddingService.encodeBinary(List.of("hi", "héllo"))).order(ByteOrder.LITTLE_ENDIAN);
+
+        assertEquals(2, buffer.getInt());
+        assertEquals("hi", readString(buffer));
+        assertEquals("héllo", readString(buffer));
+        assertEquals(0, buffer.remaining());
+    }
+
+    @Test
+    void decodesTheMatrixRowByRow() {
+        var buffer = matrix(new float[][] { { 1, 2, 3 }, { 4, 5, 6 } });
+        var embeddings = LocalEmbeddingService.decodeBinary(buffer);
+
+        assertEquals(2, embeddings.size());
+        assertArrayEquals(new float[] { 1, 2, 3 }, embeddings.get(0));
+        assertArrayEquals(new float[] { 4, 5, 6 }, embeddings.get(1));
+    }
+
+    @Test
+    void keepsUsingBinaryAfterABadRequestOnceItsWorked() throws Exception {
+        start(seen -> (seen == 2) ? 400 : 200, 200);
+        var service = new LocalEmbeddingService(url(), Protocol.BINARY);
+
+        assertArrayEquals(new float[] { 1, 2 }, service.embed("good").get(5, TimeUnit.SECONDS));
+        assertThrows(ExecutionException.class, () -> service.embed("bad").get(5, TimeUnit.SECONDS));
+        assertArrayEquals(new float[] { 1, 2 }, service.embed("good").get(5, TimeUnit.SECONDS));
+
+        assertEquals(List.of(OCTET_STREAM, OCTET_STREAM, OCTET_STREAM), requests);
+    }
+
+    @Test
+    void fallsBackToJsonIfBinaryIsUnsupported() throws Exception {
+        start(seen -> 415, 200);
+        var service = new LocalEmbeddingService(url(), Protocol.BINARY);
+
+        assertArrayEquals(new float[] { 1, 2 }, service.embed("first").get(5, TimeUnit.SECONDS));
+        assertArrayEquals(new float[] { 1, 2 }, service.embed("second").get(5, TimeUnit.SECONDS));
+
+        assertEquals(List.of(OCTET_STREAM, JSON, JSON), requests);
+    }
+
+    @Test
+    void decodesJsonSentBackForABinaryRequest() throws Exception {
+        start(seen -> JSON_INSTEAD, 200);
+        var service = new LocalEmbeddingService(url(), Protocol.BINARY);
+
+        assertArrayEquals(new float[] { 1, 2 }, service.embed("first").get(5, TimeUnit.SECONDS));
+        assertArrayEquals(new float[] { 1, 2 }, service.embed("second").get(5, TimeUnit.SECONDS));
+
+        assertEquals(List.of(OCTET_STREAM, JSON), requests);
+    }
+
+    @Test
+    void retriesAsJsonIfBinaryHasNeverWorked() throws Exception {
+        start(seen -> 500, 200);
+        var service = new LocalEmbeddingService(url(), Protocol.BINARY);
+
+        assertArrayEquals(new float[] { 1, 2 }, service.embed("first").get(5, TimeUnit.SECONDS));
+        assertArrayEquals(new float[] { 1, 2 }, service.embed("second").get(5, TimeUnit.SECONDS));
+
+        assertEquals(List.of(OCTET_STREAM, JSON, JSON), requests);
+    }
+
+    @Test
+    void staysOnBinaryIfTheJsonRetryFailsToo() throws Exception {
+        start(seen -> (seen == 1) ? 400 : 200, 400);
+        var service = new LocalEmbeddingService(url(), Protocol.BINARY);
+
+        assertThrows(ExecutionException.class, () -> service.embed("bad").get(5, TimeUnit.SECONDS));
+        assertArrayEquals(new float[] { 1, 2 }, service.embed("good").get(5, TimeUnit.SECONDS));
+
+        assertEquals(List.of(OCTET_STREAM, JSON, OCTET_STREAM), requests);
+    }
+
+    /**
+     * Answers the nth binary request w/ whatever status <code>binaryStatus</code> gives for it (a matrix of
+     * <code>[1, 2]</code> per sentence for a 200, or JSON for {@link #JSON_INSTEAD}), and JSON requests w/
+     * <code>jsonStatus</code> (<code>[[1, 2]]</code> for a 200).
+     */
+    private void start(IntUnaryOperator binaryStatus, int jsonStatus) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        var binarySeen = new AtomicInteger();
+
+        server.createContext("/embed", exchange -> {
+            var contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            var body = exchange.getRequestBody().readAllBytes();
+            requests.add(contentType);
+
+            var status = (contentType.equals(OCTET_STREAM))
+                ? binaryStatus.applyAsInt(binarySeen.incrementAndGet())
+                : jsonStatus;
+
+            byte[] response;
+
+            if (status != 200 && status != JSON_INSTEAD) {
+                exchange.sendResponseHeaders(status, -1);
+                exchange.close();
+                return;
+            }
+
+            if (contentType.equals(OCTET_STREAM) && status == 200) {
+                var sentences = ByteBuffer.wrap(body).order(ByteOrder.LITTLE_ENDIAN).getInt();
+                var rows = new float[sentences][];
+
+                for (int i = 0; i < sentences; i++) {
+                    rows[i] = new float[] { 1, 2 };
+                }
+
+                response = matrix(rows).array();
+                exchange.getResponseHeaders().add("Content-Type", OCTET_STREAM);
+            } else {
+                response = "[[1.0, 2.0]]".getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", JSON);
+            }
+
+            exchange.sendResponseHeaders(200, response.length);
+
+            try (var out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+
+        server.start();
+    }
+
+    private String url() {
+        return "http://localhost:" + server.getAddress().getPort() + "/embed";
+    }
+
+    private static ByteBuffer matrix(float[][] rows) {
+        var dims = rows[0].length;
+        var buffer = ByteBuffer.allocate(2 * Integer.BYTES + rows.length * dims * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(rows.length);
+        buffer.putInt(dims);
+
+        for (var row : rows) {
+            for (var value : row) {
+                buffer.putFloat(value);
+            }
+        }
+
+        return buffer.flip();
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        var bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
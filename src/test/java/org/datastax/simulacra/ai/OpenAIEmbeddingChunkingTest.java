@@ -0,0 +1,56 @@
+package org.datastax.simulacra.ai;
+
+import org.datastax.simulacra.ai.OpenAIService.EmbeddingData;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OpenAIEmbeddingChunkingTest {
+    @Test
+    void chunksByInputCount() {
+        var chunks = OpenAIService.chunkForEmbedding(List.of("a", "b", "c", "d", "e"), 2, 1000);
+        assertEquals(List.of(List.of("a", "b"), List.of("c", "d"), List.of("e")), chunks);
+    }
+
+    @Test
+    void chunksByRoughTokenCount() {
+        // ~4 chars per token, +1, so each of these is ~3 tokens
+        var texts = List.of("12345678", "12345678", "12345678");
+        var chunks = OpenAIService.chunkForEmbedding(texts, 100, 6);
+
+        assertEquals(List.of(List.of("12345678", "12345678"), List.of("12345678")), chunks);
+    }
+
+    @Test
+    void neverLeavesAnOversizedTextOut() {
+        var chunks = OpenAIService.chunkForEmbedding(List.of("x".repeat(100), "y"), 100, 5);
+        assertEquals(List.of(List.of("x".repeat(100)), List.of("y")), chunks);
+    }
+
+    @Test
+    void putsEmbeddingsBackInOrderByIndex() {
+        var embeddings = OpenAIService.toEmbeddings(List.of("a", "b"), List.of(
+            new EmbeddingData(1, new float[] { 2 }),
+            new EmbeddingData(0, new float[] { 1 })
+        ));
+
+        assertArrayEquals(new float[] { 1 }, embeddings.get(0));
+        assertArrayEquals(new float[] { 2 }, embeddings.get(1));
+    }
+
+    @Test
+    void rejectsMissingOrDuplicateIndexes() {
+        assertThrows(IllegalStateException.class, () -> OpenAIService.toEmbeddings(List.of("a", "b"), List.of(
+            new EmbeddingData(0, new float[] { 1 })
+        )));
+
+        assertThrows(IllegalStateException.class, () -> OpenAIService.toEmbeddings(List.of("a", "b"), List.of(
+            new EmbeddingData(0, new float[] { 1 }),
+            new EmbeddingData(0, new float[] { 2 })
+        )));
+    }
+}
@@ -0,0 +1,76 @@
+package org.datastax.simulacra.ai;
+
+import com.sun.net.httpserver.HttpServer;
+import org.datastax.simulacra.stubs.OpenAIStubServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.datastax.simulacra.utils.Utils.compactText;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Embeds through the actual HTTP path, against {@link OpenAIStubServer} (which sends each chunk's embeddings back
+ * in reverse order).
+ */
+class OpenAIEmbeddingEndpointTest {
+    private static final long LATENCY_MS = 300;
+
+    private final OpenAIStubServer stub = new OpenAIStubServer(LATENCY_MS, Integer.MAX_VALUE);
+    private HttpServer server;
+
+    @AfterEach
+    void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void embedsAcrossChunksInOrder() throws Exception {
+        server = stub.start(0);
+        var service = new OpenAIService("http://localhost:" + server.getAddress().getPort() + "/", 0);
+
+        var texts = IntStream.range(0, 10).mapToObj(i -> "text  number\n" + i).toList();
+
+        var start = System.nanoTime();
+        var embeddings = service.embed(texts, 3, 1000).get(10, TimeUnit.SECONDS);
+        var elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(4, stub.embeddingRequests());
+        assertEquals(10, stub.embeddingInputs());
+        assertEquals(10, embeddings.size());
+
+        for (int i = 0; i < texts.size(); i++) {
+            assertArrayEquals(StandInLLMService.embedding(compactText(texts.get(i)), 1536), embeddings.get(i), 1e-6f);
+        }
+
+        // The chunks are sent at once, rather than one after the other
+        assertTrue(elapsedMs < 4 * LATENCY_MS, "took " + elapsedMs + "ms");
+    }
+
+    @Test
+    void embedsASingleText() throws Exception {
+        server = stub.start(0);
+        var service = new OpenAIService("http://localhost:" + server.getAddress().getPort() + "/", 0);
+
+        var embedding = service.embed("hello").get(10, TimeUnit.SECONDS);
+
+        assertEquals(1, stub.embeddingRequests());
+        assertArrayEquals(StandInLLMService.embedding("hello", 1536), embedding, 1e-6f);
+    }
+
+    @Test
+    void emptyInputMakesNoRequests() throws Exception {
+        server = stub.start(0);
+        var service = new OpenAIService("http://localhost:" + server.getAddress().getPort() + "/", 0);
+
+        assertEquals(List.of(), service.embed(List.of(), 3, 1000).get(10, TimeUnit.SECONDS));
+        assertEquals(0, stub.embeddingRequests());
+    }
+}
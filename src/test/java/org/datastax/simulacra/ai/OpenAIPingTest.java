@@ -0,0 +1,45 @@
+package org.datastax.simulacra.ai;
+
+import com.sun.net.httpserver.HttpServer;
+import org.datastax.simulacra.stubs.OpenAIStubServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OpenAIPingTest {
+    private final OpenAIStubServer stub = new OpenAIStubServer(0, Integer.MAX_VALUE);
+    private HttpServer server;
+
+    @AfterEach
+    void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void pingsTheModelsEndpointInsteadOfChatting() throws Exception {
+        server = stub.start(0);
+        var service = new OpenAIService("http://localhost:" + server.getAddress().getPort() + "/", 0);
+
+        service.ping().get(5, TimeUnit.SECONDS);
+
+        assertEquals(1, stub.modelRequests());
+        assertEquals(0, stub.chatRequests());
+    }
+
+    @Test
+    void failsWhenTheEndpointIsDown() throws Exception {
+        server = stub.start(0);
+        var service = new OpenAIService("http://localhost:" + server.getAddress().getPort() + "/", 0);
+        server.stop(0);
+        server = null;
+
+        assertThrows(ExecutionException.class, () -> service.ping().get(5, TimeUnit.SECONDS));
+    }
+}
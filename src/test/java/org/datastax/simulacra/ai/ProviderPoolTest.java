@@ -0,0 +1,168 @@
+package org.datastax.simulacra.ai;
+
+import org.datastax.simulacra.ai.ProviderPool.Balancing;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.failedFuture;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProviderPoolTest {
+    /**
+     * An endpoint which can be taken down & brought back up, counting the calls it gets.
+     */
+    private static final class FakeEndpoint {
+        private final String name;
+        private volatile boolean up = true;
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger healthChecks = new AtomicInteger();
+
+        private FakeEndpoint(String name) {
+            this.name = name;
+        }
+
+        private CompletableFuture<String> call() {
+            calls.incrementAndGet();
+            return (up) ? completedFuture(name) : failedFuture(new IOException(name + " is down"));
+        }
+
+        private CompletableFuture<String> healthCheck() {
+            healthChecks.incrementAndGet();
+            return call();
+        }
+    }
+
+    private final FakeEndpoint a = new FakeEndpoint("a");
+    private final FakeEndpoint b = new FakeEndpoint("b");
+
+    private ProviderPool<FakeEndpoint> pool(Balancing balancing, long ejectMillis) {
+        var endpoints = new LinkedHashMap<String, FakeEndpoint>();
+        endpoints.put("a", a);
+        endpoints.put("b", b);
+        return new ProviderPool<>("test", endpoints, balancing, 2, ejectMillis, FakeEndpoint::healthCheck);
+    }
+
+    @Test
+    void spreadsCallsAcrossHealthyEndpoints() {
+        var pool = pool(Balancing.LEAST_OUTSTANDING, 10_000);
+
+        for (int i = 0; i < 10; i++) {
+            pool.call(FakeEndpoint::call).join();
+        }
+
+        assertEquals(5, a.calls.get());
+        assertEquals(5, b.calls.get());
+    }
+
+    @Test
+    void failsOverToAnotherEndpoint() throws Exception {
+        var pool = pool(Balancing.EWMA, 10_000);
+        a.up = false;
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals("b", pool.call(FakeEndpoint::call).get(1, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void onlyFailsOnceEveryEndpointHas() {
+        var pool = pool(Balancing.LEAST_OUTSTANDING, 10_000);
+        a.up = false;
+        b.up = false;
+
+        assertThrows(ExecutionException.class, () -> pool.call(FakeEndpoint::call).get(1, TimeUnit.SECONDS));
+        assertEquals(1, a.calls.get());
+        assertEquals(1, b.calls.get());
+    }
+
+    @Test
+    void doesntFailOverIfTheCallSaysNotTo() {
+        var pool = pool(Balancing.LEAST_OUTSTANDING, 10_000);
+        a.up = false;
+        b.up = false;
+
+        assertThrows(ExecutionException.class, () -> pool.call(FakeEndpoint::call, () -> false).get(1, TimeUnit.SECONDS));
+        assertEquals(1, a.calls.get() + b.calls.get());
+    }
+
+    @Test
+    void ejectsAFailingEndpointThenPutsItBackOnceItsHealthy() throws Exception {
+        var pool = pool(Balancing.LEAST_OUTSTANDING, 100);
+        a.up = false;
+
+        // Enough calls for a to fail twice in a row and get ejected
+        for (int i = 0; i < 4; i++) {
+            pool.call(FakeEndpoint::call).join();
+        }
+        assertTrue(pool.stats().contains("a [ejected]"), pool.stats());
+
+        var callsWhileEjected = a.calls.get();
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals("b", pool.call(FakeEndpoint::call).join());
+        }
+        assertEquals(callsWhileEjected, a.calls.get());
+
+        // Still down when it's first checked, so it's ejected again (for twice as long)
+        waitFor(() -> a.healthChecks.get() >= 1);
+        assertTrue(pool.stats().contains("a [ejected]"), pool.stats());
+
+        a.up = true;
+        waitFor(() -> pool.stats().contains("a [healthy]"));
+        assertTrue(a.healthChecks.get() >= 2);
+
+        var before = a.calls.get();
+
+        for (int i = 0; i < 10; i++) {
+            pool.call(FakeEndpoint::call).join();
+        }
+        assertTrue(a.calls.get() > before);
+    }
+
+    @Test
+    void stillTriesEjectedEndpointsIfThatsAllThereIs() throws Exception {
+        var pool = pool(Balancing.LEAST_OUTSTANDING, 10_000);
+        a.up = false;
+        b.up = false;
+
+        for (int i = 0; i < 4; i++) {
+            pool.call(FakeEndpoint::call).exceptionally(e -> null).join();
+        }
+        assertTrue(pool.stats().contains("a [ejected]") && pool.stats().contains("b [ejected]"), pool.stats());
+
+        b.up = true;
+        assertEquals("b", pool.call(FakeEndpoint::call).get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void cancellingTheCallCancelsTheAttempt() {
+        var pending = new CompletableFuture<String>();
+        var pool = pool(Balancing.LEAST_OUTSTANDING, 10_000);
+
+        var call = pool.call(endpoint -> pending);
+        call.cancel(true);
+
+        assertTrue(pending.isCancelled());
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Timed out waiting");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.datastax.simulacra.ai;
+
+import org.datastax.simulacra.ai.RequestLimiter.Outcome;
+import org.datastax.simulacra.ai.RequestLimiter.Permit;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestLimiterTest {
+    @Test
+    void holdsRequestsPastTheLimitInOrder() throws Exception {
+        var limiter = new RequestLimiter("test", 2, 2, 0, 0);
+        var permits = new ArrayList<CompletableFuture<Permit>>();
+
+        for (int i = 0; i < 4; i++) {
+            permits.add(limiter.acquire(1));
+        }
+
+        assertTrue(permits.get(0).isDone() && permits.get(1).isDone());
+        assertFalse(permits.get(2).isDone() || permits.get(3).isDone());
+
+        permits.get(0).get().release(Outcome.SUCCESS);
+        assertTrue(permits.get(2).isDone());
+        assertFalse(permits.get(3).isDone());
+
+        permits.get(1).get().release(Outcome.FAILED);
+        assertTrue(permits.get(3).isDone());
+    }
+
+    @Test
+    void releasingTwiceOnlyCountsOnce() throws Exception {
+        var limiter = new RequestLimiter("test", 1, 1, 0, 0);
+        var first = limiter.acquire(1).get();
+        var second = limiter.acquire(1);
+        var third = limiter.acquire(1);
+
+        first.release(Outcome.SUCCESS);
+        first.release(Outcome.SUCCESS);
+
+        assertTrue(second.isDone());
+        assertFalse(third.isDone());
+    }
+
+    @Test
+    void cancelledWaitersGiveUpTheirSpot() throws Exception {
+        var limiter = new RequestLimiter("test", 1, 1, 0, 0);
+        var first = limiter.acquire(1).get();
+        var cancelled = limiter.acquire(1);
+        var next = limiter.acquire(1);
+
+        cancelled.cancel(false);
+        first.release(Outcome.SUCCESS);
+
+        assertTrue(next.isDone());
+    }
+
+    @Test
+    void growsOnSuccessAndHalvesOncePerRoundTripWhenThrottled() throws Exception {
+        var limiter = new RequestLimiter("test", 4, 64, 0, 0);
+
+        // One round trip's worth at the initial limit, all of which come back throttled
+        var permits = new ArrayList<Permit>();
+
+        for (int i = 0; i < 4; i++) {
+            permits.add(limiter.acquire(1).get());
+        }
+
+        Thread.sleep(1);
+        permits.get(0).release(Outcome.THROTTLED);
+        assertEquals(2, limiter.limit(), 1e-9);
+
+        // The rest were sent before the limit came down, so they don't bring it down any further
+        for (int i = 1; i < permits.size(); i++) {
+            permits.get(i).release(Outcome.THROTTLED);
+        }
+        assertEquals(2, limiter.limit(), 1e-9);
+
+        var next = limiter.acquire(1).get();
+        next.release(Outcome.SUCCESS);
+        assertEquals(2.5, limiter.limit(), 1e-9);
+    }
+
+    @Test
+    void neverGoesBelowOneOrAboveTheMax() throws Exception {
+        var limiter = new RequestLimiter("test", 1, 2, 0, 0);
+
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire(1).get().release(Outcome.SUCCESS);
+        }
+        assertEquals(2, limiter.limit(), 1e-9);
+
+        for (int i = 0; i < 10; i++) {
+            var permit = limiter.acquire(1).get();
+            Thread.sleep(1);
+            permit.release(Outcome.THROTTLED);
+        }
+        assertEquals(1, limiter.limit(), 1e-9);
+    }
+
+    @Test
+    void waitsOnTheRequestBucket() throws Exception {
+        // 60 rpm holds 10 requests, and refills one a second
+        var limiter = new RequestLimiter("test", 64, 64, 60, 0);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.acquire(1).isDone());
+        }
+
+        var start = System.nanoTime();
+        limiter.acquire(1).get(5, TimeUnit.SECONDS);
+        var waitedMs = (System.nanoTime() - start) / 1e6;
+
+        assertTrue(waitedMs > 500, "only waited " + waitedMs + "ms");
+    }
+
+    @Test
+    void waitsOutAPause() throws Exception {
+        var limiter = new RequestLimiter("test", 1, 1, 0, 0);
+        limiter.pause(Duration.ofMillis(200));
+
+        var start = System.nanoTime();
+        limiter.acquire(1).get(5, TimeUnit.SECONDS);
+
+        assertTrue((System.nanoTime() - start) / 1e6 >= 150);
+    }
+}
@@ -0,0 +1,95 @@
+package org.datastax.simulacra.ai;
+
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.ResponseBody;
+import org.junit.jupiter.api.Test;
+import retrofit2.HttpException;
+import retrofit2.Response;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RetryPolicyTest {
+    private final RetryPolicy policy = new RetryPolicy(3, Duration.ofMillis(100), Duration.ofMillis(1000));
+
+    @Test
+    void retriesRateLimitsServerErrorsAndNetworkErrors() {
+        assertTrue(policy.delay(0, http(429)).isPresent());
+        assertTrue(policy.delay(0, http(500)).isPresent());
+        assertTrue(policy.delay(0, new IOException("connection reset")).isPresent());
+    }
+
+    @Test
+    void doesntRetryBadRequests() {
+        assertEquals(Optional.empty(), policy.delay(0, http(400)));
+        assertEquals(Optional.empty(), policy.delay(0, http(401)));
+        assertEquals(Optional.empty(), policy.delay(0, new IllegalStateException()));
+    }
+
+    @Test
+    void findsTheCauseThroughWrappers() {
+        assertTrue(policy.delay(0, new CompletionException(new RuntimeException(http(503)))).isPresent());
+    }
+
+    @Test
+    void stopsAfterMaxRetries() {
+        assertTrue(policy.delay(2, http(429)).isPresent());
+        assertEquals(Optional.empty(), policy.delay(3, http(429)));
+    }
+
+    @Test
+    void backsOffExponentiallyWithJitterUpToTheMax() {
+        for (int i = 0; i < 100; i++) {
+            var first = policy.delay(0, http(500)).orElseThrow().toMillis();
+            var second = policy.delay(1, http(500)).orElseThrow().toMillis();
+
+            assertTrue(first >= 50 && first <= 100, "first was " + first);
+            assertTrue(second >= 100 && second <= 200, "second was " + second);
+        }
+
+        var capped = new RetryPolicy(30, Duration.ofMillis(100), Duration.ofMillis(1000));
+        assertTrue(capped.delay(25, http(500)).orElseThrow().toMillis() <= 1000);
+    }
+
+    @Test
+    void honorsRetryAfter() {
+        assertEquals(Optional.of(Duration.ofMillis(2500)), policy.delay(0, http(429, "Retry-After", "2.5")));
+        assertEquals(Optional.of(Duration.ofMillis(750)), policy.delay(0, http(429, "retry-after-ms", "750")));
+    }
+
+    @Test
+    void fallsBackToTheBackoffOnAnHttpDate() {
+        var delay = policy.delay(0, http(429, "Retry-After", "Wed, 21 Oct 2015 07:28:00 GMT")).orElseThrow().toMillis();
+        assertTrue(delay <= 100);
+    }
+
+    @Test
+    void throttlesAreRateLimitsOverloadsAndTimeouts() {
+        assertTrue(RetryPolicy.isThrottle(http(429)));
+        assertTrue(RetryPolicy.isThrottle(http(503)));
+        assertTrue(RetryPolicy.isThrottle(new SocketTimeoutException()));
+        assertFalse(RetryPolicy.isThrottle(http(500)));
+    }
+
+    private static HttpException http(int status, String... headers) {
+        var raw = new okhttp3.Response.Builder()
+            .request(new Request.Builder().url("http://localhost/").build())
+            .protocol(Protocol.HTTP_1_1)
+            .code(status)
+            .message("status " + status)
+            .headers(Headers.of(headers))
+            .build();
+
+        return new HttpException(Response.error(ResponseBody.create(MediaType.get("application/json"), "{}"), raw));
+    }
+}
@@ -0,0 +1,65 @@
+package org.datastax.simulacra.ai;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class StreamingFieldParserTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final List<String> fields = new ArrayList<>();
+    private final StreamingFieldParser parser = new StreamingFieldParser(mapper, this::onField);
+
+    private void onField(String name, JsonNode value) {
+        fields.add(name + "=" + value);
+    }
+
+    @Test
+    void firesEachFieldOnceItsValueIsComplete() {
+        parser.feed("{\"action\": \"go to the pa");
+        assertEquals(List.of(), fields);
+
+        parser.feed("rk\", \"with\": [\"Bob\",");
+        assertEquals(List.of("action=\"go to the park\""), fields);
+
+        parser.feed(" \"Alice\"], \"where\": {\"x\": 1, \"y\": {\"z\": 2}}");
+        assertEquals(List.of("action=\"go to the park\"", "with=[\"Bob\",\"Alice\"]", "where={\"x\":1,\"y\":{\"z\":2}}"), fields);
+
+        parser.feed("}");
+        assertEquals(3, fields.size());
+    }
+
+    @Test
+    void numbersFireOnceSomethingEndsThem() {
+        parser.feed("{\"n\": 12");
+        assertEquals(List.of(), fields);
+
+        parser.feed("3, \"ok\": true, \"none\": null}");
+        assertEquals(List.of("n=123", "ok=true", "none=null"), fields);
+    }
+
+    @Test
+    void handlesFragmentsSplitAnywhere() {
+        var json = "{\"a\": \"ünïcödé \\\"quoted\\\"\", \"b\": [1, {\"c\": [2, 3]}], \"d\": -4.5e1}";
+
+        for (var c : json.toCharArray()) {
+            parser.feed(String.valueOf(c));
+        }
+
+        assertEquals(List.of("a=\"ünïcödé \\\"quoted\\\"\"", "b=[1,{\"c\":[2,3]}]", "d=-45.0"), fields);
+        assertEquals(json, parser.text());
+    }
+
+    @Test
+    void stopsQuietlyOnMalformedArgumentsButKeepsTheText() {
+        parser.feed("{\"a\": 1, ");
+        parser.feed("oops: 2, \"b\": 3}");
+
+        assertEquals(List.of("a=1"), fields);
+        assertEquals("{\"a\": 1, oops: 2, \"b\": 3}", parser.text());
+    }
+}
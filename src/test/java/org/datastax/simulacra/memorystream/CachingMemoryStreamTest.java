@@ -0,0 +1,41 @@
+package org.datastax.simulacra.memorystream;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CachingMemoryStreamTest {
+    private static MemoryEntity memory(int hour, String text) {
+        return new MemoryEntity("alice", hour, hour, 1, MemoryType.OBSERVATION, text, new float[] { 1, 0 });
+    }
+
+    @Test
+    void loadedMemoriesKeepTheOrderTheyWereMadeIn() {
+        var delegate = new ArrayMemoryStream();
+
+        // Several per hour, so the order within an hour matters too
+        var saved = IntStream.range(0, 12).mapToObj(i -> memory(i / 4, "m" + i)).toList();
+        delegate.save("alice", saved).join();
+
+        var cache = new CachingMemoryStream(delegate);
+
+        assertEquals(saved, cache.getAllMemories("alice").join());
+        assertEquals(List.of(saved.get(11), saved.get(10), saved.get(9)), cache.getMostRecentMemories("alice", 3).join());
+    }
+
+    @Test
+    void savesWhileCachedComeAfterWhatWasLoaded() {
+        var delegate = new ArrayMemoryStream();
+        delegate.save("alice", List.of(memory(0, "old"))).join();
+
+        var cache = new CachingMemoryStream(delegate);
+        cache.getAllMemories("alice").join();
+        cache.save(memory(0, "new")).join();
+
+        assertEquals(List.of("new", "old"), cache.getMostRecentMemories("alice", 5).join().stream().map(MemoryEntity::memory).toList());
+        assertEquals(List.of("old", "new"), delegate.getAllMemories("alice").join().stream().map(MemoryEntity::memory).toList());
+    }
+}
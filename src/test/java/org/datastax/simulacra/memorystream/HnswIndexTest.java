@@ -0,0 +1,93 @@
+package org.datastax.simulacra.memorystream;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.datastax.simulacra.memorystream.MemoryUtils.normalize;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HnswIndexTest {
+    private static final int DIMS = 64;
+
+    @Test
+    void emptyIndexFindsNothing() {
+        var index = new HnswIndex<Integer>(16, 100);
+        assertEquals(List.of(), index.search(randomVector(new Random(1)), 10, 64));
+    }
+
+    @Test
+    void findsItselfFirst() {
+        var random = new Random(2);
+        var index = new HnswIndex<Integer>(16, 100);
+        var vectors = new ArrayList<float[]>();
+
+        for (int i = 0; i < 500; i++) {
+            vectors.add(randomVector(random));
+            index.add(i, vectors.get(i));
+        }
+
+        for (int i = 0; i < vectors.size(); i += 25) {
+            assertEquals(i, index.search(vectors.get(i), 1, 64).get(0));
+        }
+    }
+
+    @Test
+    void recallAgainstBruteForce() {
+        var random = new Random(3);
+        var index = new HnswIndex<Integer>(16, 100);
+        var k = 10;
+
+        for (int i = 0; i < 2000; i++) {
+            index.add(i, randomVector(random));
+        }
+
+        var hits = 0;
+        var total = 0;
+
+        for (int q = 0; q < 100; q++) {
+            var query = randomVector(random);
+            var exact = index.exactSearch(query, k);
+            var found = new HashSet<>(index.search(query, k, 64));
+
+            hits += (int) exact.stream().filter(found::contains).count();
+            total += exact.size();
+        }
+
+        var recall = (double) hits / total;
+        assertTrue(recall >= 0.9, "recall was " + recall);
+    }
+
+    @Test
+    void exactSearchIsSortedBySimilarity() {
+        var random = new Random(4);
+        var index = new HnswIndex<float[]>(16, 100);
+
+        for (int i = 0; i < 200; i++) {
+            var vector = randomVector(random);
+            index.add(vector, vector);
+        }
+
+        var query = randomVector(random);
+        var results = index.exactSearch(query, 20);
+
+        assertEquals(20, results.size());
+
+        for (int i = 1; i < results.size(); i++) {
+            assertTrue(MemoryUtils.testSimilarity(query, results.get(i - 1)) >= MemoryUtils.testSimilarity(query, results.get(i)));
+        }
+    }
+
+    private static float[] randomVector(Random random) {
+        var vector = new float[DIMS];
+
+        for (int i = 0; i < DIMS; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return normalize(vector);
+    }
+}
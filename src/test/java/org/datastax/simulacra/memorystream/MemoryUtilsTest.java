@@ -0,0 +1,72 @@
+package org.datastax.simulacra.memorystream;
+
+import org.datastax.simulacra.SimClock;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.datastax.simulacra.memorystream.MemoryUtils.calculateRelevanceAndSort;
+import static org.datastax.simulacra.memorystream.MemoryUtils.normalize;
+import static org.datastax.simulacra.memorystream.MemoryUtils.testSimilarity;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MemoryUtilsTest {
+    private static final int DIMS = 32;
+
+    @Test
+    void matchesAFullSortForEachEmbedding() {
+        var random = new Random(7);
+        var memories = new ArrayList<MemoryEntity>();
+
+        for (int i = 0; i < 300; i++) {
+            var hour = random.nextInt(48);
+            memories.add(new MemoryEntity("a", hour, hour, 1 + random.nextInt(10), MemoryType.OBSERVATION, "m" + i, randomVector(random)));
+        }
+
+        var embeddings = List.of(randomVector(random), randomVector(random), randomVector(random));
+        var results = calculateRelevanceAndSort(memories, embeddings, 10);
+
+        assertEquals(embeddings.size(), results.size());
+
+        for (int i = 0; i < embeddings.size(); i++) {
+            var embedding = embeddings.get(i);
+
+            var expected = memories.stream()
+                .sorted(Comparator.comparingDouble((MemoryEntity m) -> score(m, embedding)).reversed())
+                .limit(10)
+                .toList();
+
+            assertEquals(expected, results.get(i));
+        }
+    }
+
+    @Test
+    void limitLargerThanTheMemoriesReturnsThemAll() {
+        var random = new Random(8);
+        var memories = List.of(
+            new MemoryEntity("a", 0, 0, 1, MemoryType.OBSERVATION, "x", randomVector(random)),
+            new MemoryEntity("a", 0, 0, 2, MemoryType.OBSERVATION, "y", randomVector(random))
+        );
+
+        assertEquals(2, calculateRelevanceAndSort(memories, randomVector(random), 10).size());
+        assertEquals(List.of(), calculateRelevanceAndSort(List.of(), randomVector(random), 10));
+    }
+
+    private static double score(MemoryEntity memory, float[] embedding) {
+        var hoursElapsed = SimClock.elapsed().toHours();
+        var recency = memory.lastFetch() * Math.pow(.99, hoursElapsed - memory.lastFetch());
+        return recency + memory.importance() / 10.0 + testSimilarity(memory.embedding(), embedding);
+    }
+
+    private static float[] randomVector(Random random) {
+        var vector = new float[DIMS];
+
+        for (int i = 0; i < DIMS; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return normalize(vector);
+    }
+}
@@ -0,0 +1,79 @@
+package org.datastax.simulacra.memorystream;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlanTest {
+    private static Plan dailyPlan(String... entries) {
+        return new Plan(List.of(entries), List.of());
+    }
+
+    @Test
+    void twentyFourHourTimes() {
+        var plan = dailyPlan("7:00) Wake up", "22:00) Sleep", "23:00) Sleeping");
+
+        assertTrue(plan.isSleepingAt(22));
+        assertTrue(plan.isSleepingAt(23));
+        assertFalse(plan.isSleepingAt(7));
+        assertFalse(plan.isSleepingAt(10));
+    }
+
+    @Test
+    void amAndPmTimes() {
+        var plan = dailyPlan("8pm) Sleep", "9:30 PM) asleep", "6am) Sleep", "7am) Wake up");
+
+        assertTrue(plan.isSleepingAt(20));
+        assertTrue(plan.isSleepingAt(21));
+        assertTrue(plan.isSleepingAt(6));
+        assertFalse(plan.isSleepingAt(8));
+        assertFalse(plan.isSleepingAt(18));
+        assertFalse(plan.isSleepingAt(7));
+    }
+
+    @Test
+    void twelveAmIsMidnightAndTwelvePmIsNoon() {
+        var plan = dailyPlan("12am) Sleep");
+
+        assertTrue(plan.isSleepingAt(0));
+        assertFalse(plan.isSleepingAt(12));
+        assertTrue(dailyPlan("12pm) Sleep").isSleepingAt(12));
+    }
+
+    @Test
+    void onlyCountsSleepAsTheWholeActivity() {
+        var plan = dailyPlan("21:00) Read before sleep", "22:00) Sleepwalk to the kitchen", "Sleep in late");
+
+        assertFalse(plan.isSleepingAt(21));
+        assertFalse(plan.isSleepingAt(22));
+    }
+
+    @Test
+    void fillsInTheHoursBeforeAndAfterTheDailyPlan() {
+        var plan = new Plan("8:00) Wake up\n12:00) Lunch\n21:00) Read");
+
+        assertTrue(plan.isSleepingAt(0));
+        assertTrue(plan.isSleepingAt(7));
+        assertFalse(plan.isSleepingAt(8));
+        assertFalse(plan.isSleepingAt(21));
+        assertTrue(plan.isSleepingAt(22));
+        assertTrue(plan.isSleepingAt(23));
+    }
+
+    @Test
+    void fillsInAroundAnAmAndPmDailyPlan() {
+        var plan = new Plan("7am) Wake up\n8am) Breakfast\n12pm) Lunch\n6pm) Dinner\n10pm) Read");
+
+        assertTrue(plan.isSleepingAt(0));
+        assertTrue(plan.isSleepingAt(6));
+        assertFalse(plan.isSleepingAt(7));
+
+        for (int hour = 11; hour <= 22; hour++) {
+            assertFalse(plan.isSleepingAt(hour), "asleep at " + hour);
+        }
+        assertTrue(plan.isSleepingAt(23));
+    }
+}
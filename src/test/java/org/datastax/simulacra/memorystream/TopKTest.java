@@ -0,0 +1,104 @@
+package org.datastax.simulacra.memorystream;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TopKTest {
+    @Test
+    void keepsTheHighestScoresHighestFirst() {
+        var topK = new TopK<String>(3);
+
+        topK.offer("b", 2);
+        topK.offer("e", 5);
+        topK.offer("a", 1);
+        topK.offer("d", 4);
+        topK.offer("c", 3);
+
+        assertEquals(List.of("e", "d", "c"), topK.toSortedList());
+    }
+
+    @Test
+    void returnsEverythingWhenThereAreFewerThanK() {
+        var topK = new TopK<String>(5);
+
+        topK.offer("a", 1);
+        topK.offer("b", 2);
+
+        assertEquals(List.of("b", "a"), topK.toSortedList());
+    }
+
+    @Test
+    void zeroOrNegativeKKeepsNothing() {
+        var zero = new TopK<String>(0);
+        var negative = new TopK<String>(-1);
+
+        zero.offer("a", 1);
+        negative.offer("a", 1);
+
+        assertEquals(List.of(), zero.toSortedList());
+        assertEquals(List.of(), negative.toSortedList());
+    }
+
+    @Test
+    void tiesDontDisplaceWhoeverIsAlreadyKept() {
+        var topK = new TopK<String>(2);
+
+        topK.offer("first", 1);
+        topK.offer("second", 1);
+        topK.offer("third", 1);
+
+        assertEquals(Set.of("first", "second"), Set.copyOf(topK.toSortedList()));
+    }
+
+    @Test
+    void aHigherScoreDisplacesOneOfTheTies() {
+        var topK = new TopK<String>(2);
+
+        topK.offer("first", 1);
+        topK.offer("second", 1);
+        topK.offer("best", 2);
+
+        var result = topK.toSortedList();
+
+        assertEquals("best", result.get(0));
+        assertTrue(Set.of("first", "second").contains(result.get(1)));
+    }
+
+    @Test
+    void matchesAFullSort() {
+        var random = new Random(42);
+
+        for (int trial = 0; trial < 50; trial++) {
+            var n = random.nextInt(200);
+            var k = random.nextInt(20);
+
+            // Coarse scores, so there are plenty of ties
+            var scores = IntStream.range(0, n).mapToDouble(i -> random.nextInt(30)).toArray();
+            var topK = new TopK<Integer>(k);
+
+            for (int i = 0; i < n; i++) {
+                topK.offer(i, scores[i]);
+            }
+
+            var expected = IntStream.range(0, n).boxed()
+                .sorted(Comparator.comparingDouble((Integer i) -> scores[i]).reversed())
+                .limit(k)
+                .map(i -> scores[i])
+                .toList();
+
+            var actual = new ArrayList<Double>();
+            topK.toSortedList().forEach(i -> actual.add(scores[i]));
+
+            assertEquals(expected, actual);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.datastax.simulacra.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.delayedExecutor;
+import static java.util.concurrent.CompletableFuture.failedFuture;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.datastax.simulacra.utils.Utils.asyncListProcessor;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AsyncListThreaderTest {
+    @Test
+    void dropsWhateverFailedAndReportsIt() {
+        var failed = Collections.synchronizedList(new ArrayList<>());
+
+        var result = asyncListProcessor(List.of(1, 2, 3))
+            .onFail((e, list, offender) -> failed.add(offender))
+            .peek(x -> (x == 2) ? failedFuture(new IllegalStateException()) : completedFuture(x))
+            .get();
+
+        assertEquals(List.of(1, 3), result);
+        assertEquals(List.of(2), failed);
+    }
+
+    @Test
+    void interruptWaitsOutWhatsGoingAndKeepsTheFlag() throws InterruptedException {
+        var slow = CompletableFuture.supplyAsync(() -> 1, delayedExecutor(300, MILLISECONDS));
+        var thrown = new AtomicReference<Throwable>();
+        var doneBeforeThrowing = new AtomicBoolean();
+        var stillInterrupted = new AtomicBoolean();
+        var reported = new AtomicBoolean();
+
+        var thread = new Thread(() -> {
+            try {
+                asyncListProcessor(List.of(1))
+                    .onFail((e, list, offender) -> reported.set(true))
+                    .peek(x -> slow);
+            } catch (Throwable e) {
+                thrown.set(e);
+                doneBeforeThrowing.set(slow.isDone());
+                stillInterrupted.set(Thread.currentThread().isInterrupted());
+            }
+        });
+
+        thread.start();
+        thread.interrupt();
+        thread.join(5000);
+
+        assertInstanceOf(CancellationException.class, thrown.get());
+        assertTrue(doneBeforeThrowing.get());
+        assertFalse(slow.isCancelled());
+        assertTrue(stillInterrupted.get());
+        assertFalse(reported.get());
+    }
+}
@@ -0,0 +1,159 @@
+package org.datastax.simulacra.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.delayedExecutor;
+import static java.util.concurrent.CompletableFuture.failedFuture;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.datastax.simulacra.utils.Utils.asyncListProcessor;
+import static org.datastax.simulacra.utils.Utils.map;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AsyncPipelineTest {
+    private final List<List<Integer>> batches = Collections.synchronizedList(new ArrayList<>());
+    private final Map<Integer, Long> batchedAt = new ConcurrentHashMap<>();
+
+    /**
+     * Each element takes as many ms as its value to get through the first stage.
+     */
+    private static CompletableFuture<Integer> takeAsLongAsItsValue(int value) {
+        return CompletableFuture.supplyAsync(() -> value, delayedExecutor(value, MILLISECONDS));
+    }
+
+    private List<CompletableFuture<Integer>> recordBatch(List<Integer> batch) {
+        batches.add(batch);
+        batch.forEach(element -> batchedAt.put(element, System.nanoTime()));
+        return map(batch, CompletableFuture::completedFuture);
+    }
+
+    @Test
+    void batchesWhoeverArrivesWithinTheWindow() {
+        var start = System.nanoTime();
+
+        var remaining = asyncListProcessor(List.of(1, 2, 3, 800, 801))
+            .pipelined()
+            .peek(AsyncPipelineTest::takeAsLongAsItsValue)
+            .peekBatch(this::recordBatch, 200)
+            .await();
+
+        assertEquals(List.of(1, 2, 3, 800, 801), remaining);
+        assertEquals(List.of(List.of(1, 2, 3), List.of(800, 801)), sorted(batches));
+
+        // The quick ones didn't wait on the slow ones to be batched
+        assertTrue((batchedAt.get(1) - start) / 1e6 < 600);
+    }
+
+    @Test
+    void waitsForEveryoneWithoutAWindow() {
+        var remaining = asyncListProcessor(List.of(1, 2, 300))
+            .pipelined()
+            .peek(AsyncPipelineTest::takeAsLongAsItsValue)
+            .peekBatch(this::recordBatch)
+            .await();
+
+        assertEquals(List.of(1, 2, 300), remaining);
+        assertEquals(List.of(List.of(1, 2, 300)), batches);
+    }
+
+    @Test
+    void doesntWaitOutTheWindowForElementsWhichDroppedOut() {
+        var start = System.nanoTime();
+
+        var remaining = asyncListProcessor(List.of(1, 2, 3))
+            .pipelined()
+            .peek(AsyncPipelineTest::takeAsLongAsItsValue)
+            .discardIf(element -> element == 3)
+            .peekBatch(this::recordBatch, 10_000)
+            .await();
+
+        assertEquals(List.of(1, 2), remaining);
+        assertTrue((System.nanoTime() - start) / 1e6 < 5_000);
+    }
+
+    @Test
+    void dropsElementsWhoseBatchFailed() {
+        var failed = Collections.synchronizedList(new ArrayList<>());
+
+        var remaining = asyncListProcessor(List.of(1, 2))
+            .onFail((e, list, offender) -> failed.add(offender))
+            .pipelined()
+            .peekBatch(batch -> map(batch, element -> (element == 1) ? failedFuture(new RuntimeException()) : completedFuture(element)), 50)
+            .await();
+
+        assertEquals(List.of(2), remaining);
+        assertEquals(List.of(1), failed);
+    }
+
+    @Test
+    void retriesJustTheElementThatFailed() {
+        var attempts = new ConcurrentHashMap<Integer, AtomicInteger>();
+
+        var remaining = asyncListProcessor(List.of(1, 2))
+            .pipelined()
+            .retrying(1)
+            .peek(element -> {
+                var attempt = attempts.computeIfAbsent(element, k -> new AtomicInteger()).getAndIncrement();
+                return (element == 1 && attempt == 0) ? failedFuture(new RuntimeException()) : completedFuture(element);
+            })
+            .await();
+
+        assertEquals(List.of(1, 2), remaining);
+        assertEquals(2, attempts.get(1).get());
+        assertEquals(1, attempts.get(2).get());
+    }
+
+    @Test
+    void interruptSkipsTheRestOnceWhatsGoingIsDone() throws InterruptedException {
+        var slow = takeAsLongAsItsValue(300);
+        var laterStages = new AtomicInteger();
+        var thrown = new AtomicReference<Throwable>();
+        var doneBeforeThrowing = new AtomicBoolean();
+        var stillInterrupted = new AtomicBoolean();
+
+        var thread = new Thread(() -> {
+            try {
+                asyncListProcessor(List.of(1, 2))
+                    .pipelined()
+                    .peek(element -> slow)
+                    .peek(element -> completedFuture(laterStages.incrementAndGet()))
+                    .peekBatch(batch -> map(batch, element -> completedFuture(laterStages.incrementAndGet())), 50)
+                    .await();
+            } catch (Throwable e) {
+                thrown.set(e);
+                doneBeforeThrowing.set(slow.isDone());
+                stillInterrupted.set(Thread.currentThread().isInterrupted());
+            }
+        });
+
+        thread.start();
+        Thread.sleep(50);
+        thread.interrupt();
+        thread.join(5000);
+
+        assertInstanceOf(CancellationException.class, thrown.get());
+        assertTrue(doneBeforeThrowing.get());
+        assertTrue(stillInterrupted.get());
+
+        // Nothing's started after the fact either
+        Thread.sleep(100);
+        assertEquals(0, laterStages.get());
+    }
+
+    private static List<List<Integer>> sorted(List<List<Integer>> batches) {
+        return batches.stream().map(batch -> batch.stream().sorted().toList()).sorted((a, b) -> a.get(0) - b.get(0)).toList();
+    }
+}
@@ -0,0 +1,44 @@
+package org.datastax.simulacra.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RecentLatenciesTest {
+    @Test
+    void isEmptyToStartWith() {
+        var latencies = new RecentLatencies(10);
+
+        assertEquals(0, latencies.count());
+        assertEquals(0, latencies.percentile(95));
+    }
+
+    @Test
+    void takesExactPercentiles() {
+        var latencies = new RecentLatencies(100);
+
+        for (int i = 1; i <= 100; i++) {
+            latencies.record(i);
+        }
+
+        assertEquals(50, latencies.percentile(50));
+        assertEquals(95, latencies.percentile(95));
+        assertEquals(100, latencies.percentile(100));
+        assertEquals(1, latencies.percentile(0));
+    }
+
+    @Test
+    void forgetsAnythingOlderThanTheWindow() {
+        var latencies = new RecentLatencies(10);
+
+        for (int i = 0; i < 10; i++) {
+            latencies.record(5000);
+        }
+        for (int i = 0; i < 10; i++) {
+            latencies.record(10);
+        }
+
+        assertEquals(10, latencies.count());
+        assertEquals(10, latencies.percentile(99));
+    }
+}